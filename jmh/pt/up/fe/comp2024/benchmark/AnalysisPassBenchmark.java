@@ -0,0 +1,44 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2024.analysis.AnalysisPass;
+import pt.up.fe.comp2024.analysis.passes.*;
+import pt.up.fe.comp2024.analysis.passes.Class;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures each analysis pass on its own. Passes keep their reports, so a new instance is created for each invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnalysisPassBenchmark {
+
+    private static final Map<String, Supplier<AnalysisPass>> PASSES = Map.of(
+            "Variable", Variable::new,
+            "Class", Class::new,
+            "ExprTypes", ExprTypes::new,
+            "ArrayAccess", ArrayAccess::new,
+            "IfStatement", IfStatement::new,
+            "WhileStatement", WhileStatement::new,
+            "MethodCalls", MethodCalls::new,
+            "ReturnType", ReturnType::new,
+            "Assignment", Assignment::new);
+
+    @Param({"Variable", "Class", "ExprTypes", "ArrayAccess", "IfStatement", "WhileStatement", "MethodCalls",
+            "ReturnType", "Assignment"})
+    public String pass;
+
+    @Benchmark
+    public List<Report> analyze(PipelineState state) {
+        return PASSES.get(pass).get().analyze(state.parserResult.getRootNode(), state.semanticsResult.getSymbolTable());
+    }
+}
@@ -0,0 +1,51 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2024.analysis.AnalysisVisitor;
+import pt.up.fe.comp2024.analysis.FusedAnalysis;
+import pt.up.fe.comp2024.analysis.ParallelAnalysis;
+import pt.up.fe.comp2024.analysis.passes.*;
+import pt.up.fe.comp2024.analysis.passes.Class;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares running every analysis pass in a single traversal, running the passes one after the other, and running each
+ * pass in parallel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FusedAnalysisBenchmark {
+
+    @Benchmark
+    public List<Report> fused(PipelineState state) {
+        return new FusedAnalysis(newPasses())
+                .analyze(state.parserResult.getRootNode(), state.semanticsResult.getSymbolTable());
+    }
+
+    @Benchmark
+    public List<Report> parallel(PipelineState state) {
+        return new ParallelAnalysis(newPasses())
+                .analyze(state.parserResult.getRootNode(), state.semanticsResult.getSymbolTable());
+    }
+
+    @Benchmark
+    public List<Report> sequential(PipelineState state) {
+        List<Report> reports = new ArrayList<>();
+        for (var pass : newPasses()) {
+            reports.addAll(pass.analyze(state.parserResult.getRootNode(), state.semanticsResult.getSymbolTable()));
+        }
+        return reports;
+    }
+
+    private static List<AnalysisVisitor> newPasses() {
+        return List.of(new Variable(), new Class(), new ExprTypes(), new ArrayAccess(), new IfStatement(),
+                new WhileStatement(), new MethodCalls(), new ReturnType(), new Assignment());
+    }
+}
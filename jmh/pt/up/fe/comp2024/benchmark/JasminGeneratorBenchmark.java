@@ -0,0 +1,41 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminGenerator;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the generation of Jasmin code from an already parsed OLLIR class, with methods generated one after the
+ * other or in parallel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JasminGeneratorBenchmark {
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private OllirResult ollirResult;
+
+    @Setup(Level.Trial)
+    public void setup(PipelineState state) {
+        // The generator reads the parallel option from the config of the OLLIR result
+        var config = new HashMap<>(state.config);
+        config.put("parallel", Boolean.toString(parallel));
+
+        ollirResult = new OllirResult(state.ollirResult.getOllirCode(), config);
+    }
+
+    @Benchmark
+    public String build() {
+        // build() caches its result, so a new generator is needed for each invocation
+        return new JasminGenerator(ollirResult).build();
+    }
+}
@@ -0,0 +1,31 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp2024.optimization.OllirGeneratorVisitor;
+import pt.up.fe.comp2024.optimization.OptUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the generation of the OLLIR class, with methods generated one after the other or in parallel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OllirGeneratorBenchmark {
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    @Benchmark
+    public ClassUnit visit(PipelineState state) {
+        OptUtils.resetCounters();
+
+        var visitor = new OllirGeneratorVisitor(state.semanticsResult.getSymbolTable(), parallel);
+        return visitor.generate(state.semanticsResult.getRootNode());
+    }
+}
@@ -0,0 +1,67 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2024.optimization.JmmOptimizationImpl;
+import pt.up.fe.comp2024.parser.JmmParserImpl;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Map;
+
+/**
+ * Input of the benchmarks, together with the results of every stage, so that each benchmark only measures its own
+ * stage.
+ * <p>
+ * Inputs are either test resources or 'synthetic-N', a program with N methods generated by {@link ProgramGenerator}.
+ */
+@State(Scope.Benchmark)
+public class PipelineState {
+
+    private static final String SYNTHETIC_PREFIX = "synthetic-";
+
+    @Param({
+            "pt/up/fe/comp/cpf/4_jasmin/control_flow/SwitchStat.jmm",
+            "pt/up/fe/comp/cp2/semanticanalysis/ifhell.jmm",
+            "synthetic-10",
+            "synthetic-100"
+    })
+    public String input;
+
+    public String code;
+    public Map<String, String> config;
+    public JmmParserResult parserResult;
+    public JmmSemanticsResult semanticsResult;
+    public OllirResult ollirResult;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        code = load(input);
+        config = CompilerConfig.getDefault();
+
+        parserResult = new JmmParserImpl().parse(code, config);
+        TestUtils.noErrors(parserResult.getReports());
+
+        semanticsResult = new JmmAnalysisImpl().semanticAnalysis(parserResult);
+        TestUtils.noErrors(semanticsResult.getReports());
+
+        ollirResult = new JmmOptimizationImpl().toOllir(semanticsResult);
+        TestUtils.noErrors(ollirResult.getReports());
+    }
+
+    public static String load(String input) {
+        if (input.startsWith(SYNTHETIC_PREFIX)) {
+            return ProgramGenerator.withMethods(Integer.parseInt(input.substring(SYNTHETIC_PREFIX.length())));
+        }
+
+        return SpecsIo.getResource(input);
+    }
+}
@@ -0,0 +1,170 @@
+package pt.up.fe.comp2024.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates valid Java-- programs of configurable size and shape, to stress the compiler with inputs much larger than
+ * the test resources.
+ * <p>
+ * Only constructs of the grammar that every stage of the compiler supports are used: int locals, an int array
+ * parameter, arithmetic and comparisons, '&&', '!', array accesses, 'length', if/else, while and calls to other
+ * methods of the class. The output is deterministic for a given configuration and seed.
+ */
+public class ProgramGenerator {
+
+    private static final String INDENT = "    ";
+
+    private final int methods;
+    private final int locals;
+    private final int depth;
+    private final int arrayExprs;
+    private final int calls;
+    private final Random random;
+
+    private StringBuilder code;
+    private int currentMethod;
+
+    /**
+     * @param methods    number of methods of the class, besides main
+     * @param locals     number of int locals of each method
+     * @param depth      maximum nesting depth of if/while statements
+     * @param arrayExprs number of array reads and writes in each block
+     * @param calls      number of calls each method makes, each to one of the methods declared after it, so that the
+     *                   methods form call chains
+     * @param seed       seed of the generator of expressions
+     */
+    public ProgramGenerator(int methods, int locals, int depth, int arrayExprs, int calls, long seed) {
+        if (methods < 1 || locals < 1 || depth < 0 || arrayExprs < 0 || calls < 0) {
+            throw new IllegalArgumentException("Expected at least one method and one local, and no negative sizes");
+        }
+
+        this.methods = methods;
+        this.locals = locals;
+        this.depth = depth;
+        this.arrayExprs = arrayExprs;
+        this.calls = calls;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * A program with the given number of methods, and a default shape for each method.
+     */
+    public static String withMethods(int methods) {
+        return new ProgramGenerator(methods, 8, 2, 2, 2, 0).generate();
+    }
+
+    public String generate() {
+        code = new StringBuilder();
+
+        code.append("import io;\n\n");
+        code.append("class Generated {\n");
+
+        for (currentMethod = 0; currentMethod < methods; currentMethod++) {
+            generateMethod();
+        }
+
+        generateMain();
+
+        code.append("}\n");
+
+        return code.toString();
+    }
+
+    private void generateMethod() {
+        line(1, "public int m" + currentMethod + "(int[] values, int limit) {");
+
+        for (int i = 0; i < locals; i++) {
+            line(2, "int l" + i + ";");
+        }
+        line(2, "boolean flag;");
+
+        // Every local is initialized before any other statement
+        for (int i = 0; i < locals; i++) {
+            line(2, local(i) + " = " + random.nextInt(100) + ";");
+        }
+        line(2, "flag = " + condition() + ";");
+
+        generateBlock(2, depth);
+
+        for (int i = 0; i < calls && currentMethod + 1 < methods; i++) {
+            var callee = currentMethod + 1 + random.nextInt(methods - currentMethod - 1);
+            line(2, randomLocal() + " = this.m" + callee + "(values, " + randomLocal() + ");");
+        }
+
+        line(2, "return " + randomLocal() + ";");
+        line(1, "}");
+        code.append("\n");
+    }
+
+    private void generateBlock(int indent, int remainingDepth) {
+        line(indent, randomLocal() + " = " + intExpr(2) + ";");
+
+        for (int i = 0; i < arrayExprs; i++) {
+            line(indent, "values[" + randomLocal() + "] = " + intExpr(1) + ";");
+            line(indent, randomLocal() + " = values[" + randomLocal() + "] + values.length;");
+        }
+
+        if (remainingDepth == 0) {
+            return;
+        }
+
+        line(indent, "if (" + condition() + ") {");
+        generateBlock(indent + 1, remainingDepth - 1);
+        line(indent, "} else {");
+        generateBlock(indent + 1, remainingDepth - 1);
+        line(indent, "}");
+
+        var counter = randomLocal();
+        line(indent, "while (" + counter + " < limit) {");
+        generateBlock(indent + 1, remainingDepth - 1);
+        line(indent + 1, counter + " = " + counter + " + 1;");
+        line(indent, "}");
+    }
+
+    private String intExpr(int remainingDepth) {
+        if (remainingDepth == 0) {
+            return random.nextBoolean() ? randomLocal() : Integer.toString(random.nextInt(1000));
+        }
+
+        var op = switch (random.nextInt(4)) {
+            case 0 -> " + ";
+            case 1 -> " - ";
+            case 2 -> " * ";
+            default -> " / ";
+        };
+
+        return intExpr(remainingDepth - 1) + op + intExpr(remainingDepth - 1);
+    }
+
+    private String condition() {
+        return switch (random.nextInt(3)) {
+            case 0 -> randomLocal() + " < " + intExpr(1);
+            case 1 -> "!(" + randomLocal() + " < " + randomLocal() + ")";
+            default -> randomLocal() + " < limit && " + randomLocal() + " < values.length";
+        };
+    }
+
+    private void generateMain() {
+        line(1, "public static void main(String[] args) {");
+        line(2, "int[] values;");
+        line(2, "Generated generated;");
+        line(2, "int result;");
+        line(2, "values = new int[1000];");
+        line(2, "generated = new Generated();");
+        line(2, "result = generated.m0(values, 10);");
+        line(2, "io.println(result);");
+        line(1, "}");
+    }
+
+    private String randomLocal() {
+        return local(random.nextInt(locals));
+    }
+
+    private static String local(int index) {
+        return "l" + index;
+    }
+
+    private void line(int indent, String statement) {
+        code.append(INDENT.repeat(indent)).append(statement).append("\n");
+    }
+}
@@ -0,0 +1,163 @@
+package pt.up.fe.comp2024.benchmark;
+
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.Launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles generated programs of increasing size and reports how compile time and peak heap grow with the size of the
+ * input, to find where the pipeline stops scaling linearly.
+ * <p>
+ * Options are given as 'key=value' arguments:
+ * <ul>
+ * <li>methods: comma-separated list of method counts, one program per count (default 10,50,100,250,500)</li>
+ * <li>locals, depth, arrays, calls, seed: shape of each method, see {@link ProgramGenerator}</li>
+ * <li>reps: compilations of each program, after one warm-up compilation; the median time is reported (default 5)</li>
+ * <li>out: CSV file where the results are also written (optional)</li>
+ * </ul>
+ */
+public class ScalingRunner {
+
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "methods", "10,50,100,250,500",
+            "locals", "8",
+            "depth", "2",
+            "arrays", "2",
+            "calls", "2",
+            "seed", "0",
+            "reps", "5"
+    );
+
+    /**
+     * Measurements of a generated program.
+     */
+    public record Sample(int methods, int lines, int bytes, double medianMs, long peakHeapBytes) {
+    }
+
+    public static void main(String[] args) {
+        var options = parseOptions(args);
+
+        List<Sample> samples = new ArrayList<>();
+        System.out.printf("%8s %8s %10s %12s %14s%n", "methods", "lines", "bytes", "median ms", "peak heap MB");
+
+        for (var methods : options.get("methods").split(",")) {
+            var generator = new ProgramGenerator(
+                    Integer.parseInt(methods.trim()),
+                    Integer.parseInt(options.get("locals")),
+                    Integer.parseInt(options.get("depth")),
+                    Integer.parseInt(options.get("arrays")),
+                    Integer.parseInt(options.get("calls")),
+                    Long.parseLong(options.get("seed")));
+
+            var sample = measure(Integer.parseInt(methods.trim()), generator.generate(),
+                    Integer.parseInt(options.get("reps")));
+            samples.add(sample);
+
+            System.out.printf("%8d %8d %10d %12.1f %14.1f%n", sample.methods(), sample.lines(), sample.bytes(),
+                    sample.medianMs(), sample.peakHeapBytes() / (1024.0 * 1024.0));
+        }
+
+        if (options.containsKey("out")) {
+            writeCsv(new File(options.get("out")), samples);
+        }
+    }
+
+    public static Sample measure(int methods, String code, int reps) {
+        var config = CompilerConfig.getDefault();
+
+        // Warm-up compilation, which also checks that the generated program is accepted by every stage
+        Launcher.compile(code, config);
+
+        double[] times = new double[reps];
+        long peakHeap = 0;
+        for (int i = 0; i < reps; i++) {
+            System.gc();
+            resetPeakHeap();
+
+            var start = System.nanoTime();
+            Launcher.compile(code, config);
+            times[i] = (System.nanoTime() - start) / 1_000_000.0;
+
+            peakHeap = Math.max(peakHeap, getPeakHeap());
+        }
+
+        Arrays.sort(times);
+
+        return new Sample(methods, (int) code.lines().count(), code.length(), times[reps / 2], peakHeap);
+    }
+
+    private static void resetPeakHeap() {
+        for (var pool : getHeapPools()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * Sum of the peak usage of every heap pool since the last reset. Pools peak at different moments, so this is an
+     * upper bound of the real peak.
+     */
+    private static long getPeakHeap() {
+        return getHeapPools().stream()
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum();
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+                .toList();
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        var options = new HashMap<>(DEFAULTS);
+
+        for (var arg : args) {
+            var separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new RuntimeException("Expected arguments of the form 'key=value', got '" + arg + "'");
+            }
+
+            var key = arg.substring(0, separator);
+            if (!DEFAULTS.containsKey(key) && !key.equals("out")) {
+                throw new RuntimeException("Unknown option '" + key + "', expected one of " + DEFAULTS.keySet()
+                        + " or 'out'");
+            }
+
+            options.put(key, arg.substring(separator + 1));
+        }
+
+        return options;
+    }
+
+    private static void writeCsv(File file, List<Sample> samples) {
+        var csv = new StringBuilder("methods,lines,bytes,median_ms,peak_heap_bytes\n");
+        for (var sample : samples) {
+            csv.append(sample.methods()).append(',')
+                    .append(sample.lines()).append(',')
+                    .append(sample.bytes()).append(',')
+                    .append(String.format("%.3f", sample.medianMs())).append(',')
+                    .append(sample.peakHeapBytes()).append('\n');
+        }
+
+        try {
+            if (file.getParentFile() != null) {
+                Files.createDirectories(file.getParentFile().toPath());
+            }
+            Files.writeString(file.toPath(), csv);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write results to " + file, e);
+        }
+    }
+}
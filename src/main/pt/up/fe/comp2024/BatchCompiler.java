@@ -0,0 +1,142 @@
+package pt.up.fe.comp2024;
+
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles several Java-- files in a single JVM, using a bounded pool of worker threads.
+ * <p>
+ * Each file goes through the same pipeline as {@link Launcher#compile(String, Map)}, and a failure in one file does not
+ * stop the compilation of the others.
+ */
+public class BatchCompiler {
+
+    private final Map<String, String> config;
+
+    public BatchCompiler(Map<String, String> config) {
+        this.config = config;
+    }
+
+    /**
+     * Result of compiling a single file of the batch.
+     *
+     * @param file    the compiled file
+     * @param error   the error message, or null if the file compiled successfully
+     * @param timeMs  the time spent compiling the file, in milliseconds
+     * @param output  what {@link Launcher#printResult} prints for the file, or null if it prints nothing
+     */
+    public record FileResult(File file, String error, long timeMs, String output) {
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * Compiles every input of the batch and prints a per-file summary.
+     *
+     * @param out where the summary is printed
+     * @return true if all files compiled without errors
+     */
+    public boolean run(PrintStream out) {
+        var results = compileAll();
+
+        var failed = 0;
+        for (var result : results) {
+            if (result.isSuccess()) {
+                out.printf("OK    %s (%d ms)%n", result.file(), result.timeMs());
+                if (result.output() != null) {
+                    out.println(result.output());
+                }
+            } else {
+                out.printf("FAIL  %s (%d ms): %s%n", result.file(), result.timeMs(), result.error());
+                failed++;
+            }
+        }
+
+        out.printf("%d file(s) compiled, %d failed%n", results.size() - failed, failed);
+
+        return failed == 0;
+    }
+
+    /**
+     * Compiles every input of the batch.
+     *
+     * @return the results, in the same order as the inputs
+     */
+    public List<FileResult> compileAll() {
+        var inputs = CompilerConfig.getBatchInputs(config);
+        var threads = Math.min(CompilerConfig.getThreads(config), Math.max(inputs.size(), 1));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<FileResult>> futures = new ArrayList<>();
+            for (var input : inputs) {
+                futures.add(pool.submit(() -> compileFile(input)));
+            }
+
+            List<FileResult> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(getResult(futures.get(i), inputs.get(i)));
+            }
+
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private FileResult compileFile(File input) {
+        var start = System.nanoTime();
+
+        try {
+            var fileConfig = CompilerConfig.forInputFile(config, input);
+            var result = Launcher.compileTimed(SpecsIo.read(input), fileConfig);
+
+            // Printed with the summary, so that the output of files compiled in parallel is not interleaved
+            var output = new ByteArrayOutputStream();
+            Launcher.printResult(result, fileConfig, new PrintStream(output, true, StandardCharsets.UTF_8));
+
+            return new FileResult(input, null, elapsedMs(start),
+                    output.size() == 0 ? null : output.toString(StandardCharsets.UTF_8).stripTrailing());
+        } catch (Exception e) {
+            return new FileResult(input, getMessage(e), elapsedMs(start), null);
+        }
+    }
+
+    private static FileResult getResult(Future<FileResult> future, File input) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new FileResult(input, "Interrupted while waiting for compilation", 0, null);
+        } catch (ExecutionException e) {
+            return new FileResult(input, getMessage(e.getCause()), 0, null);
+        }
+    }
+
+    private static String getMessage(Throwable e) {
+        var message = e.getMessage();
+        if (message == null || message.isBlank()) {
+            return e.getClass().getSimpleName();
+        }
+
+        // Keep the summary to a single line per file
+        return message.strip().lines().findFirst().orElse(message);
+    }
+
+    private static long elapsedMs(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,340 @@
+package pt.up.fe.comp2024;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running compiler process that keeps the pipeline loaded and warmed up, and accepts compile requests on a
+ * localhost port.
+ * <p>
+ * Protocol (UTF-8, one item per line): the client sends the token of the daemon, its working directory, then the
+ * number of command-line arguments, then each argument (which may be empty, but cannot contain a line break). The
+ * daemon answers with the output of the compilation, followed by a last line 'EXIT &lt;code&gt;'.
+ * <p>
+ * The socket is only bound to the loopback interface, where any local user can connect to it. Since a request reads
+ * and writes files as the user running the daemon, the daemon writes a random token to a file only that user can read
+ * (see {@link #getTokenFile}), and closes any connection that does not start with it.
+ */
+public class CompileDaemon {
+
+    public static final String EXIT_PREFIX = "EXIT ";
+
+    /**
+     * Folder of the token files, when the daemon is started from the command line.
+     */
+    public static final Path DEFAULT_TOKEN_FOLDER = Path.of(System.getProperty("user.home"), ".jmm");
+
+    /**
+     * How long a connection may wait for the next line of a request, so that idle clients do not hold the threads.
+     */
+    private static final int READ_TIMEOUT_MS = 10_000;
+
+    private static final int TOKEN_BYTES = 32;
+
+    private static final int WARMUP_ITERATIONS = 20;
+
+    private static final String WARMUP_CODE = """
+            import io;
+            class Warmup {
+                int field;
+                public int sum(int[] values) {
+                    int i;
+                    int total;
+                    i = 0;
+                    total = 0;
+                    while (i < values.length) {
+                        total = total + values[i] * 2;
+                        i = i + 1;
+                    }
+                    return total;
+                }
+                public boolean check(int a, int b) {
+                    boolean result;
+                    if (a < b) {
+                        result = true;
+                    } else {
+                        result = !(b < a);
+                    }
+                    return result;
+                }
+                public static void main(String[] args) {
+                    int[] values;
+                    Warmup warmup;
+                    int total;
+                    values = new int[10];
+                    values[0] = 1;
+                    warmup = new Warmup();
+                    total = warmup.sum(values);
+                    io.println(total);
+                }
+            }
+            """;
+
+    private final int port;
+    private final int threads;
+    private final Path tokenFolder;
+    private final byte[] token;
+
+    private ServerSocket server;
+    private Path tokenFile;
+
+    public CompileDaemon(int port, int threads) {
+        this(port, threads, DEFAULT_TOKEN_FOLDER);
+    }
+
+    /**
+     * @param port        the localhost port to listen on, or 0 for any free one
+     * @param tokenFolder the folder where the token file is written
+     */
+    public CompileDaemon(int port, int threads, Path tokenFolder) {
+        this.port = port;
+        this.threads = threads;
+        this.tokenFolder = tokenFolder;
+
+        var bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        this.token = HexFormat.of().formatHex(bytes).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the file with the token of the daemon listening on the given port
+     */
+    public static Path getTokenFile(Path tokenFolder, int port) {
+        return tokenFolder.resolve("daemon-" + port + ".token");
+    }
+
+    /**
+     * Warms up the pipeline and serves requests until the process is killed.
+     */
+    public void run() {
+        warmup();
+
+        // The token file is removed when the daemon is killed
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+
+        try {
+            var boundPort = bind();
+            System.out.println("Compile daemon listening on port " + boundPort + ", token in " + tokenFile);
+            serve();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Compile daemon stopped", e);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Opens the socket and writes the token file.
+     *
+     * @return the port the daemon listens on
+     */
+    public int bind() throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        tokenFile = getTokenFile(tokenFolder, server.getLocalPort());
+        writeToken();
+
+        return server.getLocalPort();
+    }
+
+    /**
+     * Serves requests until the daemon is closed.
+     */
+    public void serve() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            while (!server.isClosed()) {
+                Socket client;
+                try {
+                    client = server.accept();
+                } catch (IOException e) {
+                    // Closed by close()
+                    if (server.isClosed()) {
+                        return;
+                    }
+                    throw e;
+                }
+                pool.submit(() -> serve(client));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting requests and removes the token file.
+     */
+    public void close() {
+        try {
+            if (server != null) {
+                server.close();
+            }
+            if (tokenFile != null) {
+                Files.deleteIfExists(tokenFile);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not close the compile daemon: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the token to a new file that only the owner can read, so a token left by someone else is never used.
+     */
+    private void writeToken() throws IOException {
+        var posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+        if (posix) {
+            Files.createDirectories(tokenFolder,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(tokenFolder);
+        }
+
+        Files.deleteIfExists(tokenFile);
+        if (posix) {
+            Files.createFile(tokenFile,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(tokenFile);
+        }
+
+        Files.write(tokenFile, token);
+    }
+
+    /**
+     * Compiles a sample program several times, so that the lexer, parser and the rest of the pipeline are loaded and
+     * JIT-compiled before the first request arrives.
+     */
+    private void warmup() {
+        var start = System.nanoTime();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            Launcher.compile(WARMUP_CODE, CompilerConfig.getDefault());
+        }
+
+        System.out.printf("Compile daemon warmed up in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void serve(Socket client) {
+        try (client;
+             var in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             var out = new PrintStream(client.getOutputStream(), true, StandardCharsets.UTF_8)) {
+
+            client.setSoTimeout(READ_TIMEOUT_MS);
+
+            var clientToken = in.readLine();
+            if (clientToken == null
+                    || !MessageDigest.isEqual(token, clientToken.getBytes(StandardCharsets.UTF_8))) {
+                out.println("Invalid compile daemon token");
+                out.println(EXIT_PREFIX + 1);
+                return;
+            }
+
+            var workingDir = in.readLine();
+            if (workingDir == null) {
+                return;
+            }
+
+            var exitCode = handle(new File(workingDir), readArgs(in), out);
+            out.println(EXIT_PREFIX + exitCode);
+        } catch (IOException e) {
+            System.err.println("Could not serve compile request: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the arguments that follow their number, in the request
+     */
+    private static List<String> readArgs(BufferedReader in) throws IOException {
+        var count = in.readLine();
+        int size;
+        try {
+            size = Integer.parseInt(String.valueOf(count));
+        } catch (NumberFormatException e) {
+            size = -1;
+        }
+        if (size < 0) {
+            throw new IOException("Expected the number of arguments, got '" + count + "'");
+        }
+
+        List<String> args = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            var arg = in.readLine();
+            if (arg == null) {
+                throw new EOFException("Expected " + size + " arguments, got " + args.size());
+            }
+            args.add(arg);
+        }
+
+        return args;
+    }
+
+    private int handle(File workingDir, List<String> args, PrintStream out) {
+        try {
+            Map<String, String> config = CompilerConfig.parseArgs(resolveArgs(workingDir, args));
+
+            if (CompilerConfig.isBatch(config)) {
+                return new BatchCompiler(config).run(out) ? 0 : 1;
+            }
+
+            var result = Launcher.compileTimed(Launcher.readInputFile(config), config);
+            Launcher.printResult(result, config, out);
+
+            return 0;
+        } catch (Exception e) {
+            out.println(e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Paths given by the client are relative to its own working directory, not the daemon's.
+     */
+    private static String[] resolveArgs(File workingDir, List<String> args) {
+        return args.stream()
+                .map(arg -> {
+                    if (arg.startsWith("-i=")) {
+                        return "-i=" + resolve(workingDir, arg.substring(3));
+                    }
+
+                    if (arg.equals("-c")) {
+                        return "-c=" + workingDir.getPath();
+                    }
+
+                    if (arg.startsWith("-c=")) {
+                        return "-c=" + resolve(workingDir, arg.substring(3));
+                    }
+
+                    if (arg.startsWith("-b=")) {
+                        var paths = arg.substring(3).split(",");
+                        var resolved = new ArrayList<String>();
+                        for (var path : paths) {
+                            resolved.add(resolve(workingDir, path.trim()));
+                        }
+                        return "-b=" + String.join(",", resolved);
+                    }
+
+                    return arg;
+                })
+                .toArray(String[]::new);
+    }
+
+    private static String resolve(File workingDir, String path) {
+        var file = new File(path);
+        return file.isAbsolute() ? path : new File(workingDir, path).getPath();
+    }
+}
@@ -1,15 +1,31 @@
 package pt.up.fe.comp2024;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
 
 public class CompilerConfig {
 
     private static final String INPUT_FILE = "inputFile";
     private static final String OPTIMIZE = "optimize";
     private static final String REGISTER = "registerAllocation";
+    private static final String BATCH = "batch";
+    private static final String THREADS = "threads";
+    private static final String DAEMON = "daemon";
+    private static final String TIMING = "timing";
+    private static final String PARALLEL = "parallel";
+    private static final String DUMP = "dump";
+    private static final String CLASS_FILE = "classFile";
+    private static final String PEEPHOLE = "peephole";
+
+    private static final String TIMING_TABLE = "table";
+    private static final String TIMING_JSON = "json";
+
+    private static final String JMM_EXTENSION = ".jmm";
 
 
     static Map<String, String> shortToLong = new HashMap<>();
@@ -18,6 +34,14 @@ public class CompilerConfig {
         shortToLong.put("i", CompilerConfig.INPUT_FILE);
         shortToLong.put("o", CompilerConfig.OPTIMIZE);
         shortToLong.put("r", CompilerConfig.REGISTER);
+        shortToLong.put("b", CompilerConfig.BATCH);
+        shortToLong.put("j", CompilerConfig.THREADS);
+        shortToLong.put("s", CompilerConfig.DAEMON);
+        shortToLong.put("t", CompilerConfig.TIMING);
+        shortToLong.put("p", CompilerConfig.PARALLEL);
+        shortToLong.put("d", CompilerConfig.DUMP);
+        shortToLong.put("c", CompilerConfig.CLASS_FILE);
+        shortToLong.put("e", CompilerConfig.PEEPHOLE);
     }
 
 
@@ -32,6 +56,149 @@ public class CompilerConfig {
         return Optional.of(new File(inputFile));
     }
 
+    /**
+     * @return true if the compiler was called with '-b', i.e., to compile several files in a single run
+     */
+    public static boolean isBatch(Map<String, String> config) {
+        return config.containsKey(BATCH);
+    }
+
+    /**
+     * Expands the value of the batch option, which is either a folder (all .jmm files inside it are compiled) or a
+     * comma-separated list of files.
+     *
+     * @return the files to compile, in a deterministic order
+     */
+    public static List<File> getBatchInputs(Map<String, String> config) {
+        var batch = config.get(BATCH);
+
+        if (batch == null) {
+            return Collections.emptyList();
+        }
+
+        var folder = new File(batch);
+        if (folder.isDirectory()) {
+            try (Stream<Path> paths = Files.walk(folder.toPath())) {
+                return paths.filter(path -> path.toString().endsWith(JMM_EXTENSION))
+                        .filter(Files::isRegularFile)
+                        .sorted()
+                        .map(Path::toFile)
+                        .toList();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not list files in folder '" + folder + "'", e);
+            }
+        }
+
+        return Arrays.stream(batch.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .map(File::new)
+                .toList();
+    }
+
+    /**
+     * @return the number of worker threads to use when compiling several files, by default the number of cores
+     */
+    public static int getThreads(Map<String, String> config) {
+        var threads = config.get(THREADS);
+
+        if (threads == null) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+        return Integer.parseInt(threads);
+    }
+
+    /**
+     * @return the localhost port given with '-s=&lt;port&gt;', if the compiler should run as a daemon
+     */
+    public static Optional<Integer> getDaemonPort(Map<String, String> config) {
+        var port = config.get(DAEMON);
+
+        if (port == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(Integer.parseInt(port));
+    }
+
+    /**
+     * @return the format of the per-stage timings requested with '-t' ('table') or '-t=json' ('json'), if any
+     */
+    public static Optional<String> getTiming(Map<String, String> config) {
+        var timing = config.get(TIMING);
+
+        if (timing == null) {
+            return Optional.empty();
+        }
+
+        if (timing.equals("true") || timing.equals(TIMING_TABLE)) {
+            return Optional.of(TIMING_TABLE);
+        }
+
+        if (timing.equals(TIMING_JSON)) {
+            return Optional.of(TIMING_JSON);
+        }
+
+        throw new RuntimeException("Option '-t' expects '" + TIMING_TABLE + "' or '" + TIMING_JSON + "', got '" + timing + "'");
+    }
+
+    /**
+     * @return true if the timings should be printed as JSON instead of as a table
+     */
+    public static boolean isTimingJson(Map<String, String> config) {
+        return getTiming(config).filter(TIMING_JSON::equals).isPresent();
+    }
+
+    /**
+     * Creates the configuration used to compile a single file of a batch, with the same options as the batch.
+     */
+    public static Map<String, String> forInputFile(Map<String, String> config, File inputFile) {
+        var fileConfig = new HashMap<>(config);
+
+        fileConfig.remove(BATCH);
+        fileConfig.remove(THREADS);
+        fileConfig.put(INPUT_FILE, inputFile.getAbsolutePath());
+
+        return fileConfig;
+    }
+
+    /**
+     * @return true if the compiler was called with '-p', i.e., to run the independent work of each stage in parallel
+     */
+    public static boolean isParallel(Map<String, String> config) {
+        return Boolean.parseBoolean(config.getOrDefault(PARALLEL, "false"));
+    }
+
+    /**
+     * @return true if the compiler was called with '-d', i.e., to print the generated Jasmin code to the console
+     */
+    public static boolean isDump(Map<String, String> config) {
+        return Boolean.parseBoolean(config.getOrDefault(DUMP, "false"));
+    }
+
+    /**
+     * @return the folder given with '-c=&lt;folder&gt;' (or the working directory, with just '-c'), if the class file
+     * should be generated directly and written there, instead of generating Jasmin code
+     */
+    public static Optional<File> getClassFileFolder(Map<String, String> config) {
+        var folder = config.get(CLASS_FILE);
+
+        if (folder == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(folder.equals("true") ? new File(".") : new File(folder));
+    }
+
+    /**
+     * @return the peephole rules given with '-e=&lt;rule&gt;,...' ('true' with just '-e'), if the rules applied to the
+     * generated Jasmin code were chosen explicitly
+     */
+    public static Optional<String> getPeephole(Map<String, String> config) {
+        return Optional.ofNullable(config.get(PEEPHOLE));
+    }
+
     public static boolean getOptimize(Map<String, String> config) {
         return Boolean.parseBoolean(config.getOrDefault(OPTIMIZE, "false"));
     }
@@ -89,9 +256,46 @@ public class CompilerConfig {
             config.put(getLongOpt(shortOption), value);
         }
 
+        if (config.containsKey(DAEMON)) {
+            var port = getDaemonPort(config).orElseThrow();
+            if (port < 0 || port > 65535) {
+                throw new RuntimeException("Option '-s' expects a valid port, got '" + port + "'");
+            }
+
+            // The daemon serves that many requests at a time
+            if (getThreads(config) < 1) {
+                throw new RuntimeException("Option '-j' expects a positive number of threads");
+            }
+
+            return config;
+        }
+
+        if (isBatch(config)) {
+            var inputs = getBatchInputs(config);
+            if (inputs.isEmpty()) {
+                throw new RuntimeException("Option '-b' did not match any input file, got '" + config.get(BATCH) + "'");
+            }
+
+            for (var input : inputs) {
+                if (!input.isFile()) {
+                    throw new RuntimeException("Could not find input file '" + input + "'");
+                }
+            }
+
+            if (getThreads(config) < 1) {
+                throw new RuntimeException("Option '-j' expects a positive number of threads");
+            }
+
+            getOptimize(config);
+            getRegisterAllocation(config);
+            getTiming(config);
+
+            return config;
+        }
+
         if (!config.containsKey(INPUT_FILE)) {
 
-            throw new RuntimeException("Expected an input file, use '-i=<PATH_TO_FILE>'");
+            throw new RuntimeException("Expected an input file, use '-i=<PATH_TO_FILE>' (or '-b=<FOLDER_OR_FILES>' to compile several files)");
         }
 
         // make sure we save the absolute path of the input file
@@ -106,6 +310,7 @@ public class CompilerConfig {
         // Verify if values are valid
         getOptimize(config);
         getRegisterAllocation(config);
+        getTiming(config);
 
         return config;
     }
@@ -2,16 +2,24 @@ package pt.up.fe.comp2024;
 
 import pt.up.fe.comp.TestUtils;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.jasmin.JasminBackend;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2024.backend.ClassFileBackendImpl;
 import pt.up.fe.comp2024.backend.JasminBackendImpl;
 import pt.up.fe.comp2024.optimization.JmmOptimizationImpl;
 import pt.up.fe.comp2024.parser.JmmParserImpl;
+import pt.up.fe.comp2024.utils.StageTimer;
 import pt.up.fe.specs.util.SpecsIo;
 import pt.up.fe.specs.util.SpecsSystem;
 
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
 import java.util.Map;
 
 public class Launcher {
@@ -21,15 +29,115 @@ public class Launcher {
 
         Map<String, String> config = CompilerConfig.parseArgs(args);
 
-        var inputFile = CompilerConfig.getInputFile(config).orElseThrow();
+        var daemonPort = CompilerConfig.getDaemonPort(config);
+        if (daemonPort.isPresent()) {
+            new CompileDaemon(daemonPort.get(), CompilerConfig.getThreads(config)).run();
+            return;
+        }
+
+        if (CompilerConfig.isBatch(config)) {
+            var batch = new BatchCompiler(config);
+            if (!batch.run(System.out)) {
+                throw new RuntimeException("Batch compilation failed, see the summary above");
+            }
+            return;
+        }
+
+        var result = compileTimed(readInputFile(config), config);
+        printResult(result, config, System.out);
+    }
+
+    /**
+     * @return the code of the file given with '-i'
+     */
+    public static String readInputFile(Map<String, String> config) {
+        var inputFile = CompilerConfig.getInputFile(config)
+                .orElseThrow(() -> new RuntimeException("Expected an input file, use '-i=<PATH_TO_FILE>'"));
         if (!inputFile.isFile()) {
-            throw new RuntimeException("Option '-i' expects a path to an existing input file, got '" + args[0] + "'.");
+            throw new RuntimeException("Option '-i' expects a path to an existing input file, got '" + inputFile + "'.");
+        }
+
+        return SpecsIo.read(inputFile);
+    }
+
+    /**
+     * Prints the output the options ask for about a compiled file, the same for every caller (e.g. the compile daemon
+     * sends it to its client).
+     *
+     * @param result the result of {@link #compileTimed(String, Map)}
+     * @param config the options the file was compiled with
+     * @param out    where the output is printed
+     */
+    public static void printResult(TimedResult result, Map<String, String> config, PrintStream out) {
+        var jasminResult = result.jasminResult();
+
+        if (CompilerConfig.isDump(config)) {
+            out.println(jasminResult.getJasminCode());
+        }
+
+        // Show the registers chosen for each method
+        if (CompilerConfig.getRegisterAllocation(config) >= 0) {
+            jasminResult.getReports().stream()
+                    .filter(report -> report.getStage() == Stage.OPTIMIZATION && report.getType() == ReportType.LOG)
+                    .forEach(report -> out.println(report.getMessage()));
+        }
+
+        // Show how many times each peephole rule was applied
+        if (CompilerConfig.getPeephole(config).isPresent()) {
+            jasminResult.getReports().stream()
+                    .filter(report -> report.getStage() == Stage.GENERATION && report.getType() == ReportType.LOG)
+                    .forEach(report -> out.println(report.getMessage()));
+        }
+
+        if (result.timings() != null) {
+            out.println(result.timings());
+        }
+    }
+
+    /**
+     * Result of {@link #compileTimed(String, Map)}.
+     *
+     * @param jasminResult the result of the last stage
+     * @param timings      the formatted timings of each stage, or null if timing was not requested with '-t'
+     */
+    public record TimedResult(JasminResult jasminResult, String timings) {
+    }
+
+    /**
+     * Same as {@link #compile(String, Map)}, but also measures each stage if the config enables timing.
+     */
+    public static TimedResult compileTimed(String code, Map<String, String> config) {
+        if (CompilerConfig.getTiming(config).isEmpty()) {
+            return new TimedResult(compile(code, config), null);
+        }
+
+        var timer = StageTimer.start();
+        JasminResult jasminResult;
+        List<StageTimer.Timing> timings;
+        try {
+            jasminResult = compile(code, config);
+        } finally {
+            timings = timer.stop();
         }
-        String code = SpecsIo.read(inputFile);
 
+        var title = CompilerConfig.getInputFile(config).map(File::getPath).orElse("<code>");
+        var formatted = CompilerConfig.isTimingJson(config) ?
+                StageTimer.toJson(title, timings) : StageTimer.toTable(title, timings);
+
+        return new TimedResult(jasminResult, formatted);
+    }
+
+    /**
+     * Runs every stage of the compiler over the given code, throwing if any stage reports an error.
+     *
+     * @param code   the Java-- code to compile
+     * @param config the compiler options
+     * @return the result of the last stage
+     */
+    public static JasminResult compile(String code, Map<String, String> config) {
         // Parsing stage
         JmmParserImpl parser = new JmmParserImpl();
-        JmmParserResult parserResult = parser.parse(code, config);
+        JmmParserResult parserResult = StageTimer.time("parse", () -> parser.parse(code, config));
         TestUtils.noErrors(parserResult.getReports());
 
         // Print AST
@@ -43,19 +151,29 @@ public class Launcher {
 
         // Optimization stage
         JmmOptimizationImpl ollirGen = new JmmOptimizationImpl();
+        semanticsResult = ollirGen.optimize(semanticsResult);
+
         OllirResult ollirResult = ollirGen.toOllir(semanticsResult);
         TestUtils.noErrors(ollirResult.getReports());
 
+        ollirResult = ollirGen.optimize(ollirResult);
+        TestUtils.noErrors(ollirResult.getReports());
+
         // Print OLLIR code
         //System.out.println(ollirResult.getOllirCode());
 
-        // Code generation stage
-        JasminBackendImpl jasminGen = new JasminBackendImpl();
+        // Code generation stage, either to Jasmin code or directly to a class file
+        var classFileFolder = CompilerConfig.getClassFileFolder(config);
+        JasminBackend jasminGen = classFileFolder.isPresent() ? new ClassFileBackendImpl() : new JasminBackendImpl();
         JasminResult jasminResult = jasminGen.toJasmin(ollirResult);
         TestUtils.noErrors(jasminResult.getReports());
 
+        classFileFolder.ifPresent(jasminResult::compile);
+
         // Print Jasmin code
         //System.out.println(jasminResult.getJasminCode());
+
+        return jasminResult;
     }
 
 }
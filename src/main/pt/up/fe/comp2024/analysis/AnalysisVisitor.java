@@ -29,6 +29,15 @@ public abstract class AnalysisVisitor extends PreorderJmmVisitor<SymbolTable, Vo
     }
 
 
+    /**
+     * Applies the visit registered for the kind of the given node, without visiting its children.
+     * <p>
+     * Used by {@link FusedAnalysis} to run several passes in a single traversal of the AST.
+     */
+    public void visitNode(JmmNode node, SymbolTable table) {
+        getVisit(node).apply(node, table);
+    }
+
     @Override
     public List<Report> analyze(JmmNode root, SymbolTable table) {
         // Visit the node
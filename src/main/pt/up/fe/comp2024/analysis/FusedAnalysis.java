@@ -0,0 +1,77 @@
+package pt.up.fe.comp2024.analysis;
+
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Runs several analysis passes in a single preorder traversal of the AST.
+ * <p>
+ * Each node is visited once, and the visits of every pass for that node are applied in the order of the passes. Every
+ * pass sees the nodes in the same order as if it traversed the AST by itself, and keeps its own reports. If a pass
+ * throws, it stops being applied to the remaining nodes and its reports are replaced by an error report, as when the
+ * passes run one after the other.
+ */
+public class FusedAnalysis implements AnalysisPass {
+
+    private final List<AnalysisVisitor> passes;
+
+    public FusedAnalysis(List<AnalysisVisitor> passes) {
+        this.passes = passes;
+    }
+
+    @Override
+    public List<Report> analyze(JmmNode root, SymbolTable table) {
+        var active = new ArrayList<>(passes);
+        var failures = new Exception[passes.size()];
+
+        // Explicit stack instead of recursion, so that deeply nested code does not overflow the call stack
+        Deque<JmmNode> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty() && !active.isEmpty()) {
+            var node = pending.pop();
+
+            for (var iterator = active.iterator(); iterator.hasNext(); ) {
+                var pass = iterator.next();
+
+                try {
+                    pass.visitNode(node, table);
+                } catch (Exception e) {
+                    failures[passes.indexOf(pass)] = e;
+                    iterator.remove();
+                }
+            }
+
+            var children = node.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(children.get(i));
+            }
+        }
+
+        List<Report> reports = new ArrayList<>();
+        for (int i = 0; i < passes.size(); i++) {
+            var pass = passes.get(i);
+
+            if (failures[i] == null) {
+                reports.addAll(pass.getReports());
+                continue;
+            }
+
+            reports.add(Report.newError(Stage.SEMANTIC,
+                    -1,
+                    -1,
+                    "Problem while executing analysis pass '" + pass.getClass() + "'",
+                    failures[i])
+            );
+        }
+
+        return reports;
+    }
+}
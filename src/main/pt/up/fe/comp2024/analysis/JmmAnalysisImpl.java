@@ -6,24 +6,26 @@ import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
-import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerConfig;
 import pt.up.fe.comp2024.analysis.passes.*;
 import pt.up.fe.comp2024.analysis.passes.Class;
 import pt.up.fe.comp2024.symboltable.JmmSymbolTableBuilder;
+import pt.up.fe.comp2024.utils.StageTimer;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class JmmAnalysisImpl implements JmmAnalysis {
 
 
-    private final List<AnalysisPass> analysisPasses;
+    private final List<Supplier<AnalysisVisitor>> analysisPasses;
 
     public JmmAnalysisImpl() {
 
-        this.analysisPasses = List.of(new Variable(), new Class(), new ExprTypes(),
-                new ArrayAccess(), new IfStatement(), new WhileStatement(), new MethodCalls(), new ReturnType(),
-                new Assignment());
+        // Passes keep state while visiting, so each analysis creates its own instances
+        this.analysisPasses = List.of(Variable::new, Class::new, ExprTypes::new,
+                ArrayAccess::new, IfStatement::new, WhileStatement::new, MethodCalls::new, ReturnType::new,
+                Assignment::new);
 
     }
 
@@ -32,25 +34,14 @@ public class JmmAnalysisImpl implements JmmAnalysis {
 
         JmmNode rootNode = parserResult.getRootNode();
 
-        SymbolTable table = JmmSymbolTableBuilder.build(rootNode);
-
-        List<Report> reports = new ArrayList<>();
-
-        // Visit all nodes in the AST
-        for (var analysisPass : analysisPasses) {
-            try {
-                var passReports = analysisPass.analyze(rootNode, table);
-                reports.addAll(passReports);
-            } catch (Exception e) {
-                reports.add(Report.newError(Stage.SEMANTIC,
-                        -1,
-                        -1,
-                        "Problem while executing analysis pass '" + analysisPass.getClass() + "'",
-                        e)
-                );
-            }
-
-        }
+        SymbolTable table = StageTimer.time("symbol table", () -> JmmSymbolTableBuilder.build(rootNode));
+
+        List<AnalysisVisitor> passes = analysisPasses.stream().map(Supplier::get).toList();
+
+        // Either visit all nodes in the AST once, applying every pass to each node, or run each pass in parallel
+        AnalysisPass analysis = CompilerConfig.isParallel(parserResult.getConfig()) ?
+                new ParallelAnalysis(passes) : new FusedAnalysis(passes);
+        List<Report> reports = StageTimer.time("analysis", () -> analysis.analyze(rootNode, table));
 
         return new JmmSemanticsResult(parserResult, table, reports);
     }
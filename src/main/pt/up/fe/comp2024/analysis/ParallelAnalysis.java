@@ -0,0 +1,42 @@
+package pt.up.fe.comp2024.analysis;
+
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs each analysis pass in its own task of the common fork-join pool.
+ * <p>
+ * Passes only read the AST and the symbol table, and each pass instance is only used by the task that runs it, so
+ * their mutable fields (e.g., the current method) are never shared. Reports are merged in the order of the passes, so
+ * the result is the same as running the passes one after the other.
+ */
+public class ParallelAnalysis implements AnalysisPass {
+
+    private final List<AnalysisVisitor> passes;
+
+    public ParallelAnalysis(List<AnalysisVisitor> passes) {
+        this.passes = passes;
+    }
+
+    @Override
+    public List<Report> analyze(JmmNode root, SymbolTable table) {
+        // A fused analysis of a single pass takes care of reporting the pass if it throws
+        List<ForkJoinTask<List<Report>>> tasks = passes.stream()
+                .map(pass -> ForkJoinTask.adapt(() -> new FusedAnalysis(List.of(pass)).analyze(root, table)))
+                .toList();
+
+        ForkJoinTask.invokeAll(tasks);
+
+        List<Report> reports = new ArrayList<>();
+        for (var task : tasks) {
+            reports.addAll(task.join());
+        }
+
+        return reports;
+    }
+}
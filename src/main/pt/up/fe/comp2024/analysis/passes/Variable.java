@@ -32,22 +32,15 @@ public class Variable extends AnalysisVisitor {
 
         String varRefName = varRefExpr.get("name");
 
-        // Var is a declared variable, return
-        if (table.getLocalVariables(currentMethod).stream()
-                .anyMatch(varDecl -> varDecl.getName().equals(varRefName))) {
-            return null;
-        }
+        var symbol = TypeUtils.lookUpSymbol(varRefName, varRefExpr, table);
 
-        // Var is a parameter, return
-        if (table.getParameters(currentMethod).stream()
-                .anyMatch(param -> param.getName().equals(varRefName))) {
+        // Var is a declared variable or a parameter, return
+        if (symbol.isPresent() && !symbol.get().isField()) {
             return null;
         }
 
         // Var is a field and method is not static, return
-        if (table.getFields().stream()
-                .anyMatch(param -> param.getName().equals(varRefName)) &&
-                !Boolean.parseBoolean(currentMethodNode.get("isStatic"))) {
+        if (symbol.isPresent() && !Boolean.parseBoolean(currentMethodNode.get("isStatic"))) {
             return null;
         }
 
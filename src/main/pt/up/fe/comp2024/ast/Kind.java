@@ -33,11 +33,15 @@ public enum Kind {
     NOT_EXPR,
     LENGTH_EXPR,
     ASSIGN_STMT_ARRAY,
+    FOR_STMT,
     ;
 
 
-    private static final Set<Kind> STATEMENTS = Set.of(ASSIGN_STMT, RETURN_STMT);
-    private static final Set<Kind> EXPRESSIONS = Set.of(BINARY_EXPR, INTEGER_LITERAL, VAR_REF_EXPR);
+    private static final Set<Kind> STATEMENTS = Set.of(ASSIGN_STMT, ASSIGN_STMT_ARRAY, RETURN_STMT, IF_STMT, WHILE_STMT,
+            FOR_STMT);
+    private static final Set<Kind> EXPRESSIONS = Set.of(BINARY_EXPR, INTEGER_LITERAL, VAR_REF_EXPR, CLASS_CHAIN_EXPR,
+            FUNC_EXPR, BOOLEAN_LITERAL, OBJECT_LITERAL, ACC_EXPR, NEW_CLASS_EXPR, NEW_ARRAY, ARRAY_EXPR, PAREN_EXPR,
+            NOT_EXPR, LENGTH_EXPR);
 
     private final String name;
 
@@ -82,6 +86,13 @@ public enum Kind {
         return EXPRESSIONS.contains(this);
     }
 
+    /**
+     * @return true if the given node is an expression, false otherwise
+     */
+    public static boolean isExpr(JmmNode node) {
+        return EXPRESSIONS.stream().anyMatch(kind -> kind.check(node));
+    }
+
     /**
      * Tests if the given JmmNode has the same kind as this type.
      *
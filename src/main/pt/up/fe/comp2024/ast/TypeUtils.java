@@ -4,9 +4,12 @@ import pt.up.fe.comp.jmm.analysis.table.Symbol;
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2024.symboltable.JmmSymbolTable;
+import pt.up.fe.comp2024.symboltable.ScopedSymbol;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
 public class TypeUtils {
 
@@ -67,35 +70,57 @@ public class TypeUtils {
         };
     }
 
-    private static Type lookForSymbolInList(List<Symbol> list, String name) {
-        for (Symbol symbol : list) {
-            if (Objects.equals(symbol.getName(), name)) {
-                return symbol.getType();
-            }
-        }
-        return null;
+    private static Type getVarExprType(JmmNode varRefExpr, SymbolTable table) {
+        return lookUpSymbol(varRefExpr.get("name"), varRefExpr, table)
+                .map(ScopedSymbol::getType)
+                .orElse(null);
     }
 
-    private static Type getVarExprType(JmmNode varRefExpr, SymbolTable table) {
-        String name = varRefExpr.get("name");
+    /**
+     * Resolves a variable name as seen from the given node: first the parameters and locals of the enclosing method,
+     * then the fields of the class.
+     */
+    public static Optional<ScopedSymbol> lookUpSymbol(String name, JmmNode node, SymbolTable table) {
+        if (table instanceof JmmSymbolTable jmmTable) {
+            return jmmTable.resolve(node, name);
+        }
 
-        JmmNode curr = varRefExpr;
-        Type type;
+        // Other symbol tables are not indexed, search their lists
+        JmmNode curr = node;
         while (curr != null) {
             if (curr.getKind().equals(Kind.METHOD_DECL.toString())) {
                 List<Symbol> params = table.getParameters(curr.get("name"));
-                type = lookForSymbolInList(params, name);
-                if (type != null) return type;
-                List<Symbol> locals = table.getLocalVariables(curr.get("name"));
-                type = lookForSymbolInList(locals, name);
-                if (type != null) return type;
+                for (int i = 0; i < params.size(); i++) {
+                    if (Objects.equals(params.get(i).getName(), name)) {
+                        return Optional.of(new ScopedSymbol(params.get(i), ScopedSymbol.Scope.PARAMETER, i + 1));
+                    }
+                }
+                for (Symbol local : table.getLocalVariables(curr.get("name"))) {
+                    if (Objects.equals(local.getName(), name)) {
+                        return Optional.of(new ScopedSymbol(local, ScopedSymbol.Scope.LOCAL, -1));
+                    }
+                }
                 break;
             }
             curr = curr.getParent();
         }
 
-        List<Symbol> fields = table.getFields();
-        type = lookForSymbolInList(fields, name);
+        for (Symbol field : table.getFields()) {
+            if (Objects.equals(field.getName(), name)) {
+                return Optional.of(new ScopedSymbol(field, ScopedSymbol.Scope.FIELD, -1));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Copy of a symbol type, marked as imported. The symbol table is shared by every analysis pass, and passes may run
+     * concurrently, so its types are never modified.
+     */
+    private static Type getImportedType(Type symbolType) {
+        Type type = new Type(symbolType.getName(), symbolType.isArray());
+        type.putObject("imported", true);
         return type;
     }
 
@@ -125,32 +150,12 @@ public class TypeUtils {
             return type;
         }
 
-        JmmNode curr = expr;
-        Type type;
-        while (curr != null) {
-            if (curr.getKind().equals(Kind.METHOD_DECL.toString())) {
-                List<Symbol> params = table.getParameters(curr.get("name"));
-                type = lookForSymbolInList(params, className);
-                if (type != null) {
-                    if (type.getName().equals(table.getClassName())) return type;
-                    type.putObject("imported", true);
-                    return type;
-                }
-                List<Symbol> locals = table.getLocalVariables(curr.get("name"));
-                type = lookForSymbolInList(locals, className);
-                if (type != null) {
-                    if (type.getName().equals(table.getClassName())) return type;
-                    type.putObject("imported", true);
-                    return type;
-                }
-                break;
-            }
-            curr = curr.getParent();
-        }
+        var symbol = lookUpSymbol(className, expr, table);
+        if (symbol.isEmpty()) return null;
 
-        List<Symbol> fields = table.getFields();
-        type = lookForSymbolInList(fields, className);
-        return type;
+        Type type = symbol.get().getType();
+        if (symbol.get().isField() || type.getName().equals(table.getClassName())) return type;
+        return getImportedType(type);
     }
 
     private static Type getVarExprTypeFromClassChain(JmmNode expr, SymbolTable table) {
@@ -287,23 +292,8 @@ public class TypeUtils {
     }
 
     public static Type getTypeFromString(String var, JmmNode startingNode, SymbolTable table) {
-        JmmNode curr = startingNode;
-        Type type;
-        while (curr != null) {
-            if (curr.getKind().equals(Kind.METHOD_DECL.toString())) {
-                List<Symbol> params = table.getParameters(curr.get("name"));
-                type = lookForSymbolInList(params, var);
-                if (type != null) return type;
-                List<Symbol> locals = table.getLocalVariables(curr.get("name"));
-                type = lookForSymbolInList(locals, var);
-                if (type != null) return type;
-                break;
-            }
-            curr = curr.getParent();
-        }
-
-        List<Symbol> fields = table.getFields();
-        type = lookForSymbolInList(fields, var);
-        return type;
+        return lookUpSymbol(var, startingNode, table)
+                .map(ScopedSymbol::getType)
+                .orElse(null);
     }
 }
@@ -0,0 +1,40 @@
+package pt.up.fe.comp2024.backend;
+
+import pt.up.fe.comp.jmm.jasmin.JasminBackend;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.backend.classfile.ClassFileAssembler;
+import pt.up.fe.comp2024.utils.StageTimer;
+
+/**
+ * Backend that generates the class file directly, by assembling the instructions of each method in memory as they are
+ * generated, instead of writing Jasmin code and running the Jasmin tool over it.
+ * <p>
+ * If the class cannot be assembled (e.g. the generated code is not verifiable), the result has an error report
+ * instead of a class file.
+ */
+public class ClassFileBackendImpl implements JasminBackend {
+
+    @Override
+    public JasminResult toJasmin(OllirResult ollirResult) {
+
+        var jasminGenerator = new JasminGenerator(ollirResult);
+        byte[] classFile;
+        try {
+            classFile = StageTimer.time("class file generation", () -> {
+                var assembler = new ClassFileAssembler();
+                jasminGenerator.write(assembler);
+                return assembler.toByteArray();
+            });
+        } catch (RuntimeException e) {
+            jasminGenerator.getReports().add(Report.newError(Stage.GENERATION, -1, -1,
+                    "Could not generate the class file: " + e.getMessage(), e));
+            classFile = null;
+        }
+
+        return new ClassFileResult(ollirResult, classFile, jasminGenerator);
+    }
+
+}
@@ -0,0 +1,38 @@
+package pt.up.fe.comp2024.backend;
+
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+/**
+ * A Jasmin result whose class file was assembled in memory, by {@link ClassFileBackendImpl}, instead of by the Jasmin
+ * tool.
+ * <p>
+ * Compiling the result writes the class file directly, and running it executes it in memory. The Jasmin code is only
+ * generated the first time it is requested, e.g. to print it. If the class could not be assembled, the reports have
+ * the error, and there is no class file.
+ */
+public class ClassFileResult extends InMemoryJasminResult {
+
+    private final byte[] classFile;
+    private final JasminGenerator jasminGenerator;
+
+    public ClassFileResult(OllirResult ollirResult, byte[] classFile, JasminGenerator jasminGenerator) {
+        super(ollirResult, null, jasminGenerator.getReports());
+
+        this.classFile = classFile;
+        this.jasminGenerator = jasminGenerator;
+    }
+
+    @Override
+    public byte[] getClassFile() {
+        if (classFile == null) {
+            throw new RuntimeException("The class file could not be generated, see the reports");
+        }
+
+        return classFile;
+    }
+
+    @Override
+    public synchronized String getJasminCode() {
+        return jasminGenerator.build();
+    }
+}
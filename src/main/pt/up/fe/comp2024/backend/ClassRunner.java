@@ -0,0 +1,347 @@
+package pt.up.fe.comp2024.backend;
+
+import pt.up.fe.specs.util.system.ProcessOutputAsString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs the main method of a compiled class inside the current JVM, instead of launching a new 'java' process.
+ * <p>
+ * Each run loads the class, together with the classes in the given classpath (e.g. the io and MathUtils support
+ * classes), in a new class loader, so no state is kept between runs. The standard streams are only redirected for the
+ * thread running the program, so other threads (and other programs running at the same time) are not affected. The
+ * result mimics what the 'java' launcher would print and return, so it can replace the output of a process.
+ * <p>
+ * A program that does not finish in time is interrupted, but a thread cannot be stopped, so it is left running (as a
+ * daemon thread, which does not keep the JVM from exiting). Since nothing else isolates a program from the JVM,
+ * {@link #canRun(byte[])} tells when a program must run in a new JVM instead: when it uses a class that can end the
+ * JVM, or when too many programs that timed out are still running.
+ */
+public class ClassRunner {
+
+    private static final long TIMEOUT_NS = TimeUnit.SECONDS.toNanos(5);
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private static final ThreadLocal<Streams> PROGRAM_STREAMS = new ThreadLocal<>();
+
+    // Programs that timed out and may still be running
+    private static final Set<Thread> ABANDONED = ConcurrentHashMap.newKeySet();
+    private static final int MAX_ABANDONED = 4;
+
+    // Classes with methods that end the JVM (e.g. System.exit and Runtime.halt), by the name used in class files
+    private static final List<byte[]> EXIT_CLASSES = Stream.of("java/lang/System", "java/lang/Runtime")
+            .map(name -> name.getBytes(StandardCharsets.UTF_8))
+            .toList();
+
+    /**
+     * Standard streams of the thread running a program.
+     */
+    private record Streams(InputStream in, PrintStream out, PrintStream err) {
+    }
+
+    private static InputStream installedIn;
+    private static PrintStream installedOut;
+    private static PrintStream installedErr;
+
+    private ClassRunner() {
+    }
+
+    /**
+     * @param classFile the contents of the class file
+     * @return true if the class can be run in this JVM, or false if it must run in a new one
+     */
+    public static boolean canRun(byte[] classFile) {
+        ABANDONED.removeIf(thread -> !thread.isAlive());
+        if (ABANDONED.size() >= MAX_ABANDONED) {
+            return false;
+        }
+
+        // A class file names the classes it uses in its constant pool, as UTF-8 text
+        return EXIT_CLASSES.stream().noneMatch(name -> contains(classFile, name));
+    }
+
+    /**
+     * Runs the main method of the class.
+     *
+     * @param className the name of the class, with '/' or '.' as separator
+     * @param classFile the contents of the class file
+     * @param args      arguments for the main method
+     * @param classpath additional paths for the classpath
+     * @param input     input to give to the program, or null if there is none
+     * @return the output of the program, with the return value the 'java' launcher would have exited with
+     */
+    public static ProcessOutputAsString run(String className, byte[] classFile, List<String> args,
+                                            List<String> classpath, String input) {
+        installStreams();
+
+        var charset = Charset.defaultCharset();
+        var stdout = new ByteArrayOutputStream();
+        var stderr = new ByteArrayOutputStream();
+        var stdin = new ByteArrayInputStream(input == null ? new byte[0] : input.getBytes(charset));
+        var streams = new Streams(stdin, new PrintStream(stdout, true, charset), new PrintStream(stderr, true, charset));
+
+        var name = className.replace('/', '.');
+        var returnValue = new int[]{0};
+        var program = new Thread(null, () -> {
+            PROGRAM_STREAMS.set(streams);
+            try (var loader = new InMemoryClassLoader(name, classFile, classpath)) {
+                returnValue[0] = runMain(loader, name, args.toArray(String[]::new), streams.err());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                streams.out().flush();
+                streams.err().flush();
+            }
+        }, "main");
+
+        // Programs that do not finish are abandoned, they cannot block the JVM from exiting
+        program.setDaemon(true);
+        program.start();
+
+        try {
+            program.join(TimeUnit.NANOSECONDS.toMillis(TIMEOUT_NS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while running class '" + name + "'", e);
+        }
+
+        if (program.isAlive()) {
+            program.interrupt();
+            ABANDONED.add(program);
+            returnValue[0] = -1;
+        }
+
+        // Synchronized with the writes of the program, which may still be running
+        String out;
+        String err;
+        synchronized (streams.out()) {
+            out = toLines(stdout.toString(charset));
+        }
+        synchronized (streams.err()) {
+            err = toLines(stderr.toString(charset));
+        }
+
+        System.out.print(out);
+        System.err.print(err);
+
+        return new ProcessOutputAsString(returnValue[0], out, err);
+    }
+
+    /**
+     * Loads, initializes and runs the class as the 'java' launcher does, reporting errors with the same messages.
+     *
+     * @return the return value of the program
+     */
+    private static int runMain(ClassLoader loader, String name, String[] args, PrintStream err) {
+        Class<?> mainClass;
+        try {
+            mainClass = Class.forName(name, true, loader);
+        } catch (ClassNotFoundException | NoClassDefFoundError | ClassFormatError e) {
+            err.println("Error: Could not find or load main class " + name);
+            err.println("Caused by: " + e);
+            return 1;
+        } catch (LinkageError e) {
+            err.println("Error: Unable to initialize main class " + name);
+            err.println("Caused by: " + e);
+            return 1;
+        }
+
+        Method main;
+        try {
+            main = mainClass.getMethod("main", String[].class);
+        } catch (NoSuchMethodException e) {
+            main = null;
+        }
+
+        if (main == null || !Modifier.isStatic(main.getModifiers()) || main.getReturnType() != void.class) {
+            err.println("Error: Main method not found in class " + name + ", please define the main method as:");
+            err.println("   public static void main(String[] args)");
+            err.println("or a JavaFX application class must extend javafx.application.Application");
+            return 1;
+        }
+
+        try {
+            main.invoke(null, (Object) args);
+            return 0;
+        } catch (InvocationTargetException e) {
+            err.print("Exception in thread \"" + Thread.currentThread().getName() + "\" ");
+            e.getCause().printStackTrace(err);
+            return 1;
+        } catch (IllegalAccessException e) {
+            err.println("Error: Main method not found in class " + name + ", please define the main method as:");
+            err.println("   public static void main(String[] args)");
+            return 1;
+        }
+    }
+
+    private static boolean contains(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (Arrays.equals(bytes, i, i + part.length, part, 0, part.length)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Terminates every line with the line separator, as the output of processes is read line by line.
+     */
+    private static String toLines(String text) {
+        var lines = new StringBuilder();
+        text.lines().forEach(line -> lines.append(line).append(NEW_LINE));
+        return lines.toString();
+    }
+
+    /**
+     * Replaces the standard streams by streams that use the streams of the program in the current thread, if any, or
+     * the previous streams otherwise. Streams are installed again if they were replaced since the last run (e.g. by a
+     * test runner that captures the output of each test).
+     */
+    private static synchronized void installStreams() {
+        if (System.in != installedIn) {
+            installedIn = new ThreadInputStream(System.in);
+            System.setIn(installedIn);
+        }
+
+        if (System.out != installedOut) {
+            installedOut = new PrintStream(new ThreadOutputStream(System.out, false), true);
+            System.setOut(installedOut);
+        }
+
+        if (System.err != installedErr) {
+            installedErr = new PrintStream(new ThreadOutputStream(System.err, true), true);
+            System.setErr(installedErr);
+        }
+    }
+
+    /**
+     * Reads from the standard input of the program in the current thread, if any, or from the previous stream
+     * otherwise.
+     */
+    private static class ThreadInputStream extends InputStream {
+
+        private final InputStream previous;
+
+        private ThreadInputStream(InputStream previous) {
+            this.previous = previous;
+        }
+
+        private InputStream getStream() {
+            var streams = PROGRAM_STREAMS.get();
+            return streams != null ? streams.in() : previous;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return getStream().read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return getStream().read(bytes, offset, length);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return getStream().available();
+        }
+    }
+
+    /**
+     * Writes to the standard output (or error) of the program in the current thread, if any, or to the previous stream
+     * otherwise.
+     */
+    private static class ThreadOutputStream extends OutputStream {
+
+        private final PrintStream previous;
+        private final boolean isErr;
+
+        private ThreadOutputStream(PrintStream previous, boolean isErr) {
+            this.previous = previous;
+            this.isErr = isErr;
+        }
+
+        private PrintStream getStream() {
+            var streams = PROGRAM_STREAMS.get();
+            if (streams == null) {
+                return previous;
+            }
+            return isErr ? streams.err() : streams.out();
+        }
+
+        @Override
+        public void write(int b) {
+            getStream().write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            getStream().write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() {
+            getStream().flush();
+        }
+    }
+
+    /**
+     * Defines the compiled class from memory, and loads every other class from the classpath, without delegating to
+     * the class loader of the compiler (only to the platform classes).
+     */
+    private static class InMemoryClassLoader extends URLClassLoader {
+
+        private final String className;
+        private final byte[] classFile;
+
+        private InMemoryClassLoader(String className, byte[] classFile, List<String> classpath) {
+            super(toUrls(classpath), ClassLoader.getPlatformClassLoader());
+
+            this.className = className;
+            this.classFile = classFile;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (name.equals(className)) {
+                return defineClass(name, classFile, 0, classFile.length);
+            }
+
+            return super.findClass(name);
+        }
+
+        private static URL[] toUrls(List<String> classpath) {
+            var urls = new URL[classpath.size()];
+            for (int i = 0; i < urls.length; i++) {
+                try {
+                    urls[i] = new File(classpath.get(i)).toURI().toURL();
+                } catch (MalformedURLException e) {
+                    throw new RuntimeException("Invalid classpath element '" + classpath.get(i) + "'", e);
+                }
+            }
+            return urls;
+        }
+    }
+}
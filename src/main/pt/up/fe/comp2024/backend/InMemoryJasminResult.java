@@ -0,0 +1,123 @@
+package pt.up.fe.comp2024.backend;
+
+import jas.jasError;
+import jasmin.ClassFile;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.specs.util.SpecsIo;
+import pt.up.fe.specs.util.system.ProcessOutputAsString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Jasmin result that is assembled and run in memory.
+ * <p>
+ * The Jasmin code is assembled with the Jasmin tool, but without writing it to a file first, and running the result
+ * executes its main method inside the current JVM (see {@link ClassRunner}), instead of launching a new 'java'
+ * process, unless {@link ClassRunner#canRun(byte[])} says otherwise.
+ */
+public class InMemoryJasminResult extends JasminResult {
+
+    private byte[] classFile;
+
+    public InMemoryJasminResult(String className, String jasminCode, List<Report> reports,
+                                Map<String, String> config) {
+        super(className, jasminCode, reports, config);
+    }
+
+    public InMemoryJasminResult(OllirResult ollirResult, String jasminCode, List<Report> reports) {
+        super(ollirResult, jasminCode, reports);
+    }
+
+    /**
+     * @return the result, if it is already run in memory, or a result with the same Jasmin code that is
+     */
+    public static InMemoryJasminResult of(JasminResult result) {
+        if (result instanceof InMemoryJasminResult inMemoryResult) {
+            return inMemoryResult;
+        }
+
+        return new InMemoryJasminResult(result.getClassName(), result.getJasminCode(), result.getReports(),
+                result.getConfig());
+    }
+
+    /**
+     * @return the contents of the class file, which must not be modified
+     */
+    public synchronized byte[] getClassFile() {
+        if (classFile == null) {
+            classFile = assemble();
+        }
+
+        return classFile;
+    }
+
+    private byte[] assemble() {
+        var jasminCode = getJasminCode();
+
+        try {
+            var assembler = new ClassFile();
+            assembler.readJasmin(new StringReader(jasminCode), getClassName() + ".j", true);
+
+            if (assembler.errorCount() > 0) {
+                throw new RuntimeException("Found " + assembler.errorCount() + " errors while compiling Jasmin code.");
+            }
+
+            var bytes = new ByteArrayOutputStream();
+            assembler.write(bytes);
+            return bytes.toByteArray();
+        } catch (jasError e) {
+            throw new RuntimeException("JAS Error: " + e.getMessage() + "\nCode: " + jasminCode, e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Exception while assembling Jasmin code: " + e.getMessage() + "\nCode: "
+                    + jasminCode, e);
+        }
+    }
+
+    /**
+     * Writes the class file, without going through a Jasmin file.
+     *
+     * @param outputDir the folder where the class file will be written
+     * @return a reference to the .class file
+     */
+    @Override
+    public File compile(File outputDir) {
+        var classFile = new File(SpecsIo.mkdir(outputDir), getClassName() + ".class");
+
+        try {
+            Files.write(classFile.toPath(), getClassFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write class file '" + classFile + "'", e);
+        }
+
+        return classFile;
+    }
+
+    /**
+     * Runs the main method of the class in the current JVM, if it can, or in a new one.
+     *
+     * @param args      arguments for the Jasmin program
+     * @param classpath additional paths for the classpath
+     * @param input     input to give to the program that will run
+     * @return the output of the program
+     */
+    @Override
+    public ProcessOutputAsString runWithFullOutput(List<String> args, List<String> classpath, String input) {
+        var classFile = getClassFile();
+        if (!ClassRunner.canRun(classFile)) {
+            return super.runWithFullOutput(args, classpath, input);
+        }
+
+        return ClassRunner.run(getClassName(), classFile, args, classpath, input);
+    }
+}
@@ -3,6 +3,7 @@ package pt.up.fe.comp2024.backend;
 import pt.up.fe.comp.jmm.jasmin.JasminBackend;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.utils.StageTimer;
 
 public class JasminBackendImpl implements JasminBackend {
 
@@ -10,9 +11,8 @@ public class JasminBackendImpl implements JasminBackend {
     public JasminResult toJasmin(OllirResult ollirResult) {
 
         var jasminGenerator = new JasminGenerator(ollirResult);
-        var jasminCode = jasminGenerator.build();
-        System.out.println(jasminCode);
-        return new JasminResult(ollirResult, jasminCode, jasminGenerator.getReports());
+        var jasminCode = StageTimer.time("jasmin generation", jasminGenerator::build);
+        return new InMemoryJasminResult(ollirResult, jasminCode, jasminGenerator.getReports());
     }
 
 }
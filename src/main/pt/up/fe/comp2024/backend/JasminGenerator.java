@@ -4,27 +4,63 @@ import org.specs.comp.ollir.*;
 import org.specs.comp.ollir.tree.TreeNode;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.report.Report;
-import pt.up.fe.comp2024.analysis.passes.ReturnType;
-import pt.up.fe.specs.util.classmap.FunctionClassMap;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.backend.classfile.ClassSink;
+import pt.up.fe.comp2024.backend.classfile.CodeItem;
+import pt.up.fe.comp2024.backend.classfile.Instruction;
+import pt.up.fe.comp2024.backend.classfile.Opcode;
+import pt.up.fe.comp2024.backend.classfile.PeepholeOptimizer;
+import pt.up.fe.comp2024.backend.classfile.StackSimulator;
+import pt.up.fe.specs.util.classmap.BiConsumerClassMap;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
-import pt.up.fe.specs.util.utilities.StringLines;
 
-import javax.management.OperationsException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Generates Jasmin code from an OllirResult.
  * <p>
- * One JasminGenerator instance per OllirResult.
+ * One JasminGenerator instance per OllirResult. The state of the method being generated (stack and locals limits,
+ * labels of conditions) is reset for each method, so the code of a method does not depend on the other methods. When
+ * the config enables parallel compilation, each method is generated by its own instance, in parallel.
+ * <p>
+ * The class is written to a {@link ClassSink} as it is generated: a {@link JasminWriter}, to print it as Jasmin, or a
+ * class file assembler, which takes the {@link Instruction}s as they are. Only the body of the method being generated
+ * is buffered, as a list of labels and instructions, since its stack and locals limits are written before it. If
+ * peephole rules are enabled (see {@link PeepholeOptimizer#getRules(Map)}), the body is rewritten by them before its
+ * stack limit is computed, and the number of times each rule was applied is reported as a log.
  */
 public class JasminGenerator {
 
-    private static final String NL = "\n";
-    private static final String TAB = "   ";
+    private static final String OBJECT = "java/lang/Object";
+
+    private static final List<CodeItem> DEFAULT_CONSTRUCTOR = List.of(
+            Instruction.of(Opcode.ALOAD_0),
+            Instruction.member(Opcode.INVOKESPECIAL, OBJECT, "<init>", "()V"),
+            Instruction.of(Opcode.RETURN));
+
+    /**
+     * The code of a method, generated but not yet written.
+     */
+    private record MethodCode(List<String> modifiers, String name, String descriptor, int maxStack, int maxLocals,
+                              List<CodeItem> code) {
+
+        private void writeTo(ClassSink out) {
+            out.method(modifiers, name, descriptor, maxStack, maxLocals, code);
+        }
+    }
+
+    // Opcodes with the register (or constant) in the name, indexed by register (or by constant + 1)
+    private static final Opcode[] ILOAD = {Opcode.ILOAD_0, Opcode.ILOAD_1, Opcode.ILOAD_2, Opcode.ILOAD_3};
+    private static final Opcode[] ISTORE = {Opcode.ISTORE_0, Opcode.ISTORE_1, Opcode.ISTORE_2, Opcode.ISTORE_3};
+    private static final Opcode[] ALOAD = {Opcode.ALOAD_0, Opcode.ALOAD_1, Opcode.ALOAD_2, Opcode.ALOAD_3};
+    private static final Opcode[] ASTORE = {Opcode.ASTORE_0, Opcode.ASTORE_1, Opcode.ASTORE_2, Opcode.ASTORE_3};
+    private static final Opcode[] ICONST = {Opcode.ICONST_M1, Opcode.ICONST_0, Opcode.ICONST_1, Opcode.ICONST_2,
+            Opcode.ICONST_3, Opcode.ICONST_4, Opcode.ICONST_5};
 
     private final OllirResult ollirResult;
     List<Report> reports;
@@ -33,22 +69,30 @@ public class JasminGenerator {
 
     Method currentMethod;
     ClassUnit classUnit;
-    private final FunctionClassMap<TreeNode, String> generators;
+    private final BiConsumerClassMap<TreeNode, List<CodeItem>> generators;
     private int limits_stack = 0;
-    private int continuos_stack = 0;
     private int limits_locals = 0;
 
     private int conds = 0;
+
+    private final boolean parallel;
+    private final PeepholeOptimizer peephole;
+    private boolean peepholeReported = false;
+
+    // Reused by every method of this generator
+    private final List<CodeItem> methodBody = new ArrayList<>();
+    private final Map<String, String> importedClassNames = new HashMap<>();
+
     public JasminGenerator(OllirResult ollirResult) {
         this.ollirResult = ollirResult;
         classUnit = this.ollirResult.getOllirClass();
+        parallel = CompilerConfig.isParallel(ollirResult.getConfig());
+        peephole = new PeepholeOptimizer(PeepholeOptimizer.getRules(ollirResult.getConfig()));
         reports = new ArrayList<>();
         code = null;
         currentMethod = null;
 
-        this.generators = new FunctionClassMap<>();
-        generators.put(ClassUnit.class, this::generateClassUnit);
-        generators.put(Method.class, this::generateMethod);
+        this.generators = new BiConsumerClassMap<>();
         generators.put(AssignInstruction.class, this::generateAssign);
         generators.put(SingleOpInstruction.class, this::generateSingleOp);
         generators.put(LiteralElement.class, this::generateLiteral);
@@ -72,169 +116,223 @@ public class JasminGenerator {
 
         // This way, build is idempotent
         if (code == null) {
-            code = generators.apply(ollirResult.getOllirClass());
+            var builder = new StringBuilder();
+            write(builder);
+            code = builder.toString();
         }
-        
+
         return code;
     }
 
+    /**
+     * Writes the Jasmin code of the class to the given destination, as it is generated.
+     */
+    public void write(Appendable destination) {
+        var out = new JasminWriter(destination);
+
+        if (code != null) {
+            out.append(code);
+            return;
+        }
+
+        write(out);
+    }
+
+    /**
+     * Writes the class, with the code of each method as {@link Instruction}s, to the given sink as it is generated.
+     */
+    public void write(ClassSink out) {
+        generateClassUnit(classUnit, out);
+    }
+
 
-    private String generateClassUnit(ClassUnit classUnit) {
+    private void generateClassUnit(ClassUnit classUnit, ClassSink out) {
 
-        var code = new StringBuilder();
         // generate class name
         var className = classUnit.getClassName();
         var modifier = classUnit.getClassAccessModifier() != AccessModifier.DEFAULT ?
-                classUnit.getClassAccessModifier().name().toLowerCase() + " " :
-                "public ";
-        code.append(".class ").append(modifier).append(className).append(NL);
+                classUnit.getClassAccessModifier().name().toLowerCase() :
+                "public";
 
-        code.append(".super ");
+        String superClass;
         if (classUnit.getSuperClass() == null || classUnit.getSuperClass().equals("Object")) {
-            code.append("java/lang/Object").append(NL);
-
+            superClass = OBJECT;
         } else {
-            code.append(classUnit.getSuperClass().replace("\\.","/")).append(NL);
+            superClass = classUnit.getSuperClass().replace("\\.","/");
         }
-        code.append(NL);
+        out.header(List.of(modifier), className, superClass);
+
         var fieldsList = classUnit.getFields();
         for(var field: fieldsList){
-            var final_f="";
-            var static_f="";
+            var modifiers_f = new ArrayList<String>();
+            if (field.getFieldAccessModifier() != AccessModifier.DEFAULT) {
+                modifiers_f.add(field.getFieldAccessModifier().name().toLowerCase());
+            }
             if(field.isFinalField()){
-                final_f= "final ";
+                modifiers_f.add("final");
             }
             if(field.isStaticField()){
-                static_f="static ";
+                modifiers_f.add("static");
             }
-            var modifier_f = field.getFieldAccessModifier() != AccessModifier.DEFAULT ?
-                    field.getFieldAccessModifier().name().toLowerCase() + " " :
-                    "";
-            code.append(".field ").append(modifier_f).append(final_f).append(static_f).append(field.getFieldName()).append(" ");
-
-            code.append(transformType(field.getFieldType())).append(NL);
+            out.field(modifiers_f, field.getFieldName(), getDescriptor(field.getFieldType()));
         }
         // generate a single constructor method
         if(classUnit.getSuperClass() == null || classUnit.getSuperClass().equals("Object")) {
-            var defaultConstructor = """
-                    ;default constructor
-                    .method public <init>()V
-                        aload_0
-                        invokespecial java/lang/Object/<init>()V
-                        return
-                    .end method
-                    """;
-            code.append(defaultConstructor);
+            out.method(List.of("public"), "<init>", "()V", 1, 1, DEFAULT_CONSTRUCTOR);
         }
         // generate code for all other methods
-        for (var method : ollirResult.getOllirClass().getMethods()) {
-
-            // Ignore constructor, since there is always one constructor
-            // that receives no arguments, and has been already added
-            // previously
-            if (method.isConstructMethod()) {
-                continue;
+        // Ignore constructor, since there is always one constructor
+        // that receives no arguments, and has been already added
+        // previously
+        var methods = ollirResult.getOllirClass().getMethods().stream()
+                .filter(method -> !method.isConstructMethod())
+                .toList();
+
+        if (parallel) {
+            generateMethodsInParallel(methods).forEach(method -> method.writeTo(out));
+        } else {
+            for (var method : methods) {
+                generateMethod(method).writeTo(out);
             }
-            
-            code.append(generators.apply(method));
         }
-        return code.toString();
+
+        // The class may be generated again, with the same result, by build()
+        if (peephole.isEnabled() && !peepholeReported) {
+            peephole.getStats().forEach((rule, count) -> reports.add(Report.newLog(Stage.GENERATION, -1, -1,
+                    "Peephole rule '" + rule.getName() + "' applied " + count + " time(s)", null)));
+            peepholeReported = true;
+        }
+    }
+
+    /**
+     * Generates each method with its own generator, in its own task of the common fork-join pool.
+     *
+     * @return the code of each method, in the given order
+     */
+    private List<MethodCode> generateMethodsInParallel(List<Method> methods) {
+        List<JasminGenerator> methodGenerators = new ArrayList<>();
+        List<ForkJoinTask<MethodCode>> tasks = new ArrayList<>();
+        for (var method : methods) {
+            var methodGenerator = new JasminGenerator(ollirResult);
+            methodGenerators.add(methodGenerator);
+            tasks.add(ForkJoinTask.adapt(() -> methodGenerator.generateMethod(method)));
+        }
+
+        ForkJoinTask.invokeAll(tasks);
+
+        for (var methodGenerator : methodGenerators) {
+            reports.addAll(methodGenerator.getReports());
+            peephole.addStats(methodGenerator.peephole);
+        }
+
+        return tasks.stream().map(ForkJoinTask::join).toList();
     }
 
 
-    private String generateMethod(Method method) {
+    /**
+     * @return the code of the method, which is only valid until this generator generates another one
+     */
+    private MethodCode generateMethod(Method method) {
 
         // set method
         currentMethod = method;
         limits_stack = 0;
         limits_locals = 0;
-
-        Set<Integer> v = new HashSet<Integer>();
-        for(var i : currentMethod.getVarTable().values()){
-            v.add(i.getVirtualReg());
-        }
-        limits_locals = v.size();
-        if(!currentMethod.isStaticMethod()){
-            if(!currentMethod.getVarTable().containsKey("this"))
-                limits_locals++;
-        }
-        continuos_stack = 0;
-        var code = new StringBuilder();
-        var final_code = new StringBuilder();
-        // calculate modifier
-        var modifier = method.getMethodAccessModifier() != AccessModifier.DEFAULT ?
-                method.getMethodAccessModifier().name().toLowerCase() + " " :
-                "";
-
-        var methodName = method.getMethodName();
-        var methodType = method.getReturnType();
-        // TODO: Hardcoded param types and return type, needs to be expanded
-        var methodParameters = method.getParams();
-        var params=new StringBuilder();
-        for(var param: methodParameters){
-            params.append(transformType(param.getType()));
-        }
-
-        var static_m="";
-        if(method.isStaticMethod()){
-            static_m="static ";
+        conds = 0;
+
+        // Registers may be shared (see RegisterAllocation), so the limit is given by the highest one. Fields and class
+        // names are in the table too, but are not stored in registers
+        limits_locals = currentMethod.isStaticMethod() ? 0 : 1;
+        for (var descriptor : currentMethod.getVarTable().values()) {
+            if (descriptor.getScope() != VarScope.FIELD
+                    && descriptor.getVarType().getTypeOfElement() != ElementType.CLASS) {
+                limits_locals = Math.max(limits_locals, descriptor.getVirtualReg() + 1);
+            }
         }
-        var final_m="";
-
-        final_code.append("\n.").append(method.isFinalMethod() ? "final method" : "method ").append(modifier).append(static_m).append(final_m).append(methodName).append("(").append(params).append(")").append(transformType(methodType)).append(NL);
-        final_code.append(NL);
-        // Add limits
 
+        // The limits are only known after generating the body
+        methodBody.clear();
         for (var inst : method.getInstructions()) {
-            for(var label : method.getLabels().entrySet()){
-                if(label.getValue().equals(inst)) code.append(label.getKey()).append(":").append(NL);
+            for (var label : method.getLabels(inst)) {
+                methodBody.add(new CodeItem.Label(label));
             }
-            var instCode = StringLines.getLines(generators.apply(inst)).stream()
-                    .collect(Collectors.joining(NL + TAB, TAB, NL));
-            code.append(instCode);
+
+            generators.accept(inst, methodBody);
+
             if(inst.getInstType() == InstructionType.CALL && !(((CallInstruction) inst).getReturnType().toString().equals("VOID"))) {
-                code.append(TAB).append("pop").append(NL);
-                changeStack(-1);
+                methodBody.add(Instruction.of(Opcode.POP));
             }
         }
-        final_code.append(".limit stack ").append(limits_stack).append(NL);
-        final_code.append(".limit locals ").append(limits_locals).append(NL);
-        final_code.append(code);
-        final_code.append(".end method\n");
+
+        var code = peephole.isEnabled() ? peephole.optimize(methodBody) : methodBody;
+
+        // calculate modifiers
+        var modifiers = new ArrayList<String>();
+        if (method.getMethodAccessModifier() != AccessModifier.DEFAULT) {
+            modifiers.add(method.getMethodAccessModifier().name().toLowerCase());
+        }
+        if(method.isStaticMethod()){
+            modifiers.add("static");
+        }
+        if(method.isFinalMethod()){
+            modifiers.add("final");
+        }
+
+        // Add limits, with the stack limit given by simulating the code of the method
+        limits_stack = StackSimulator.getMaxStack(code);
+        var methodCode = new MethodCode(modifiers, method.getMethodName(),
+                getMethodDescriptor(method.getParams(), method.getReturnType()), limits_stack, limits_locals, code);
 
         // unset method
         currentMethod = null;
 
-        return final_code.toString();
+        return methodCode;
+    }
+
+    private String getDescriptor(Type type) {
+        var descriptor = new StringBuilder();
+        appendType(type, descriptor);
+        return descriptor.toString();
+    }
+
+    /**
+     * @return the descriptor of a method with parameters of the types of the elements
+     */
+    private String getMethodDescriptor(List<Element> params, Type returnType) {
+        var descriptor = new StringBuilder("(");
+        for (var param : params) {
+            appendType(param.getType(), descriptor);
+        }
+        descriptor.append(")");
+        appendType(returnType, descriptor);
+        return descriptor.toString();
     }
 
-    private String transformType(Type methodType) {
-        var code= new StringBuilder();
+    private void appendType(Type methodType, StringBuilder out) {
         if (methodType.getTypeOfElement() == ElementType.OBJECTREF){
-            code.append("L").append(getImportedClassName(((ClassType)methodType).getName()).replace(".","/")).append(";");
-            return code.toString();
+            out.append("L").append(getImportedClassName(((ClassType)methodType).getName())).append(";");
         } else if(methodType.getTypeOfElement() == ElementType.ARRAYREF){
-            return "[" + transformArray(((ArrayType) methodType).getElementType());
+            out.append("[");
+            appendArrayType(((ArrayType) methodType).getElementType(), out);
         } else if (methodType.getTypeOfElement() == ElementType.STRING){
-            return "Ljava/lang/String;";
+            out.append("Ljava/lang/String;");
+        } else {
+            out.append(transformString(methodType.toString()));
         }
-        return transformString(methodType.toString());
     }
-    private String transformArray(Type methodType ) {
-        var code = new StringBuilder();
+    private void appendArrayType(Type methodType, StringBuilder out) {
         if (methodType.getTypeOfElement() == ElementType.OBJECTREF) {
-            code.append(getImportedClassName(methodType.getTypeOfElement().toString()));
-            return code.toString();
+            out.append(getImportedClassName(methodType.getTypeOfElement().toString()));
         }
         else if(methodType.getTypeOfElement() == ElementType.ARRAYREF){
-            return "[" + transformArray(((ArrayType) methodType).getElementType());
+            out.append("[");
+            appendArrayType(((ArrayType) methodType).getElementType(), out);
         }
-        switch (methodType.toString()){
-            case "INT32": return "I";
-            case "BOOLEAN": return "Z";
-            case "STRING": return "Ljava/lang/String;";
-            case "VOID": return "V";
-            default: return null;
+        else if (methodType.getTypeOfElement() == ElementType.STRING) {
+            out.append("Ljava/lang/String;");
+        }
+        else {
+            out.append(transformString(methodType.toString()));
         }
     }
     private String transformString(String string) {
@@ -242,320 +340,271 @@ public class JasminGenerator {
             case "INT32": return "I";
             case "BOOLEAN": return "Z";
             case "VOID": return "V";
-            default: return null;
+            default: throw new NotImplementedException("Type not supported: " + string);
         }
     }
-    private String generateAssign(AssignInstruction assign) {
-        var code = new StringBuilder();
+    private void generateAssign(AssignInstruction assign, List<CodeItem> code) {
         var lhs = assign.getDest();
         var rhs = assign.getRhs();
 
-        // Check if RHS is a BinaryOpInstruction
-        if (rhs instanceof BinaryOpInstruction rhs_b) {
-            if ((rhs_b.getOperation().getOpType().equals(OperationType.ADD)) ||
-                    (rhs_b.getOperation().getOpType().equals(OperationType.SUB))) {
-
-                Element left = rhs_b.getLeftOperand();
-                Element right = rhs_b.getRightOperand();
-                boolean realInc = false;
-                boolean range_byte = false;
-                int val = 0;
-
-                // Check for literal on the left side
-                if (left.isLiteral() && !right.isLiteral()) {
-                    realInc = ((Operand) right).getName().equals(((Operand) lhs).getName());
-                    val = Integer.parseInt(((LiteralElement) left).getLiteral());
-                    if (rhs_b.getOperation().getOpType().equals(OperationType.SUB)) {
-                        val = -val;
-                    }
-                }
-                // Check for literal on the right side
-                else if (right.isLiteral() && !left.isLiteral()) {
-                    realInc = ((Operand) left).getName().equals(((Operand) lhs).getName());
-                    val = Integer.parseInt(((LiteralElement) right).getLiteral());
-                    if (rhs_b.getOperation().getOpType().equals(OperationType.SUB)) {
-                        val = -val;
-                    }
-                }
+        // The array and the index of an element go on the stack before the value
+        if (lhs instanceof ArrayOperand array) {
+            generateArrayIndex(array, code);
+            generators.accept(rhs, code);
+            code.add(Instruction.of(Opcode.IASTORE));
+            return;
+        }
 
-                // Check if the increment value is within the range of a byte
-                if (val >= -128 && val <= 127) {
-                    range_byte = true;
-                }
+        if (rhs instanceof BinaryOpInstruction binaryOp && generateIncrement((Operand) lhs, binaryOp, code)) {
+            return;
+        }
 
-                // If this is a real increment assignment and the value is within the range of a byte
-                if (range_byte && realInc) {
-                    code.append("iinc ")
-                            .append(currentMethod.getVarTable().get(((Operand) lhs).getName()).getVirtualReg())
-                            .append(" ")
-                            .append(val)
-                            .append(NL);
-                    return code.toString();
-                }
-            }
-            else if(rhs_b.getOperation().getOpType().equals(OperationType.LTH)){
-                code.append(generateBinaryBranch(rhs_b));
-                code.append("if_lt_").append(conds).append("_true").append(NL);
-                code.append("iconst_0").append(NL);
-                code.append("goto ").append("if_lt_").append(conds).append("_end").append(NL);
-                code.append("if_lt_").append(conds).append("_true:").append(NL);
-                code.append("iconst_1").append(NL);
-                code.append("goto ").append("if_lt_").append(conds).append("_end").append(NL);
-                code.append(NL);
-                code.append("if_lt_").append(conds).append("_end:").append(NL);
-                conds++;
-                return code.toString();
-            }
+        generators.accept(rhs, code);
+        generateStore((Operand) lhs, code);
+    }
+
+    /**
+     * Adds an 'iinc' if the operation adds a constant in the range of a byte to the variable it is assigned to.
+     *
+     * @return true if the 'iinc' was added
+     */
+    private boolean generateIncrement(Operand lhs, BinaryOpInstruction binaryOp, List<CodeItem> code) {
+        var opType = binaryOp.getOperation().getOpType();
+        if (opType != OperationType.ADD && opType != OperationType.SUB) {
+            return false;
         }
 
+        Element variable = binaryOp.getLeftOperand();
+        Element constant = binaryOp.getRightOperand();
+        // Only an addition can have the constant on the left
+        if (opType == OperationType.ADD && variable.isLiteral()) {
+            variable = binaryOp.getRightOperand();
+            constant = binaryOp.getLeftOperand();
+        }
 
-        // Default handling for other cases
-        code.append(generators.apply(rhs));
-        // ArrayOperand handling (if lhs is an array element)
-        if (lhs instanceof ArrayOperand array) {
-            changeStack(1);
-            var reg = currentMethod.getVarTable().get((array).getName()).getVirtualReg();
-            if( reg < 4) code.append("aload_").append(reg).append(NL);
-            else code.append("aload ")
-                    .append(reg)
-                    .append(NL);
-            for(var i: array.getIndexOperands()){
-                code.append(generators.apply(i));
-                changeStack(-1);
+        if (!(variable instanceof Operand operand) || variable instanceof ArrayOperand
+                || !operand.getName().equals(lhs.getName()) || !(constant instanceof LiteralElement literal)) {
+            return false;
+        }
 
-            }
-            code.append(generators.apply(rhs));
-            changeStack(-1);
+        int value = Integer.parseInt(literal.getLiteral());
+        if (opType == OperationType.SUB) {
+            value = -value;
+        }
+        if (value < -128 || value > 127) {
+            return false;
         }
 
+        code.add(Instruction.iinc(currentMethod.getVarTable().get(lhs.getName()).getVirtualReg(), value));
+        return true;
+    }
+
+    /**
+     * Adds the code that leaves 1 on the stack if the comparison holds, and 0 otherwise.
+     */
+    private void generateComparisonValue(BinaryOpInstruction binaryOp, List<CodeItem> code) {
+        var trueLabel = "cmp_" + conds + "_true";
+        var endLabel = "cmp_" + conds + "_end";
+        conds++;
+
+        code.add(Instruction.of(generateBinaryBranch(binaryOp, code), trueLabel));
+        code.add(Instruction.of(Opcode.ICONST_0));
+        code.add(Instruction.of(Opcode.GOTO, endLabel));
+        code.add(new CodeItem.Label(trueLabel));
+        code.add(Instruction.of(Opcode.ICONST_1));
+        code.add(new CodeItem.Label(endLabel));
+    }
+
+    /**
+     * Adds the instruction that stores the value on top of the stack in the operand.
+     */
+    private void generateStore(Operand lhs, List<CodeItem> code) {
         // Get register
-        var reg = currentMethod.getVarTable().get(((Operand) lhs).getName()).getVirtualReg();
+        var reg = currentMethod.getVarTable().get(lhs.getName()).getVirtualReg();
 
         // Determine store instruction based on the type of the lhs operand
         if (lhs.getType().getTypeOfElement().equals(ElementType.INT32) ||
                 lhs.getType().getTypeOfElement().equals(ElementType.BOOLEAN)) {
-            if (currentMethod.getVarTable().get(((Operand) lhs).getName()).getVarType().getTypeOfElement().equals(ElementType.ARRAYREF)) {
-                code.append("iastore").append(NL);
-            } else {
-                changeStack(-1);
-                if(reg < 4) code.append("istore_").append(reg).append(NL);
-                else code.append("istore ").append(reg).append(NL);
-            }
+            addRegInstruction(code, Opcode.ISTORE, ISTORE, reg);
         } else {
-            changeStack(-1);
-            if(reg < 4) code.append("astore_").append(reg).append(NL);
-            else code.append("astore ").append(reg).append(NL);
+            addRegInstruction(code, Opcode.ASTORE, ASTORE, reg);
         }
+    }
+
+    /**
+     * Adds the short form of a load or store if the register has one, or the opcode with the register.
+     */
+    private static void addRegInstruction(List<CodeItem> code, Opcode opcode, Opcode[] shortForms, int reg) {
+        if (reg < shortForms.length) code.add(Instruction.of(shortForms[reg]));
+        else code.add(Instruction.of(opcode, reg));
+    }
 
-        return code.toString();
+    private void generateSingleOp(SingleOpInstruction singleOp, List<CodeItem> code) {
+        generators.accept(singleOp.getSingleOperand(), code);
     }
 
-    private String generateSingleOp(SingleOpInstruction singleOp) {
-        return generators.apply(singleOp.getSingleOperand());
+    private void generateArrayElement(ArrayOperand array, List<CodeItem> code) {
+        generateArrayIndex(array, code);
+        code.add(Instruction.of(Opcode.IALOAD));
     }
 
-    private String generateArrayElement(ArrayOperand array) {
-        var code = new StringBuilder();
+    /**
+     * Adds the loads of the array and the index of the element.
+     */
+    private void generateArrayIndex(ArrayOperand array, List<CodeItem> code) {
         var reg = currentMethod.getVarTable().get(array.getName()).getVirtualReg();
-        code.append("aload_").append(reg).append(NL);
-        changeStack(1);
-        for(var i:array.getIndexOperands()){
-            changeStack(1);
-            code.append(generators.apply(i));
-        }
-        code.append("iaload").append(NL);
-        return code.toString();
-    }
-    private String generateLiteral(LiteralElement literal) {
-        var code=new StringBuilder();
-        if(literal.getType().getTypeOfElement().toString().equals("INT32")|| literal.getType().getTypeOfElement().toString().equals("BOOLEAN")){
+        addRegInstruction(code, Opcode.ALOAD, ALOAD, reg);
+        for (var index : array.getIndexOperands()) {
+            generators.accept(index, code);
+        }
+    }
+    private void generateLiteral(LiteralElement literal, List<CodeItem> code) {
+        if(literal.getType().getTypeOfElement() == ElementType.INT32 || literal.getType().getTypeOfElement() == ElementType.BOOLEAN){
             int value = Integer.parseInt(literal.getLiteral());
 
-            if(value >= -1 && value <=5)  code.append("iconst_");
-            else if(value >= -128 && value<=127) code.append("bipush ");
-            else if(value >= -32768 && value <= 32767) code.append("sipush ");
-            else {code.append("ldc ");}
-
-            code.append(value == -1 ?  "m1" : value).append(NL);
+            if(value >= -1 && value <=5) code.add(Instruction.of(ICONST[value + 1]));
+            else if(value >= -128 && value<=127) code.add(Instruction.of(Opcode.BIPUSH, value));
+            else if(value >= -32768 && value <= 32767) code.add(Instruction.of(Opcode.SIPUSH, value));
+            else code.add(Instruction.of(Opcode.LDC, value));
         }
         else {
-            code.append("ldc ").append(literal.getLiteral()).append(NL);
+            // String literals have quotes
+            code.add(Instruction.of(Opcode.LDC, literal.getLiteral().replace("\"", "")));
         }
-        changeStack(1);
-        return code.toString();
     }
 
-    private String generateOperand(Operand operand) {
-        changeStack(1);
-        if(operand.getType().getTypeOfElement().toString().equals("THIS")) return "aload_0"+ NL;
-        else if(operand.getType().getTypeOfElement().toString().equals("INT32") | operand.getType().getTypeOfElement().toString().equals("BOOLEAN")) {
+    private void generateOperand(Operand operand, List<CodeItem> code) {
+        var type = operand.getType().getTypeOfElement();
+        if(type == ElementType.THIS) code.add(Instruction.of(Opcode.ALOAD_0));
+        else if(type == ElementType.INT32 || type == ElementType.BOOLEAN) {
             var reg = currentMethod.getVarTable().get(operand.getName()).getVirtualReg();
-            if(reg < 4) return "iload_" + reg + NL;
-            return "iload " + reg +NL;
+            addRegInstruction(code, Opcode.ILOAD, ILOAD, reg);
         }
-        else if(operand.getType().getTypeOfElement().toString().equals("STRING") || operand.getType().getTypeOfElement().toString().equals("OBJECTREF") || operand.getType().getTypeOfElement().toString().equals("ARRAYREF")) {
+        else if(type == ElementType.STRING || type == ElementType.OBJECTREF || type == ElementType.ARRAYREF) {
             var reg = currentMethod.getVarTable().get(operand.getName()).getVirtualReg();
-            if(reg < 4) return "aload_" + reg + NL;
-            return "aload " + reg + NL;
+            addRegInstruction(code, Opcode.ALOAD, ALOAD, reg);
         }
-        return "";
     }
 
-    private String generateBinaryOp(BinaryOpInstruction binaryOp) {
-        var code = new StringBuilder();
-
-        // load values on the left and on the right
-        code.append(generators.apply(binaryOp.getLeftOperand()));
-        code.append(generators.apply(binaryOp.getRightOperand()));
-        var a = binaryOp.getOperation().getOpType();
-        // apply operation
+    private void generateBinaryOp(BinaryOpInstruction binaryOp, List<CodeItem> code) {
         var op = switch (binaryOp.getOperation().getOpType()) {
-            case MUL -> "imul";
-            case DIV -> "idiv";
-            case ADD -> "iadd";
-            case SUB -> "isub";
-            case ANDB -> "iand";
-            case NOTB ,EQ -> "ifeq";
-            case LTH -> "iflt";
-            case GTE -> "ifge";
-            case NEQ -> "ifne";
-            case GTH -> "ifgt";
-            case LTE -> "ifle";
+            case MUL -> Opcode.IMUL;
+            case DIV -> Opcode.IDIV;
+            case ADD -> Opcode.IADD;
+            case SUB -> Opcode.ISUB;
+            case ANDB -> Opcode.IAND;
+            case ORB -> Opcode.IOR;
+            // A comparison is a branch, so its value is pushed by the code of each outcome
+            case LTH, GTE, GTH, LTE, EQ, NEQ -> null;
             default -> throw new NotImplementedException(binaryOp.getOperation().getOpType());
         };
 
-        code.append(op).append(NL);
-        changeStack(-1);
+        if (op == null) {
+            generateComparisonValue(binaryOp, code);
+            return;
+        }
 
-        return code.toString();
+        // load values on the left and on the right
+        generators.accept(binaryOp.getLeftOperand(), code);
+        generators.accept(binaryOp.getRightOperand(), code);
+        // apply operation
+        code.add(Instruction.of(op));
     }
-    private String generatePutField(PutFieldInstruction putField) {
-        var code = new StringBuilder();
-
-        code.append(generators.apply(putField.getOperands().get(0)));
-        code.append(generators.apply(putField.getOperands().get(2)));
-        changeStack(-2);
+    private void generatePutField(PutFieldInstruction putField, List<CodeItem> code) {
+        generators.accept(putField.getOperands().get(0), code);
+        generators.accept(putField.getOperands().get(2), code);
         var className = getImportedClassName(((Operand) putField.getOperands().get(0)).getName());
         var fieldName = putField.getField().getName();
-        var fieldType = transformType(putField.getField().getType());
-        code.append("putfield ").append(className).append("/").append(fieldName).append(" ").append(fieldType).append(NL);
-
-        return code.toString();
+        code.add(Instruction.member(Opcode.PUTFIELD, className, fieldName, getDescriptor(putField.getField().getType())));
     }
 
-    private String generateGetField(GetFieldInstruction getField) {
-        var code = new StringBuilder();
-
-
-        code.append(generators.apply(getField.getOperands().get(0)));
+    private void generateGetField(GetFieldInstruction getField, List<CodeItem> code) {
+        generators.accept(getField.getOperands().get(0), code);
 
         var className = getImportedClassName(((Operand) getField.getOperands().get(0)).getName());
         var fieldName = getField.getField().getName();
-        var fieldType = transformType(getField.getField().getType());
-        code.append("getfield ").append(className).append("/").append(fieldName).append(" ").append(fieldType).append(NL);
-
-        return code.toString();
+        code.add(Instruction.member(Opcode.GETFIELD, className, fieldName, getDescriptor(getField.getField().getType())));
     }
-    private String generateReturn(ReturnInstruction returnInst) {
-        var code = new StringBuilder();
-
-        // TODO: Hardcoded to int return type, needs to be expanded
+    private void generateReturn(ReturnInstruction returnInst, List<CodeItem> code) {
         if(returnInst.getOperand() == null){
-            code.append("return").append(NL);
+            code.add(Instruction.of(Opcode.RETURN));
         }
         else if(returnInst.getReturnType().toString().equals("INT32") || returnInst.getReturnType().toString().equals("BOOLEAN")){
-            code.append(generators.apply(returnInst.getOperand()));
-            code.append("ireturn").append(NL);
+            generators.accept(returnInst.getOperand(), code);
+            code.add(Instruction.of(Opcode.IRETURN));
         }
         else {
-            code.append(generators.apply(returnInst.getOperand()));
-            code.append("areturn").append(NL);
+            generators.accept(returnInst.getOperand(), code);
+            code.add(Instruction.of(Opcode.ARETURN));
         }
-        return code.toString();
     }
-    private String generateCallInstruction(CallInstruction callInstruction) {
-        var code = new StringBuilder();
-        var type = callInstruction.getInvocationType().toString();
+    private void generateCallInstruction(CallInstruction callInstruction, List<CodeItem> code) {
+        var type = callInstruction.getInvocationType();
         var a= ((Operand) callInstruction.getCaller()).getType();
-        var args = -1;
         Operand first = (Operand) callInstruction.getOperands().get(0);
-        var methodName="";
         switch (type) {
-            case "NEW" -> {
+            case NEW -> {
+                for(Element elem: callInstruction.getArguments()){
+                    generators.accept(elem, code);
+                }
                 if(callInstruction.getReturnType().getTypeOfElement().equals(ElementType.ARRAYREF)){
-                    for(Element elem: callInstruction.getArguments()){
-                        code.append(generators.apply(elem));
-                    }
-                    code.append("newarray int").append(NL);
-                    break;
+                    code.add(Instruction.of(Opcode.NEWARRAY, "int"));
                 }
                 else {
-                    for(Element elem: callInstruction.getArguments()){
-                        code.append(generators.apply(elem));
-                    }
+                    code.add(Instruction.of(Opcode.NEW, getImportedClassName(((Operand) callInstruction.getCaller()).getName())));
                 }
-                methodName = getImportedClassName(((Operand) callInstruction.getCaller()).getName());
-                code.append("new ").append(methodName).append(NL);
             }
-            case "invokespecial" -> {
-                code.append(generators.apply(first));
+            case invokespecial -> {
+                generators.accept(first, code);
+                String className;
                 if(a.getTypeOfElement() == ElementType.THIS)
-                    methodName = ollirResult.getOllirClass().getSuperClass();
+                    className = ollirResult.getOllirClass().getSuperClass();
                 else {
-                    methodName = getImportedClassName(((ClassType) a).getName());
-                }
-                StringBuilder param= new StringBuilder();
-                for (var arg : callInstruction.getArguments()) {
-                    param.append(transformType(arg.getType()));
-                }
-                code.append("invokespecial ").append(methodName).append("/<init>").append("(").append(param).append(")").append(transformType(callInstruction.getReturnType())).append(NL);
-                if(!callInstruction.getReturnType().getTypeOfElement().equals(ElementType.VOID)) {
-                    args--;
+                    className = getImportedClassName(((ClassType) a).getName());
                 }
+                code.add(Instruction.member(Opcode.INVOKESPECIAL, className, "<init>",
+                        getMethodDescriptor(callInstruction.getArguments(), callInstruction.getReturnType())));
             }
-            case "invokevirtual" -> {
-                code.append(generators.apply(first));
+            case invokevirtual -> {
+                generators.accept(first, code);
                 LiteralElement second = (LiteralElement) callInstruction.getOperands().get(1);
-                StringBuilder parameters = new StringBuilder();
                 for (var op : callInstruction.getArguments()) {
-                    args++;
-                    code.append(generators.apply(op));
-                }
-                for (var param : callInstruction.getArguments()) {
-                    parameters.append(transformType(param.getType()));
+                    generators.accept(op, code);
                 }
 
-                var methodName2 = second.getLiteral().replace("\"","");
-
-                code.append(type).append(" ").append(getImportedClassName(((ClassType) first.getType()).getName())).append("/").append(methodName2).append("(").append(parameters).append(")").append(transformType(callInstruction.getReturnType())).append(NL);
-                if(!callInstruction.getReturnType().getTypeOfElement().equals(ElementType.VOID)) args--;
+                var owner = getImportedClassName(((ClassType) first.getType()).getName());
+                code.add(getInvoke(Opcode.INVOKEVIRTUAL, owner, second, callInstruction));
             }
-            case "invokestatic" -> {
-                code.append(generators.apply(first));
+            case invokestatic -> {
+                generators.accept(first, code);
                 LiteralElement second = (LiteralElement) callInstruction.getOperands().get(1);
-                var parameters = new StringBuilder();
                 for (var op : callInstruction.getArguments()) {
-                    args++;
-                    code.append(generators.apply(op));
-                }
-                for (var param : callInstruction.getArguments()) {
-                    parameters.append(transformType(param.getType()));
+                    generators.accept(op, code);
                 }
 
-                code.append("invokestatic ");
-                code.append(getImportedClassName(((Operand) callInstruction.getCaller()).getName()));
-                code.append("/").append(second.getLiteral().replace("\"", "")).append("(").append(parameters).append(")").append(transformType(callInstruction.getReturnType())).append(NL);
-                if(!callInstruction.getReturnType().getTypeOfElement().equals(ElementType.VOID)) args--;
+                var owner = getImportedClassName(((Operand) callInstruction.getCaller()).getName());
+                code.add(getInvoke(Opcode.INVOKESTATIC, owner, second, callInstruction));
             }
-            case "arraylength" -> {
-                code.append(generators.apply(callInstruction.getCaller())).append("arraylength").append(NL);
+            case arraylength -> {
+                generators.accept(callInstruction.getCaller(), code);
+                code.add(Instruction.of(Opcode.ARRAYLENGTH));
             }
             default ->{
                 throw new NotImplementedException("Not supported: " + callInstruction.getInvocationType());
             }
         }
-        changeStack(-args);
-        return code.toString();
+    }
+
+    /**
+     * @return the invocation of the named method, with the parameter types of the arguments and the return type of
+     * the call
+     */
+    private Instruction getInvoke(Opcode opcode, String owner, LiteralElement methodName, CallInstruction callInstruction) {
+        // The name is a string literal, written without its quotes
+        var name = methodName.getLiteral().replace("\"", "");
+
+        return Instruction.member(opcode, owner, name,
+                getMethodDescriptor(callInstruction.getArguments(), callInstruction.getReturnType()));
     }
 
 
@@ -564,100 +613,90 @@ public class JasminGenerator {
         if (className.equals("this"))
             return classUnit.getClassName();
 
-        for (String imported : this.classUnit.getImports()) {
-            if (imported.endsWith(className)) {
-                return imported.replace(".","/");
+        return importedClassNames.computeIfAbsent(className, name -> {
+            for (String imported : this.classUnit.getImports()) {
+                if (imported.endsWith(name)) {
+                    return imported.replace(".","/");
+                }
             }
-        }
 
-        return className;
+            return name;
+        });
     }
-    private String generateSingleOpCond(SingleOpCondInstruction singleOpCondInstruction) {
-        var code = new StringBuilder();
-        if(singleOpCondInstruction.getCondition().getInstType().equals(InstructionType.NOPER)){
-            code.append(generators.apply(singleOpCondInstruction.getCondition().getSingleOperand()));
-            code.append("ifne ").append(singleOpCondInstruction.getLabel()).append(NL);
+    private void generateSingleOpCond(SingleOpCondInstruction singleOpCondInstruction, List<CodeItem> code) {
+        if(!singleOpCondInstruction.getCondition().getInstType().equals(InstructionType.NOPER)){
+            throw new NotImplementedException("Condition not supported: " + singleOpCondInstruction.getCondition().getInstType());
         }
-        else return null;
-        return code.toString();
+
+        generators.accept(singleOpCondInstruction.getCondition().getSingleOperand(), code);
+        code.add(Instruction.of(Opcode.IFNE, singleOpCondInstruction.getLabel()));
     }
 
-    private String generateCondInstruction(CondBranchInstruction instruction) {
-        var code = new StringBuilder();
+    private void generateCondInstruction(CondBranchInstruction instruction, List<CodeItem> code) {
         if(instruction.getCondition().getInstType().equals(InstructionType.BINARYOPER)) {
-            code.append(generateBinaryBranch((BinaryOpInstruction) instruction.getCondition()));
-            code.append(instruction.getLabel()).append(NL);
+            var branch = generateBinaryBranch((BinaryOpInstruction) instruction.getCondition(), code);
+            code.add(Instruction.of(branch, instruction.getLabel()));
         }
         else if(instruction.getCondition().getInstType().equals(InstructionType.UNARYOPER)){
-            code.append(generateUnary((UnaryOpInstruction) instruction.getCondition()));
-            code.append("ifeq ").append(instruction.getLabel()).append(NL);
-        }
-        if(instruction.getOperands().get(1).toString().equals("if_icmplt") || instruction.getOperands().get(1).toString().equals("if_icmpge")){
-            changeStack(-1);
+            generateUnary((UnaryOpInstruction) instruction.getCondition(), code);
+            code.add(Instruction.of(Opcode.IFEQ, instruction.getLabel()));
         }
-        changeStack(-1);
-        return code.toString();
     }
 
-    private String generateBinaryBranch(BinaryOpInstruction binaryOpInstruction) {
-        var code = new StringBuilder();
+    /**
+     * Adds the code that compares the operands, up to the jump.
+     *
+     * @return the opcode of the jump taken if the condition holds
+     */
+    private Opcode generateBinaryBranch(BinaryOpInstruction binaryOpInstruction, List<CodeItem> code) {
         var op = binaryOpInstruction.getOperation().getOpType();
         if (op.equals(OperationType.LTH) || op.equals(OperationType.GTE) || op.equals(OperationType.GTH)
                 || op.equals(OperationType.LTE) || op.equals(OperationType.EQ) || op.equals(OperationType.NEQ)    ) {
 
-            code.append(generators.apply(binaryOpInstruction.getLeftOperand()));
-            code.append(generators.apply(binaryOpInstruction.getRightOperand()));
+            generators.accept(binaryOpInstruction.getLeftOperand(), code);
+            generators.accept(binaryOpInstruction.getRightOperand(), code);
 
-            code.append("isub").append(NL);
+            code.add(Instruction.of(Opcode.ISUB));
 
             if (op.equals(OperationType.LTH)) {
-                code.append("iflt ");
+                return Opcode.IFLT;
             } else if (op.equals(OperationType.GTE)) {
-                code.append("ifge ");
+                return Opcode.IFGE;
             } else if (op.equals(OperationType.GTH)) {
-                code.append("ifgt ");
+                return Opcode.IFGT;
             } else if (op.equals(OperationType.LTE)) {
-                code.append("ifle ");
+                return Opcode.IFLE;
             } else if (op.equals(OperationType.EQ)) {
-                code.append("ifeq ");
-            } else if (op.equals(OperationType.NEQ)) {
-                code.append("ifne ");
+                return Opcode.IFEQ;
+            } else {
+                return Opcode.IFNE;
             }
-        } else if (op.equals(OperationType.ANDB)) {
-            code.append(generators.apply(binaryOpInstruction.getLeftOperand()));
-            code.append(generators.apply(binaryOpInstruction.getRightOperand()));
-            code.append("iand").append(NL);
-            code.append("ifne ");
+        } else if (op.equals(OperationType.ANDB) || op.equals(OperationType.ORB)) {
+            // Both operands are already computed, as in OLLIR that was not generated from Java--
+            generators.accept(binaryOpInstruction.getLeftOperand(), code);
+            generators.accept(binaryOpInstruction.getRightOperand(), code);
+            code.add(Instruction.of(op.equals(OperationType.ANDB) ? Opcode.IAND : Opcode.IOR));
+            return Opcode.IFNE;
         } else {
-            return null;
+            throw new NotImplementedException("Branch condition not supported: " + op);
         }
-        return code.toString();
     }
 
-    private String generateUnary(UnaryOpInstruction unaryOpInstruction) {
-        var code = new StringBuilder();
+    private void generateUnary(UnaryOpInstruction unaryOpInstruction, List<CodeItem> code) {
         var operand = unaryOpInstruction.getOperand();
         var op = unaryOpInstruction.getOperation().getOpType();
 
         if (op.equals(OperationType.NOTB)) {
-            code.append(generators.apply(operand));
-            code.append("iconst_1").append(NL);
-            code.append("ixor").append(NL);
+            generators.accept(operand, code);
+            code.add(Instruction.of(Opcode.ICONST_1));
+            code.add(Instruction.of(Opcode.IXOR));
         } else {
             throw new NotImplementedException("Unary operation not supported: " + op);
         }
-
-        return code.toString();
     }
 
-    private String generateGoTo(GotoInstruction gotoInstruction) {
-        var code = new StringBuilder();
-        code.append("goto ").append(gotoInstruction.getLabel());
-        return code.toString();
+    private void generateGoTo(GotoInstruction gotoInstruction, List<CodeItem> code) {
+        code.add(Instruction.of(Opcode.GOTO, gotoInstruction.getLabel()));
     }
 
-    private void changeStack(int val){
-        continuos_stack+= val;
-        limits_stack = Math.max(limits_stack,continuos_stack);
-    }
 }
@@ -0,0 +1,162 @@
+package pt.up.fe.comp2024.backend;
+
+import pt.up.fe.comp2024.backend.classfile.ClassSink;
+import pt.up.fe.comp2024.backend.classfile.CodeItem;
+import pt.up.fe.comp2024.backend.classfile.Instruction;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Writes Jasmin code to an {@link Appendable} (a buffer, a file or a socket), as it is generated. As a
+ * {@link ClassSink}, it prints each member of the class as soon as the generator gives it.
+ * <p>
+ * Instructions are written one line at a time, indented, straight from their opcode and operands, so no intermediate
+ * String is built for each instruction. Numbers are written digit by digit, also without allocating.
+ * <p>
+ * Errors of the underlying Appendable are thrown as {@link UncheckedIOException}.
+ */
+public class JasminWriter implements ClassSink {
+
+    private static final String TAB = "   ";
+    private static final char NL = '\n';
+
+    private final Appendable out;
+    private final char[] digits = new char[11];
+
+    public JasminWriter(Appendable out) {
+        this.out = out;
+    }
+
+    @Override
+    public void header(List<String> modifiers, String name, String superClass) {
+        append(".class ");
+        modifiers(modifiers).append(name).append(NL);
+        append(".super ").append(superClass).append(NL);
+        append(NL);
+    }
+
+    @Override
+    public void field(List<String> modifiers, String name, String descriptor) {
+        append(".field ");
+        modifiers(modifiers).append(name).append(' ').append(descriptor).append(NL);
+    }
+
+    @Override
+    public void method(List<String> modifiers, String name, String descriptor, int maxStack, int maxLocals,
+                       List<CodeItem> code) {
+        append(NL).append(".method ");
+        modifiers(modifiers).append(name).append(descriptor).append(NL);
+        append(NL);
+        append(".limit stack ").append(maxStack).append(NL);
+        append(".limit locals ").append(maxLocals).append(NL);
+        code(code);
+        append(".end method").append(NL);
+    }
+
+    /**
+     * Writes each modifier followed by a space.
+     */
+    private JasminWriter modifiers(List<String> modifiers) {
+        for (var modifier : modifiers) {
+            append(modifier).append(' ');
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes the labels and instructions of a method, one per line.
+     */
+    public JasminWriter code(List<CodeItem> code) {
+        for (var item : code) {
+            if (item instanceof CodeItem.Label label) {
+                label(label.name());
+            } else if (item instanceof Instruction instruction) {
+                instruction(instruction);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes a label of the method, not indented.
+     */
+    public JasminWriter label(String label) {
+        return append(label).append(':').append(NL);
+    }
+
+    /**
+     * Writes an indented instruction line, with its operands as Jasmin expects them.
+     */
+    public JasminWriter instruction(Instruction instruction) {
+        var opcode = instruction.opcode();
+        append(TAB).append(opcode.getName());
+
+        switch (opcode.getKind()) {
+            case NONE -> {
+            }
+            case LOCAL, BYTE, SHORT -> append(' ').append(instruction.value());
+            case INCREMENT -> append(' ').append(instruction.value()).append(' ').append(instruction.increment());
+            case CONSTANT -> {
+                if (instruction.symbol() == null) {
+                    append(' ').append(instruction.value());
+                } else {
+                    append(" \"").append(instruction.symbol()).append('"');
+                }
+            }
+            case BRANCH, TYPE, ARRAY_TYPE -> append(' ').append(instruction.symbol());
+            case FIELD -> append(' ').append(instruction.symbol()).append('/').append(instruction.name())
+                    .append(' ').append(instruction.descriptor());
+            case METHOD -> append(' ').append(instruction.symbol()).append('/').append(instruction.name())
+                    .append(instruction.descriptor());
+        }
+
+        return append(NL);
+    }
+
+    public JasminWriter append(CharSequence text) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write Jasmin code", e);
+        }
+
+        return this;
+    }
+
+    public JasminWriter append(char c) {
+        try {
+            out.append(c);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write Jasmin code", e);
+        }
+
+        return this;
+    }
+
+    public JasminWriter append(int value) {
+        if (value == Integer.MIN_VALUE) {
+            return append(Integer.toString(value));
+        }
+
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+
+        int start = digits.length;
+        do {
+            digits[--start] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        for (int i = start; i < digits.length; i++) {
+            append(digits[i]);
+        }
+
+        return this;
+    }
+}
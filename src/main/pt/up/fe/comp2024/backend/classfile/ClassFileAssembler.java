@@ -0,0 +1,200 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Assembles a class into a JVM class file, in memory, as the class is written to it.
+ * <p>
+ * Each method is assembled as soon as it is written, from the {@link Instruction}s given by the generator, so neither
+ * the Jasmin code of the class nor the code of the methods already written is kept. Only the instructions in
+ * {@link Opcode} are supported. The given stack and locals limits are ignored, since the assembler computes them,
+ * together with the StackMapTable frames required by class files of version 52 (Java 8).
+ */
+public class ClassFileAssembler implements ClassSink {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 52;
+
+    private static final int ACC_SUPER = 0x0020;
+    private static final String OBJECT = "java/lang/Object";
+
+    private final ClassLoader classLoader;
+    private final ConstantPool constantPool = new ConstantPool();
+
+    private String className;
+    private String superClass = OBJECT;
+    private int access;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /**
+     * @param classLoader loads the classes used by the code, to find the common super class of values whose type
+     *                    depends on the path taken
+     */
+    public ClassFileAssembler(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public ClassFileAssembler() {
+        this(ClassFileAssembler.class.getClassLoader());
+    }
+
+    @Override
+    public void header(List<String> modifiers, String name, String superClass) {
+        access = getAccessFlags(modifiers);
+        className = name;
+        this.superClass = superClass;
+    }
+
+    @Override
+    public void field(List<String> modifiers, String name, String descriptor) {
+        // Initial values are not supported
+        fields.add(encodeField(getAccessFlags(modifiers), name, descriptor));
+    }
+
+    @Override
+    public void method(List<String> modifiers, String name, String descriptor, int maxStack, int maxLocals,
+                       List<CodeItem> code) {
+        if (className == null) {
+            throw new RuntimeException("Method '" + name + "' is written before the class header");
+        }
+
+        var method = new MethodAssembler(className, constantPool, this::getCommonSuperClass, getAccessFlags(modifiers),
+                name, descriptor);
+        for (var item : code) {
+            if (item instanceof CodeItem.Label label) {
+                method.label(label.name());
+            } else if (item instanceof Instruction instruction) {
+                method.instruction(instruction);
+            }
+        }
+
+        methods.add(method.assemble());
+    }
+
+    /**
+     * @return the name of the assembled class, with '/' as separator
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the class file of all the code written so far
+     */
+    public byte[] toByteArray() {
+        if (className == null) {
+            throw new RuntimeException("Expected the class header");
+        }
+
+        // Every constant must be added before the constant pool is written
+        var thisIndex = constantPool.classRef(className);
+        var superIndex = constantPool.classRef(superClass);
+
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            constantPool.write(out);
+
+            out.writeShort(access | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0);
+
+            out.writeShort(fields.size());
+            for (var field : fields) {
+                out.write(field);
+            }
+
+            out.writeShort(methods.size());
+            for (var method : methods) {
+                out.write(method);
+            }
+
+            out.writeShort(0);
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] encodeField(int access, String name, String descriptor) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+
+            out.writeShort(access);
+            out.writeShort(constantPool.utf8(name));
+            out.writeShort(constantPool.utf8(descriptor));
+            out.writeShort(0);
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int getAccessFlags(List<String> modifiers) {
+        int flags = 0;
+
+        for (var modifier : modifiers) {
+            flags |= switch (modifier) {
+                case "public" -> 0x0001;
+                case "private" -> 0x0002;
+                case "protected" -> 0x0004;
+                case "static" -> 0x0008;
+                case "final" -> 0x0010;
+                case "abstract" -> 0x0400;
+                default -> throw new RuntimeException("Unsupported modifier '" + modifier + "'");
+            };
+        }
+
+        return flags;
+    }
+
+    /**
+     * @return the closest common super class of the two classes, or java/lang/Object if it cannot be determined
+     */
+    private String getCommonSuperClass(String first, String second) {
+        var ancestors = new HashSet<String>();
+        for (var current = first; current != null; current = getSuperClass(current)) {
+            ancestors.add(current);
+        }
+
+        for (var current = second; current != null; current = getSuperClass(current)) {
+            if (ancestors.contains(current)) {
+                return current;
+            }
+        }
+
+        return OBJECT;
+    }
+
+    private String getSuperClass(String internalName) {
+        if (internalName.equals(OBJECT)) {
+            return null;
+        }
+
+        if (internalName.equals(className)) {
+            return superClass;
+        }
+
+        try {
+            var superClass = Class.forName(internalName.replace('/', '.'), false, classLoader).getSuperclass();
+            return superClass != null ? superClass.getName().replace('.', '/') : OBJECT;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return OBJECT;
+        }
+    }
+}
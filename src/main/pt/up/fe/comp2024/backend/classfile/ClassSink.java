@@ -0,0 +1,27 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+import java.util.List;
+
+/**
+ * Receives a generated class one member at a time, in order: the header first, then the fields and methods.
+ * <p>
+ * Modifiers are given as in Java and Jasmin (e.g. "public", "static"), and types as JVM descriptors.
+ */
+public interface ClassSink {
+
+    /**
+     * @param name       the internal name of the class, with '/' as separator
+     * @param superClass the internal name of its super class
+     */
+    void header(List<String> modifiers, String name, String superClass);
+
+    void field(List<String> modifiers, String name, String descriptor);
+
+    /**
+     * @param maxStack  the maximum number of stack slots used by the code
+     * @param maxLocals the number of local variables used by the code, including the parameters
+     * @param code      the labels and instructions of the method
+     */
+    void method(List<String> modifiers, String name, String descriptor, int maxStack, int maxLocals,
+                List<CodeItem> code);
+}
@@ -0,0 +1,10 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+/**
+ * An element of the code of a method, as generated: a label of the next instruction, or an instruction.
+ */
+public sealed interface CodeItem permits CodeItem.Label, Instruction {
+
+    record Label(String name) implements CodeItem {
+    }
+}
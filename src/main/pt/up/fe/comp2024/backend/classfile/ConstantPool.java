@@ -0,0 +1,101 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Constant pool of a class file. Each constant is added once, and adding it again returns the index it already has.
+ */
+public class ConstantPool {
+
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int NAME_AND_TYPE = 12;
+
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    /**
+     * A constant, as written in the class file: its tag followed by either a string or up to two u2 values (or a
+     * single u4 for integers).
+     */
+    private record Entry(int tag, String text, int first, int second) {
+    }
+
+    private final Map<Entry, Integer> indexes = new HashMap<>();
+    private final List<Entry> entries = new ArrayList<>();
+
+    public int utf8(String text) {
+        return add(new Entry(UTF8, text, 0, 0));
+    }
+
+    public int integer(int value) {
+        return add(new Entry(INTEGER, null, value, 0));
+    }
+
+    /**
+     * @param internalName the name of the class with '/' as separator, or the descriptor of an array type
+     */
+    public int classRef(String internalName) {
+        return add(new Entry(CLASS, null, utf8(internalName), 0));
+    }
+
+    public int string(String value) {
+        return add(new Entry(STRING, null, utf8(value), 0));
+    }
+
+    public int fieldRef(String owner, String name, String descriptor) {
+        return add(new Entry(FIELD_REF, null, classRef(owner), nameAndType(name, descriptor)));
+    }
+
+    public int methodRef(String owner, String name, String descriptor) {
+        return add(new Entry(METHOD_REF, null, classRef(owner), nameAndType(name, descriptor)));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return add(new Entry(NAME_AND_TYPE, null, utf8(name), utf8(descriptor)));
+    }
+
+    private int add(Entry entry) {
+        var index = indexes.get(entry);
+        if (index != null) {
+            return index;
+        }
+
+        // Indexes start at 1
+        index = entries.size() + 1;
+        if (index >= MAX_ENTRIES) {
+            throw new RuntimeException("Too many constants in the class, the limit is " + (MAX_ENTRIES - 1));
+        }
+
+        entries.add(entry);
+        indexes.put(entry, index);
+
+        return index;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeShort(entries.size() + 1);
+
+        for (var entry : entries) {
+            out.writeByte(entry.tag());
+
+            switch (entry.tag()) {
+                case UTF8 -> out.writeUTF(entry.text());
+                case INTEGER -> out.writeInt(entry.first());
+                case CLASS, STRING -> out.writeShort(entry.first());
+                default -> {
+                    out.writeShort(entry.first());
+                    out.writeShort(entry.second());
+                }
+            }
+        }
+    }
+}
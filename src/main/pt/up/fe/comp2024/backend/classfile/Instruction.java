@@ -0,0 +1,91 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+/**
+ * An instruction of a method, with its operands already in the form each {@link Opcode.Kind} needs, so the code can be
+ * optimized, printed as Jasmin or assembled without reading it back from text.
+ * <p>
+ * Only the fields used by the kind of the opcode are set:
+ * <ul>
+ * <li>{@code value}: the local variable (LOCAL, INCREMENT), the immediate value (BYTE, SHORT) or the integer constant
+ * (CONSTANT, if {@code symbol} is null);</li>
+ * <li>{@code increment}: the increment of INCREMENT;</li>
+ * <li>{@code symbol}: the label (BRANCH), the class (TYPE), the owner (FIELD, METHOD), the primitive type name
+ * (ARRAY_TYPE) or the string constant, without quotes (CONSTANT);</li>
+ * <li>{@code name} and {@code descriptor}: the name and descriptor of the member (FIELD, METHOD).</li>
+ * </ul>
+ */
+public record Instruction(Opcode opcode, int value, int increment, String symbol, String name, String descriptor)
+        implements CodeItem {
+
+    public static Instruction of(Opcode opcode) {
+        check(opcode, Opcode.Kind.NONE);
+        return new Instruction(opcode, 0, 0, null, null, null);
+    }
+
+    /**
+     * @return an instruction with a local variable, an immediate value or an integer constant
+     */
+    public static Instruction of(Opcode opcode, int value) {
+        check(opcode, Opcode.Kind.LOCAL, Opcode.Kind.BYTE, Opcode.Kind.SHORT, Opcode.Kind.CONSTANT);
+        return new Instruction(opcode, value, 0, null, null, null);
+    }
+
+    /**
+     * @return an instruction with a label, a class, a primitive type name or a string constant
+     */
+    public static Instruction of(Opcode opcode, String symbol) {
+        check(opcode, Opcode.Kind.BRANCH, Opcode.Kind.TYPE, Opcode.Kind.ARRAY_TYPE, Opcode.Kind.CONSTANT);
+        return new Instruction(opcode, 0, 0, symbol, null, null);
+    }
+
+    public static Instruction iinc(int local, int increment) {
+        return new Instruction(Opcode.IINC, local, increment, null, null, null);
+    }
+
+    /**
+     * @return an instruction that accesses a field or invokes a method
+     */
+    public static Instruction member(Opcode opcode, String owner, String name, String descriptor) {
+        check(opcode, Opcode.Kind.FIELD, Opcode.Kind.METHOD);
+        return new Instruction(opcode, 0, 0, owner, name, descriptor);
+    }
+
+    private static void check(Opcode opcode, Opcode.Kind... kinds) {
+        for (var kind : kinds) {
+            if (opcode.getKind() == kind) {
+                return;
+            }
+        }
+
+        throw new RuntimeException("Opcode '" + opcode.getName() + "' does not take operands of this kind");
+    }
+
+    /**
+     * @return the label a branch jumps to
+     */
+    public String label() {
+        return symbol;
+    }
+
+    /**
+     * @return the local variable the instruction loads, stores or increments, or -1 if it does not use one
+     */
+    public int getLocal() {
+        var implicit = opcode.getImplicitLocal();
+        if (implicit >= 0) {
+            return implicit;
+        }
+
+        return switch (opcode.getKind()) {
+            case LOCAL, INCREMENT -> value;
+            default -> -1;
+        };
+    }
+
+    /**
+     * @return the number of stack slots the instruction pushes minus the number of slots it pops
+     */
+    public int getStackChange() {
+        return opcode.getStackChange(descriptor);
+    }
+}
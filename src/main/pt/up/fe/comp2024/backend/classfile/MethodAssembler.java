@@ -0,0 +1,808 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+/**
+ * Assembles the instructions of a single method into a method_info structure, with its Code and StackMapTable
+ * attributes.
+ * <p>
+ * The maximum stack size and the frames are computed by simulating the types of the locals and of the stack over the
+ * control flow graph of the method, as the verifier does, so the limits given by the generator are not needed. Code
+ * that is never reached is replaced by 'nop ... athrow', which is always verifiable, since the verifier still requires
+ * a frame for it.
+ */
+class MethodAssembler {
+
+    private static final int ACC_STATIC = 0x0008;
+    private static final String OBJECT = "java/lang/Object";
+    private static final String THROWABLE = "java/lang/Throwable";
+    private static final int MAX_CODE_LENGTH = 0xFFFF;
+
+    /**
+     * An instruction with its operand resolved to what is encoded, and its place in the code.
+     */
+    private static final class Entry {
+        private final Opcode opcode;
+        // Local variable, immediate value, constant pool index or array type
+        private int operand;
+        private int increment;
+        private String label;
+        // Class of TYPE instructions, owner of FIELD and METHOD instructions
+        private String owner;
+        private String name;
+        private String descriptor;
+        // Type pushed by ldc
+        private VerificationType constantType;
+
+        private int offset;
+        private int size;
+
+        private Entry(Opcode opcode) {
+            this.opcode = opcode;
+        }
+
+        private int getLocal() {
+            var local = opcode.getImplicitLocal();
+            return local >= 0 ? local : operand;
+        }
+    }
+
+    /**
+     * Types of the locals and of the stack before an instruction.
+     */
+    private static final class Frame {
+        private final VerificationType[] locals;
+        private VerificationType[] stack;
+        private int stackSize;
+
+        private Frame(int maxLocals) {
+            locals = new VerificationType[maxLocals];
+            Arrays.fill(locals, VerificationType.TOP);
+            stack = new VerificationType[4];
+        }
+
+        private Frame(Frame other) {
+            locals = other.locals.clone();
+            stack = other.stack.clone();
+            stackSize = other.stackSize;
+        }
+
+        private void push(VerificationType type) {
+            if (stackSize == stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[stackSize++] = type;
+        }
+
+        private VerificationType pop() {
+            if (stackSize == 0) {
+                throw new RuntimeException("Stack underflow");
+            }
+            return stack[--stackSize];
+        }
+
+        private void pop(int count) {
+            for (int i = 0; i < count; i++) {
+                pop();
+            }
+        }
+
+        private VerificationType peek() {
+            if (stackSize == 0) {
+                throw new RuntimeException("Stack underflow");
+            }
+            return stack[stackSize - 1];
+        }
+
+        private void replace(VerificationType from, VerificationType to) {
+            for (int i = 0; i < locals.length; i++) {
+                if (locals[i].equals(from)) {
+                    locals[i] = to;
+                }
+            }
+            for (int i = 0; i < stackSize; i++) {
+                if (stack[i].equals(from)) {
+                    stack[i] = to;
+                }
+            }
+        }
+
+        private List<VerificationType> getLocals() {
+            // Trailing unused locals can be omitted
+            int size = locals.length;
+            while (size > 0 && locals[size - 1].equals(VerificationType.TOP)) {
+                size--;
+            }
+            return Arrays.asList(locals).subList(0, size);
+        }
+
+        private List<VerificationType> getStack() {
+            return Arrays.asList(stack).subList(0, stackSize);
+        }
+    }
+
+    private final String className;
+    private final ConstantPool constantPool;
+    private final BinaryOperator<String> commonSuperClass;
+
+    private final int access;
+    private final String name;
+    private final String descriptor;
+
+    private final List<Entry> instructions = new ArrayList<>();
+    private final Map<String, Integer> labels = new HashMap<>();
+
+    /**
+     * @param commonSuperClass returns the closest common super class of two classes, to merge their types
+     */
+    MethodAssembler(String className, ConstantPool constantPool, BinaryOperator<String> commonSuperClass, int access,
+                    String name, String descriptor) {
+        this.className = className;
+        this.constantPool = constantPool;
+        this.commonSuperClass = commonSuperClass;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * Marks the next instruction with the label.
+     */
+    void label(String label) {
+        if (labels.putIfAbsent(label, instructions.size()) != null) {
+            throw new RuntimeException("Label '" + label + "' is defined more than once in method '" + name + "'");
+        }
+    }
+
+    /**
+     * Adds an instruction, adding the constants it refers to to the constant pool.
+     */
+    void instruction(Instruction source) {
+        var opcode = source.opcode();
+        var instruction = new Entry(opcode);
+
+        switch (opcode.getKind()) {
+            case NONE -> {
+            }
+            case LOCAL, BYTE, SHORT -> instruction.operand = source.value();
+            case INCREMENT -> {
+                instruction.operand = source.value();
+                instruction.increment = source.increment();
+            }
+            case CONSTANT -> {
+                if (source.symbol() != null) {
+                    instruction.operand = constantPool.string(source.symbol());
+                    instruction.constantType = VerificationType.object("java/lang/String");
+                } else {
+                    instruction.operand = constantPool.integer(source.value());
+                    instruction.constantType = VerificationType.INTEGER;
+                }
+            }
+            case BRANCH -> instruction.label = source.label();
+            case TYPE -> {
+                instruction.owner = source.symbol();
+                instruction.operand = constantPool.classRef(instruction.owner);
+            }
+            case FIELD, METHOD -> {
+                instruction.owner = source.symbol();
+                instruction.name = source.name();
+                instruction.descriptor = source.descriptor();
+                instruction.operand = opcode.getKind() == Opcode.Kind.FIELD ?
+                        constantPool.fieldRef(instruction.owner, instruction.name, instruction.descriptor) :
+                        constantPool.methodRef(instruction.owner, instruction.name, instruction.descriptor);
+            }
+            case ARRAY_TYPE -> instruction.operand = switch (source.symbol()) {
+                case "boolean" -> 4;
+                case "char" -> 5;
+                case "byte" -> 8;
+                case "short" -> 9;
+                case "int" -> 10;
+                default -> throw new RuntimeException("Unsupported array type '" + source.symbol() + "'");
+            };
+        }
+
+        instructions.add(instruction);
+    }
+
+    /**
+     * @return the method_info structure of the method
+     */
+    byte[] assemble() {
+        var codeLength = layout();
+
+        var targets = resolveTargets();
+        int maxLocals = getMaxLocals();
+
+        var entryFrames = new Frame[instructions.size()];
+        int maxStack = simulate(targets, maxLocals, entryFrames);
+
+        var reachable = getReachable(targets, entryFrames);
+        for (var isReachable : reachable) {
+            if (!isReachable) {
+                // Dead code is replaced by 'nop ... athrow', with a Throwable on the stack
+                maxStack = Math.max(maxStack, 1);
+                break;
+            }
+        }
+
+        var code = encode(codeLength, targets);
+        var frames = new ByteArrayOutputStream();
+        int frameCount = writeFrames(targets, entryFrames, reachable, maxLocals, code, frames);
+
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+
+            out.writeShort(access);
+            out.writeShort(constantPool.utf8(name));
+            out.writeShort(constantPool.utf8(descriptor));
+            out.writeShort(1);
+
+            // Code attribute
+            var stackMapLength = frameCount > 0 ? 2 + 4 + 2 + frames.size() : 0;
+            out.writeShort(constantPool.utf8("Code"));
+            out.writeInt(2 + 2 + 4 + code.length + 2 + 2 + stackMapLength);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+
+            if (frameCount > 0) {
+                out.writeShort(1);
+                out.writeShort(constantPool.utf8("StackMapTable"));
+                out.writeInt(2 + frames.size());
+                out.writeShort(frameCount);
+                frames.writeTo(out);
+            } else {
+                out.writeShort(0);
+            }
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Computes the size and offset of each instruction.
+     *
+     * @return the length of the code
+     */
+    private int layout() {
+        int offset = 0;
+
+        for (var instruction : instructions) {
+            instruction.offset = offset;
+            instruction.size = switch (instruction.opcode.getKind()) {
+                case NONE -> 1;
+                case LOCAL -> instruction.operand > 0xFF ? 4 : 2;
+                case BYTE, ARRAY_TYPE -> 2;
+                case CONSTANT -> instruction.operand > 0xFF ? 3 : 2;
+                case INCREMENT -> instruction.operand > 0xFF || instruction.increment < Byte.MIN_VALUE
+                        || instruction.increment > Byte.MAX_VALUE ? 6 : 3;
+                case SHORT, BRANCH, TYPE, FIELD, METHOD -> 3;
+            };
+            offset += instruction.size;
+        }
+
+        if (offset > MAX_CODE_LENGTH) {
+            throw new RuntimeException("Code of method '" + name + "' is too large (" + offset + " bytes)");
+        }
+
+        return offset;
+    }
+
+    /**
+     * @return the index of the instruction each branch jumps to, or -1 for other instructions
+     */
+    private int[] resolveTargets() {
+        var targets = new int[instructions.size()];
+
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            if (!instruction.opcode.isBranch()) {
+                targets[i] = -1;
+                continue;
+            }
+
+            var target = labels.get(instruction.label);
+            if (target == null) {
+                throw new RuntimeException("Label '" + instruction.label + "' is not defined in method '" + name + "'");
+            }
+            if (target == instructions.size()) {
+                throw new RuntimeException("Label '" + instruction.label + "' of method '" + name
+                        + "' is not followed by an instruction");
+            }
+            targets[i] = target;
+        }
+
+        return targets;
+    }
+
+    private int getMaxLocals() {
+        int maxLocals = getParamsSize();
+
+        for (var instruction : instructions) {
+            var opcode = instruction.opcode;
+            if (opcode.getKind() == Opcode.Kind.LOCAL || opcode.getKind() == Opcode.Kind.INCREMENT
+                    || opcode.getImplicitLocal() >= 0) {
+                maxLocals = Math.max(maxLocals, instruction.getLocal() + 1);
+            }
+        }
+
+        return maxLocals;
+    }
+
+    private int getParamsSize() {
+        return getParameterDescriptors(descriptor).size() + ((access & ACC_STATIC) != 0 ? 0 : 1);
+    }
+
+    private Frame getInitialFrame(int maxLocals) {
+        var frame = new Frame(maxLocals);
+
+        int local = 0;
+        if ((access & ACC_STATIC) == 0) {
+            frame.locals[local++] = name.equals("<init>") ?
+                    VerificationType.UNINITIALIZED_THIS : VerificationType.object(className);
+        }
+
+        for (var param : getParameterDescriptors(descriptor)) {
+            frame.locals[local++] = VerificationType.fromDescriptor(param);
+        }
+
+        return frame;
+    }
+
+    /**
+     * Computes the types before each instruction that starts a basic block, until they no longer change.
+     *
+     * @param entryFrames filled with the types before each reachable block, and null for the other instructions
+     * @return the maximum size of the stack
+     */
+    private int simulate(int[] targets, int maxLocals, Frame[] entryFrames) {
+        int count = instructions.size();
+        if (count == 0) {
+            throw new RuntimeException("Method '" + name + "' has no instructions");
+        }
+
+        var leaders = getLeaders(targets);
+        var pending = new ArrayDeque<Integer>();
+        var isPending = new boolean[count];
+
+        entryFrames[0] = getInitialFrame(maxLocals);
+        pending.add(0);
+        isPending[0] = true;
+
+        int maxStack = 0;
+        while (!pending.isEmpty()) {
+            int start = pending.poll();
+            isPending[start] = false;
+
+            var frame = new Frame(entryFrames[start]);
+            for (int i = start; ; i++) {
+                var instruction = instructions.get(i);
+                try {
+                    execute(instruction, frame);
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("Invalid '" + instruction.opcode.getName() + "' at offset "
+                            + instruction.offset + " of method '" + name + "': " + e.getMessage(), e);
+                }
+                maxStack = Math.max(maxStack, frame.stackSize);
+
+                if (targets[i] >= 0) {
+                    merge(targets[i], frame, entryFrames, pending, isPending);
+                }
+
+                if (instruction.opcode.isUnconditionalTransfer()) {
+                    break;
+                }
+
+                if (i + 1 == count) {
+                    throw new RuntimeException("Execution falls off the end of method '" + name + "'");
+                }
+
+                if (leaders[i + 1]) {
+                    merge(i + 1, frame, entryFrames, pending, isPending);
+                    break;
+                }
+            }
+        }
+
+        return maxStack;
+    }
+
+    private boolean[] getLeaders(int[] targets) {
+        var leaders = new boolean[instructions.size() + 1];
+        leaders[0] = true;
+
+        for (int i = 0; i < instructions.size(); i++) {
+            if (targets[i] >= 0) {
+                leaders[targets[i]] = true;
+                leaders[i + 1] = true;
+            }
+            if (instructions.get(i).opcode.isUnconditionalTransfer()) {
+                leaders[i + 1] = true;
+            }
+        }
+
+        return leaders;
+    }
+
+    private void merge(int target, Frame frame, Frame[] entryFrames, ArrayDeque<Integer> pending, boolean[] isPending) {
+        var current = entryFrames[target];
+
+        boolean changed;
+        if (current == null) {
+            entryFrames[target] = new Frame(frame);
+            changed = true;
+        } else {
+            if (current.stackSize != frame.stackSize) {
+                throw new RuntimeException("Inconsistent stack height at offset " + instructions.get(target).offset
+                        + " of method '" + name + "' (" + current.stackSize + " and " + frame.stackSize + ")");
+            }
+
+            changed = false;
+            for (int i = 0; i < current.locals.length; i++) {
+                var merged = mergeTypes(current.locals[i], frame.locals[i]);
+                if (!merged.equals(current.locals[i])) {
+                    current.locals[i] = merged;
+                    changed = true;
+                }
+            }
+            for (int i = 0; i < current.stackSize; i++) {
+                var merged = mergeTypes(current.stack[i], frame.stack[i]);
+                if (!merged.equals(current.stack[i])) {
+                    current.stack[i] = merged;
+                    changed = true;
+                }
+            }
+        }
+
+        if (changed && !isPending[target]) {
+            pending.add(target);
+            isPending[target] = true;
+        }
+    }
+
+    private VerificationType mergeTypes(VerificationType a, VerificationType b) {
+        if (a.equals(b)) {
+            return a;
+        }
+
+        if (a.equals(VerificationType.NULL) && b.isObject()) {
+            return b;
+        }
+        if (b.equals(VerificationType.NULL) && a.isObject()) {
+            return a;
+        }
+
+        if (a.isObject() && b.isObject()) {
+            if (a.className().startsWith("[") || b.className().startsWith("[")) {
+                return VerificationType.object(OBJECT);
+            }
+            return VerificationType.object(commonSuperClass.apply(a.className(), b.className()));
+        }
+
+        return VerificationType.TOP;
+    }
+
+    private void execute(Entry instruction, Frame frame) {
+        var opcode = instruction.opcode;
+
+        switch (opcode) {
+            case NOP, IINC, GOTO, RETURN -> {
+            }
+            case ACONST_NULL -> frame.push(VerificationType.NULL);
+            case ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5, BIPUSH, SIPUSH,
+                    ILOAD, ILOAD_0, ILOAD_1, ILOAD_2, ILOAD_3 -> frame.push(VerificationType.INTEGER);
+            case LDC -> frame.push(instruction.constantType);
+            case ALOAD, ALOAD_0, ALOAD_1, ALOAD_2, ALOAD_3 -> frame.push(frame.locals[instruction.getLocal()]);
+            case ISTORE, ISTORE_0, ISTORE_1, ISTORE_2, ISTORE_3 -> {
+                frame.pop();
+                frame.locals[instruction.getLocal()] = VerificationType.INTEGER;
+            }
+            case ASTORE, ASTORE_0, ASTORE_1, ASTORE_2, ASTORE_3 ->
+                    frame.locals[instruction.getLocal()] = frame.pop();
+            case IALOAD, BALOAD -> {
+                frame.pop(2);
+                frame.push(VerificationType.INTEGER);
+            }
+            case AALOAD -> {
+                frame.pop();
+                var array = frame.pop();
+                frame.push(array.isObject() && array.className().startsWith("[") ?
+                        VerificationType.fromDescriptor(array.className().substring(1)) : VerificationType.NULL);
+            }
+            case IASTORE, AASTORE, BASTORE -> frame.pop(3);
+            case POP, IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE, IFNULL, IFNONNULL, IRETURN, ARETURN, ATHROW, PUTSTATIC ->
+                    frame.pop();
+            case IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE, PUTFIELD ->
+                    frame.pop(2);
+            case DUP -> frame.push(frame.peek());
+            case DUP_X1 -> {
+                var first = frame.pop();
+                var second = frame.pop();
+                frame.push(first);
+                frame.push(second);
+                frame.push(first);
+            }
+            case SWAP -> {
+                var first = frame.pop();
+                var second = frame.pop();
+                frame.push(first);
+                frame.push(second);
+            }
+            case IADD, ISUB, IMUL, IDIV, IREM, ISHL, ISHR, IUSHR, IAND, IOR, IXOR -> {
+                frame.pop(2);
+                frame.push(VerificationType.INTEGER);
+            }
+            case INEG, ARRAYLENGTH, INSTANCEOF -> {
+                frame.pop();
+                frame.push(VerificationType.INTEGER);
+            }
+            case GETSTATIC -> frame.push(VerificationType.fromDescriptor(instruction.descriptor));
+            case GETFIELD -> {
+                frame.pop();
+                frame.push(VerificationType.fromDescriptor(instruction.descriptor));
+            }
+            case INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC -> {
+                frame.pop(getParameterDescriptors(instruction.descriptor).size());
+
+                if (opcode != Opcode.INVOKESTATIC) {
+                    var receiver = frame.pop();
+                    if (opcode == Opcode.INVOKESPECIAL && instruction.name.equals("<init>") && receiver.isUninitialized()) {
+                        var initialized = receiver.equals(VerificationType.UNINITIALIZED_THIS) ?
+                                VerificationType.object(className) : VerificationType.object(instruction.owner);
+                        frame.replace(receiver, initialized);
+                    }
+                }
+
+                var returnType = VerificationType.fromDescriptor(
+                        instruction.descriptor.substring(instruction.descriptor.indexOf(')') + 1));
+                if (returnType != null) {
+                    frame.push(returnType);
+                }
+            }
+            case NEW -> frame.push(VerificationType.uninitialized(instruction.offset));
+            case NEWARRAY -> {
+                frame.pop();
+                var elementType = switch (instruction.operand) {
+                    case 4 -> "Z";
+                    case 5 -> "C";
+                    case 8 -> "B";
+                    case 9 -> "S";
+                    default -> "I";
+                };
+                frame.push(VerificationType.object("[" + elementType));
+            }
+            case ANEWARRAY -> {
+                frame.pop();
+                var elementType = instruction.owner.startsWith("[") ? instruction.owner : "L" + instruction.owner + ";";
+                frame.push(VerificationType.object("[" + elementType));
+            }
+            case CHECKCAST -> {
+                frame.pop();
+                frame.push(VerificationType.object(instruction.owner));
+            }
+        }
+    }
+
+    private byte[] encode(int codeLength, int[] targets) {
+        var bytes = new ByteArrayOutputStream(codeLength);
+        var out = new DataOutputStream(bytes);
+
+        try {
+            for (int i = 0; i < instructions.size(); i++) {
+                var instruction = instructions.get(i);
+                var opcode = instruction.opcode;
+
+                switch (opcode.getKind()) {
+                    case NONE -> out.writeByte(opcode.getCode());
+                    case LOCAL -> {
+                        if (instruction.size == 4) {
+                            out.writeByte(Opcode.WIDE);
+                            out.writeByte(opcode.getCode());
+                            out.writeShort(instruction.operand);
+                        } else {
+                            out.writeByte(opcode.getCode());
+                            out.writeByte(instruction.operand);
+                        }
+                    }
+                    case BYTE, ARRAY_TYPE -> {
+                        out.writeByte(opcode.getCode());
+                        out.writeByte(instruction.operand);
+                    }
+                    case SHORT, TYPE, FIELD, METHOD -> {
+                        out.writeByte(opcode.getCode());
+                        out.writeShort(instruction.operand);
+                    }
+                    case CONSTANT -> {
+                        if (instruction.size == 3) {
+                            out.writeByte(Opcode.LDC_W);
+                            out.writeShort(instruction.operand);
+                        } else {
+                            out.writeByte(opcode.getCode());
+                            out.writeByte(instruction.operand);
+                        }
+                    }
+                    case INCREMENT -> {
+                        if (instruction.size == 6) {
+                            out.writeByte(Opcode.WIDE);
+                            out.writeByte(opcode.getCode());
+                            out.writeShort(instruction.operand);
+                            out.writeShort(instruction.increment);
+                        } else {
+                            out.writeByte(opcode.getCode());
+                            out.writeByte(instruction.operand);
+                            out.writeByte(instruction.increment);
+                        }
+                    }
+                    case BRANCH -> {
+                        var jump = instructions.get(targets[i]).offset - instruction.offset;
+                        if (jump < Short.MIN_VALUE || jump > Short.MAX_VALUE) {
+                            throw new RuntimeException("Jump to label '" + instruction.label + "' of method '" + name
+                                    + "' is too far (" + jump + " bytes)");
+                        }
+                        out.writeByte(opcode.getCode());
+                        out.writeShort(jump);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the entries of the StackMapTable: a frame at each branch target and after each unconditional jump, and a
+     * frame at the start of each run of dead code, which is replaced in the code by 'nop ... athrow'.
+     *
+     * @return the number of frames written
+     */
+    private int writeFrames(int[] targets, Frame[] entryFrames, boolean[] reachable, int maxLocals, byte[] code,
+                            ByteArrayOutputStream bytes) {
+        var isTarget = new boolean[instructions.size()];
+        for (var target : targets) {
+            if (target >= 0) {
+                isTarget[target] = true;
+            }
+        }
+
+        var out = new DataOutputStream(bytes);
+        var previousLocals = getInitialFrame(maxLocals).getLocals();
+        int previousOffset = -1;
+        int count = 0;
+
+        try {
+            for (int i = 0; i < instructions.size(); i++) {
+                var instruction = instructions.get(i);
+
+                List<VerificationType> locals;
+                List<VerificationType> stack;
+                if (!reachable[i]) {
+                    if (i > 0 && !reachable[i - 1]) {
+                        continue;
+                    }
+
+                    // Start of dead code: replace it, up to the next reachable instruction, by 'nop ... athrow'
+                    int end = i;
+                    while (end < instructions.size() && !reachable[end]) {
+                        end++;
+                    }
+                    var endOffset = end < instructions.size() ? instructions.get(end).offset : code.length;
+                    Arrays.fill(code, instruction.offset, endOffset - 1, (byte) Opcode.NOP.getCode());
+                    code[endOffset - 1] = (byte) Opcode.ATHROW.getCode();
+
+                    locals = List.of();
+                    stack = List.of(VerificationType.object(THROWABLE));
+                } else if (isTarget[i] || (i > 0 && (!reachable[i - 1]
+                        || instructions.get(i - 1).opcode.isUnconditionalTransfer()))) {
+                    locals = entryFrames[i].getLocals();
+                    stack = entryFrames[i].getStack();
+                } else {
+                    continue;
+                }
+
+                var delta = instruction.offset - previousOffset - 1;
+                if (stack.isEmpty() && locals.equals(previousLocals)) {
+                    if (delta < 64) {
+                        out.writeByte(delta);
+                    } else {
+                        out.writeByte(251);
+                        out.writeShort(delta);
+                    }
+                } else if (stack.size() == 1 && locals.equals(previousLocals)) {
+                    if (delta < 64) {
+                        out.writeByte(64 + delta);
+                    } else {
+                        out.writeByte(247);
+                        out.writeShort(delta);
+                    }
+                    writeType(stack.get(0), out);
+                } else {
+                    out.writeByte(255);
+                    out.writeShort(delta);
+                    out.writeShort(locals.size());
+                    for (var type : locals) {
+                        writeType(type, out);
+                    }
+                    out.writeShort(stack.size());
+                    for (var type : stack) {
+                        writeType(type, out);
+                    }
+                }
+
+                previousLocals = locals;
+                previousOffset = instruction.offset;
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return count;
+    }
+
+    /**
+     * @return for each instruction, true if it is in a block whose types were computed
+     */
+    private boolean[] getReachable(int[] targets, Frame[] entryFrames) {
+        var leaders = getLeaders(targets);
+        var reachable = new boolean[instructions.size()];
+
+        boolean current = false;
+        for (int i = 0; i < instructions.size(); i++) {
+            if (leaders[i]) {
+                current = entryFrames[i] != null;
+            }
+            reachable[i] = current;
+        }
+
+        return reachable;
+    }
+
+    private void writeType(VerificationType type, DataOutputStream out) throws IOException {
+        out.writeByte(type.tag());
+
+        if (type.isObject()) {
+            out.writeShort(constantPool.classRef(type.className()));
+        } else if (type.tag() == VerificationType.UNINITIALIZED_TAG) {
+            out.writeShort(type.offset());
+        }
+    }
+
+    /**
+     * @return the descriptor of each parameter of the method descriptor
+     */
+    private static List<String> getParameterDescriptors(String methodDescriptor) {
+        var params = new ArrayList<String>();
+
+        int i = 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            int start = i;
+            while (methodDescriptor.charAt(i) == '[') {
+                i++;
+            }
+            if (methodDescriptor.charAt(i) == 'L') {
+                i = methodDescriptor.indexOf(';', i);
+            }
+            i++;
+            params.add(methodDescriptor.substring(start, i));
+        }
+
+        return params;
+    }
+}
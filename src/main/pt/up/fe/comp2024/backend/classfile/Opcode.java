@@ -0,0 +1,275 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * JVM opcodes understood by the class file assembler, named as in Jasmin.
+ */
+public enum Opcode {
+
+    NOP(0x00, Kind.NONE),
+    ACONST_NULL(0x01, Kind.NONE),
+    ICONST_M1(0x02, Kind.NONE),
+    ICONST_0(0x03, Kind.NONE),
+    ICONST_1(0x04, Kind.NONE),
+    ICONST_2(0x05, Kind.NONE),
+    ICONST_3(0x06, Kind.NONE),
+    ICONST_4(0x07, Kind.NONE),
+    ICONST_5(0x08, Kind.NONE),
+    BIPUSH(0x10, Kind.BYTE),
+    SIPUSH(0x11, Kind.SHORT),
+    LDC(0x12, Kind.CONSTANT),
+    ILOAD(0x15, Kind.LOCAL),
+    ALOAD(0x19, Kind.LOCAL),
+    ILOAD_0(0x1a, 0),
+    ILOAD_1(0x1b, 1),
+    ILOAD_2(0x1c, 2),
+    ILOAD_3(0x1d, 3),
+    ALOAD_0(0x2a, 0),
+    ALOAD_1(0x2b, 1),
+    ALOAD_2(0x2c, 2),
+    ALOAD_3(0x2d, 3),
+    IALOAD(0x2e, Kind.NONE),
+    AALOAD(0x32, Kind.NONE),
+    BALOAD(0x33, Kind.NONE),
+    ISTORE(0x36, Kind.LOCAL),
+    ASTORE(0x3a, Kind.LOCAL),
+    ISTORE_0(0x3b, 0),
+    ISTORE_1(0x3c, 1),
+    ISTORE_2(0x3d, 2),
+    ISTORE_3(0x3e, 3),
+    ASTORE_0(0x4b, 0),
+    ASTORE_1(0x4c, 1),
+    ASTORE_2(0x4d, 2),
+    ASTORE_3(0x4e, 3),
+    IASTORE(0x4f, Kind.NONE),
+    AASTORE(0x53, Kind.NONE),
+    BASTORE(0x54, Kind.NONE),
+    POP(0x57, Kind.NONE),
+    DUP(0x59, Kind.NONE),
+    DUP_X1(0x5a, Kind.NONE),
+    SWAP(0x5f, Kind.NONE),
+    IADD(0x60, Kind.NONE),
+    ISUB(0x64, Kind.NONE),
+    IMUL(0x68, Kind.NONE),
+    IDIV(0x6c, Kind.NONE),
+    IREM(0x70, Kind.NONE),
+    INEG(0x74, Kind.NONE),
+    ISHL(0x78, Kind.NONE),
+    ISHR(0x7a, Kind.NONE),
+    IUSHR(0x7c, Kind.NONE),
+    IAND(0x7e, Kind.NONE),
+    IOR(0x80, Kind.NONE),
+    IXOR(0x82, Kind.NONE),
+    IINC(0x84, Kind.INCREMENT),
+    IFEQ(0x99, Kind.BRANCH),
+    IFNE(0x9a, Kind.BRANCH),
+    IFLT(0x9b, Kind.BRANCH),
+    IFGE(0x9c, Kind.BRANCH),
+    IFGT(0x9d, Kind.BRANCH),
+    IFLE(0x9e, Kind.BRANCH),
+    IF_ICMPEQ(0x9f, Kind.BRANCH),
+    IF_ICMPNE(0xa0, Kind.BRANCH),
+    IF_ICMPLT(0xa1, Kind.BRANCH),
+    IF_ICMPGE(0xa2, Kind.BRANCH),
+    IF_ICMPGT(0xa3, Kind.BRANCH),
+    IF_ICMPLE(0xa4, Kind.BRANCH),
+    IF_ACMPEQ(0xa5, Kind.BRANCH),
+    IF_ACMPNE(0xa6, Kind.BRANCH),
+    GOTO(0xa7, Kind.BRANCH),
+    IRETURN(0xac, Kind.NONE),
+    ARETURN(0xb0, Kind.NONE),
+    RETURN(0xb1, Kind.NONE),
+    GETSTATIC(0xb2, Kind.FIELD),
+    PUTSTATIC(0xb3, Kind.FIELD),
+    GETFIELD(0xb4, Kind.FIELD),
+    PUTFIELD(0xb5, Kind.FIELD),
+    INVOKEVIRTUAL(0xb6, Kind.METHOD),
+    INVOKESPECIAL(0xb7, Kind.METHOD),
+    INVOKESTATIC(0xb8, Kind.METHOD),
+    NEW(0xbb, Kind.TYPE),
+    NEWARRAY(0xbc, Kind.ARRAY_TYPE),
+    ANEWARRAY(0xbd, Kind.TYPE),
+    ARRAYLENGTH(0xbe, Kind.NONE),
+    ATHROW(0xbf, Kind.NONE),
+    CHECKCAST(0xc0, Kind.TYPE),
+    INSTANCEOF(0xc1, Kind.TYPE),
+    IFNULL(0xc6, Kind.BRANCH),
+    IFNONNULL(0xc7, Kind.BRANCH);
+
+    /**
+     * The operand of an instruction, which determines the fields of its {@link Instruction} and how it is encoded.
+     */
+    public enum Kind {
+        NONE,
+        // Index of a local variable
+        LOCAL,
+        // Signed byte or short immediate value
+        BYTE,
+        SHORT,
+        // Integer or string constant
+        CONSTANT,
+        // Local variable and signed increment
+        INCREMENT,
+        // Label
+        BRANCH,
+        // Class name
+        TYPE,
+        // Owner/name descriptor
+        FIELD,
+        // Owner/name(descriptor)
+        METHOD,
+        // Primitive type name
+        ARRAY_TYPE
+    }
+
+    public static final int WIDE = 0xc4;
+    public static final int LDC_W = 0x13;
+
+    private static final Map<String, Opcode> BY_NAME = new HashMap<>();
+
+    static {
+        for (var opcode : values()) {
+            BY_NAME.put(opcode.getName(), opcode);
+        }
+    }
+
+    private final int code;
+    private final Kind kind;
+    private final int local;
+
+    Opcode(int code, Kind kind) {
+        this.code = code;
+        this.kind = kind;
+        this.local = -1;
+    }
+
+    /**
+     * Short form of a load or store, with the local variable in the opcode.
+     */
+    Opcode(int code, int local) {
+        this.code = code;
+        this.kind = Kind.NONE;
+        this.local = local;
+    }
+
+    /**
+     * @return the opcode with the given Jasmin name, or null if it is not supported
+     */
+    public static Opcode fromName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the local variable of the short forms of loads and stores (e.g. 1 for iload_1), or -1 for other opcodes
+     */
+    public int getImplicitLocal() {
+        return local;
+    }
+
+    public boolean isBranch() {
+        return kind == Kind.BRANCH;
+    }
+
+    /**
+     * @param descriptor the descriptor of the field or method, for FIELD and METHOD instructions
+     * @return the number of stack slots the instruction pushes minus the number of slots it pops
+     */
+    public int getStackChange(String descriptor) {
+        return switch (this) {
+            case NOP, IINC, GOTO, RETURN, SWAP, INEG, ARRAYLENGTH, INSTANCEOF, CHECKCAST, NEWARRAY, ANEWARRAY -> 0;
+            case ACONST_NULL, ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5, BIPUSH, SIPUSH,
+                    LDC, ILOAD, ALOAD, ILOAD_0, ILOAD_1, ILOAD_2, ILOAD_3, ALOAD_0, ALOAD_1, ALOAD_2, ALOAD_3, DUP,
+                    DUP_X1, NEW -> 1;
+            case ISTORE, ASTORE, ISTORE_0, ISTORE_1, ISTORE_2, ISTORE_3, ASTORE_0, ASTORE_1, ASTORE_2, ASTORE_3,
+                    IALOAD, AALOAD, BALOAD, POP, IADD, ISUB, IMUL, IDIV, IREM, ISHL, ISHR, IUSHR, IAND, IOR, IXOR,
+                    IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE, IFNULL, IFNONNULL, IRETURN, ARETURN, ATHROW -> -1;
+            case IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE -> -2;
+            case IASTORE, AASTORE, BASTORE -> -3;
+            case GETSTATIC -> getSlots(descriptor);
+            case PUTSTATIC -> -getSlots(descriptor);
+            case GETFIELD -> getSlots(descriptor) - 1;
+            case PUTFIELD -> -getSlots(descriptor) - 1;
+            case INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC -> {
+                var returnType = descriptor.substring(descriptor.indexOf(')') + 1);
+                var change = (returnType.equals("V") ? 0 : getSlots(returnType)) - getParamsSlots(descriptor);
+                yield this == INVOKESTATIC ? change : change - 1;
+            }
+        };
+    }
+
+    /**
+     * @return the number of stack slots taken by a value with the given field descriptor
+     */
+    private static int getSlots(String descriptor) {
+        return descriptor.equals("J") || descriptor.equals("D") ? 2 : 1;
+    }
+
+    private static int getParamsSlots(String methodDescriptor) {
+        int slots = 0;
+
+        int i = 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            var isArray = methodDescriptor.charAt(i) == '[';
+            while (methodDescriptor.charAt(i) == '[') {
+                i++;
+            }
+            var type = methodDescriptor.charAt(i);
+            if (type == 'L') {
+                i = methodDescriptor.indexOf(';', i);
+            }
+            i++;
+            slots += !isArray && (type == 'J' || type == 'D') ? 2 : 1;
+        }
+
+        return slots;
+    }
+
+    public boolean isLoad() {
+        return switch (this) {
+            case ILOAD, ILOAD_0, ILOAD_1, ILOAD_2, ILOAD_3, ALOAD, ALOAD_0, ALOAD_1, ALOAD_2, ALOAD_3 -> true;
+            default -> false;
+        };
+    }
+
+    public boolean isStore() {
+        return switch (this) {
+            case ISTORE, ISTORE_0, ISTORE_1, ISTORE_2, ISTORE_3, ASTORE, ASTORE_0, ASTORE_1, ASTORE_2, ASTORE_3 -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return true for the loads and stores of int locals, false for the ones of references and for other opcodes
+     */
+    public boolean isIntLocal() {
+        return switch (this) {
+            case ILOAD, ILOAD_0, ILOAD_1, ILOAD_2, ILOAD_3, ISTORE, ISTORE_0, ISTORE_1, ISTORE_2, ISTORE_3 -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return true if the next instruction is never executed after this one
+     */
+    public boolean isUnconditionalTransfer() {
+        return switch (this) {
+            case GOTO, IRETURN, ARETURN, RETURN, ATHROW -> true;
+            default -> false;
+        };
+    }
+}
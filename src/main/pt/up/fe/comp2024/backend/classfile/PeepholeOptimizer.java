@@ -0,0 +1,567 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.backend.classfile.CodeItem.Label;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites short sequences of the instructions of a method into cheaper ones, following a table of rules.
+ * <p>
+ * The code of the method is the list of labels and instructions built by the generator, and every enabled rule is
+ * tried at every position of the list, until no rule changes it. Labels that no instruction jumps to are removed as
+ * well, since they would stop rules from matching. The number of times each rule was applied is kept, over every
+ * method optimized by the same instance.
+ * <p>
+ * The position of each label and the liveness of the local variables are computed at most once per pass over the
+ * list, and only adjusted where a rule rewrites it, instead of being computed again after every rewrite.
+ */
+public class PeepholeOptimizer {
+
+    public enum Rule {
+        // isub + ifXX, iconst_0 + if_icmpXX, booleans computed only to be tested, and tests of negated booleans
+        COMPARE_BRANCH("compare-branch", PeepholeOptimizer::fuseCompareBranch),
+        // Storing a value in a local variable and loading it back, when the variable is not read afterwards
+        STORE_LOAD("store-load", PeepholeOptimizer::elideStoreLoad),
+        // Jumps to jumps, jumps to the next instruction, branches over a goto and code after a jump
+        JUMP_THREADING("jump-threading", PeepholeOptimizer::threadJumps),
+        // Adding a constant to a local variable
+        IINC("iinc", PeepholeOptimizer::widenIinc);
+
+        private final String name;
+        private final Rewrite rewrite;
+
+        Rule(String name, Rewrite rewrite) {
+            this.name = name;
+            this.rewrite = rewrite;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static Rule fromName(String name) {
+            for (var rule : values()) {
+                if (rule.name.equals(name)) {
+                    return rule;
+                }
+            }
+
+            throw new RuntimeException("Unknown peephole rule '" + name + "', expected one of "
+                    + Arrays.stream(values()).map(Rule::getName).toList());
+        }
+    }
+
+    /**
+     * Tries to rewrite the code starting at the given index, returning true if it changed the code.
+     */
+    private interface Rewrite {
+        boolean apply(PeepholeOptimizer optimizer, int index);
+    }
+
+    private static final Map<Opcode, Opcode> NEGATED_BRANCHES = new EnumMap<>(Opcode.class);
+    // Comparison of two values by the branch that compares their difference with 0, and the other way around
+    private static final Map<Opcode, Opcode> COMPARE_BRANCHES = new EnumMap<>(Opcode.class);
+    private static final Map<Opcode, Opcode> ZERO_BRANCHES = new EnumMap<>(Opcode.class);
+
+    static {
+        var negated = List.of(Opcode.IFEQ, Opcode.IFNE, Opcode.IFLT, Opcode.IFGE, Opcode.IFGT, Opcode.IFLE,
+                Opcode.IF_ICMPEQ, Opcode.IF_ICMPNE, Opcode.IF_ICMPLT, Opcode.IF_ICMPGE, Opcode.IF_ICMPGT,
+                Opcode.IF_ICMPLE, Opcode.IF_ACMPEQ, Opcode.IF_ACMPNE, Opcode.IFNULL, Opcode.IFNONNULL);
+        for (int i = 0; i < negated.size(); i += 2) {
+            NEGATED_BRANCHES.put(negated.get(i), negated.get(i + 1));
+            NEGATED_BRANCHES.put(negated.get(i + 1), negated.get(i));
+        }
+
+        var zero = List.of(Opcode.IFEQ, Opcode.IFNE, Opcode.IFLT, Opcode.IFGE, Opcode.IFGT, Opcode.IFLE);
+        var compare = List.of(Opcode.IF_ICMPEQ, Opcode.IF_ICMPNE, Opcode.IF_ICMPLT, Opcode.IF_ICMPGE,
+                Opcode.IF_ICMPGT, Opcode.IF_ICMPLE);
+        for (int i = 0; i < zero.size(); i++) {
+            COMPARE_BRANCHES.put(zero.get(i), compare.get(i));
+            ZERO_BRANCHES.put(compare.get(i), zero.get(i));
+        }
+    }
+
+    private final Set<Rule> rules;
+    private final Map<Rule, Integer> stats = new EnumMap<>(Rule.class);
+
+    // The method being optimized
+    private List<CodeItem> code;
+    private Set<Instruction> comparisons;
+    private Map<String, Integer> labelUses;
+    private Map<String, Integer> labelIndexes;
+    // The variables that may be read after each item, or null for the instructions added by the current pass
+    private List<BitSet> liveOut;
+
+    public PeepholeOptimizer(Set<Rule> rules) {
+        this.rules = rules.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(rules);
+
+        for (var rule : Rule.values()) {
+            stats.put(rule, 0);
+        }
+    }
+
+    /**
+     * @return the rules given with '-e=&lt;rule&gt;,...' ('-e' alone enables them all, '-e=none' disables them), or
+     * every rule if the code is optimized with '-o' and none otherwise
+     */
+    public static Set<Rule> getRules(Map<String, String> config) {
+        var names = CompilerConfig.getPeephole(config);
+
+        if (names.isEmpty()) {
+            return CompilerConfig.getOptimize(config) ? EnumSet.allOf(Rule.class) : EnumSet.noneOf(Rule.class);
+        }
+
+        return switch (names.get()) {
+            case "true", "all" -> EnumSet.allOf(Rule.class);
+            case "none" -> EnumSet.noneOf(Rule.class);
+            default -> Arrays.stream(names.get().split(","))
+                    .map(String::strip)
+                    .filter(name -> !name.isEmpty())
+                    .map(Rule::fromName)
+                    .collect(Collectors.toCollection(() -> EnumSet.noneOf(Rule.class)));
+        };
+    }
+
+    public boolean isEnabled() {
+        return !rules.isEmpty();
+    }
+
+    /**
+     * @return how many times each rule was applied
+     */
+    public Map<Rule, Integer> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Adds the applications counted by another optimizer, e.g. one that optimized other methods in parallel.
+     */
+    public void addStats(PeepholeOptimizer other) {
+        other.stats.forEach((rule, count) -> stats.merge(rule, count, Integer::sum));
+    }
+
+    /**
+     * @param methodCode the labels and instructions of a method, which are not modified
+     * @return the optimized code
+     */
+    public List<CodeItem> optimize(List<CodeItem> methodCode) {
+        code = new ArrayList<>(methodCode);
+        comparisons = Collections.newSetFromMap(new IdentityHashMap<>());
+        labelUses = new HashMap<>();
+        for (var item : code) {
+            countLabelUse(item, 1);
+        }
+
+        // The generator compares two values by testing their difference
+        for (int i = 1; i < code.size(); i++) {
+            if (code.get(i) instanceof Instruction branch && COMPARE_BRANCHES.containsKey(branch.opcode())
+                    && code.get(i - 1) instanceof Instruction subtraction && subtraction.opcode() == Opcode.ISUB) {
+                comparisons.add(subtraction);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            indexLabels();
+            liveOut = null;
+
+            for (int i = 0; i < code.size(); i++) {
+                for (var rule : rules) {
+                    if (i < code.size() && rule.rewrite.apply(this, i)) {
+                        stats.merge(rule, 1, Integer::sum);
+                        changed = true;
+                    }
+                }
+            }
+
+            changed |= removeUnusedLabels();
+        }
+
+        var optimized = code;
+        code = null;
+        comparisons = null;
+        labelUses = null;
+        labelIndexes = null;
+        liveOut = null;
+        return optimized;
+    }
+
+    // Rules
+
+    private boolean fuseCompareBranch(int index) {
+        var first = instructionAt(index);
+        var second = instructionAt(index + 1);
+        var third = instructionAt(index + 2);
+
+        if (first != null && second != null) {
+            // The difference of the values can overflow, so only the subtractions of the generator are comparisons
+            if (comparisons.contains(first) && COMPARE_BRANCHES.containsKey(second.opcode())) {
+                replace(index, 2, Instruction.of(COMPARE_BRANCHES.get(second.opcode()), second.label()));
+                return true;
+            }
+
+            if (first.opcode() == Opcode.ICONST_0 && ZERO_BRANCHES.containsKey(second.opcode())) {
+                replace(index, 2, Instruction.of(ZERO_BRANCHES.get(second.opcode()), second.label()));
+                return true;
+            }
+
+            // !b is true if b is false
+            if (first.opcode() == Opcode.ICONST_1 && second.opcode() == Opcode.IXOR && third != null
+                    && (third.opcode() == Opcode.IFEQ || third.opcode() == Opcode.IFNE)) {
+                replace(index, 3, Instruction.of(NEGATED_BRANCHES.get(third.opcode()), third.label()));
+                return true;
+            }
+        }
+
+        return fuseBooleanTest(index);
+    }
+
+    /**
+     * A boolean pushed by 'ifXX T; iconst_0; goto E; T: iconst_1; E:' and then tested by 'ifne L' (or 'ifeq L') is a
+     * jump to L by 'ifXX' itself (or by its negation).
+     */
+    private boolean fuseBooleanTest(int index) {
+        var branch = instructionAt(index);
+        if (branch == null || !NEGATED_BRANCHES.containsKey(branch.opcode()) || index + 6 >= code.size()) {
+            return false;
+        }
+
+        var falseValue = instructionAt(index + 1);
+        var jump = instructionAt(index + 2);
+        var trueValue = instructionAt(index + 4);
+        var test = instructionAt(index + 6);
+        if (falseValue == null || falseValue.opcode() != Opcode.ICONST_0
+                || jump == null || jump.opcode() != Opcode.GOTO
+                || !(code.get(index + 3) instanceof Label trueLabel) || !trueLabel.name().equals(branch.label())
+                || trueValue == null || trueValue.opcode() != Opcode.ICONST_1
+                || !(code.get(index + 5) instanceof Label endLabel) || !endLabel.name().equals(jump.label())
+                || test == null || (test.opcode() != Opcode.IFNE && test.opcode() != Opcode.IFEQ)
+                || getLabelUses(trueLabel.name()) != 1 || getLabelUses(endLabel.name()) != 1) {
+            return false;
+        }
+
+        var opcode = test.opcode() == Opcode.IFNE ? branch.opcode() : NEGATED_BRANCHES.get(branch.opcode());
+        replace(index, 7, Instruction.of(opcode, test.label()));
+        return true;
+    }
+
+    private boolean elideStoreLoad(int index) {
+        var first = instructionAt(index);
+        var second = instructionAt(index + 1);
+        if (first == null || second == null) {
+            return false;
+        }
+
+        var local = first.getLocal();
+        if (local < 0 || local != second.getLocal() || first.opcode().isIntLocal() != second.opcode().isIntLocal()) {
+            return false;
+        }
+
+        // Loading a variable and storing it back does nothing
+        if (first.opcode().isLoad() && second.opcode().isStore()) {
+            replace(index, 2);
+            return true;
+        }
+
+        // The value is already on the stack, and the variable is not read again
+        if (first.opcode().isStore() && second.opcode().isLoad() && !isLiveAfter(index + 1, local)) {
+            replace(index, 2);
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean threadJumps(int index) {
+        var instruction = instructionAt(index);
+        if (instruction == null) {
+            return false;
+        }
+
+        // Code after a jump that is not labeled is never executed
+        var next = instructionAt(index + 1);
+        if (instruction.opcode().isUnconditionalTransfer() && next != null) {
+            replace(index + 1, 1);
+            return true;
+        }
+
+        if (!instruction.opcode().isBranch()) {
+            return false;
+        }
+
+        if (instruction.opcode() == Opcode.GOTO && isLabelBefore(instruction.label(), index + 1)) {
+            replace(index, 1);
+            return true;
+        }
+
+        // ifXX L1; goto L2; L1: is ifNotXX L2; L1:
+        if (next != null && next.opcode() == Opcode.GOTO && NEGATED_BRANCHES.containsKey(instruction.opcode())
+                && isLabelBefore(instruction.label(), index + 2)) {
+            replace(index, 2, Instruction.of(NEGATED_BRANCHES.get(instruction.opcode()), next.label()));
+            return true;
+        }
+
+        var target = getFinalTarget(instruction.label());
+        if (!target.equals(instruction.label())) {
+            replace(index, 1, Instruction.of(instruction.opcode(), target));
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean widenIinc(int index) {
+        if (index + 3 >= code.size()) {
+            return false;
+        }
+
+        var first = instructionAt(index);
+        var second = instructionAt(index + 1);
+        var operation = instructionAt(index + 2);
+        var store = instructionAt(index + 3);
+        if (first == null || second == null || operation == null || store == null
+                || !store.opcode().isStore() || !store.opcode().isIntLocal()) {
+            return false;
+        }
+
+        // iload n; push k; iadd/isub; istore n, or push k; iload n; iadd; istore n
+        Instruction load;
+        Integer increment;
+        if ((operation.opcode() == Opcode.IADD || operation.opcode() == Opcode.ISUB) && first.opcode().isLoad()
+                && getConstant(second) != null) {
+            load = first;
+            increment = operation.opcode() == Opcode.IADD ? getConstant(second) : -getConstant(second);
+        } else if (operation.opcode() == Opcode.IADD && getConstant(first) != null && second.opcode().isLoad()) {
+            load = second;
+            increment = getConstant(first);
+        } else {
+            return false;
+        }
+
+        if (!load.opcode().isIntLocal() || load.getLocal() != store.getLocal()
+                || increment < Short.MIN_VALUE || increment > Short.MAX_VALUE) {
+            return false;
+        }
+
+        replace(index, 4, Instruction.iinc(store.getLocal(), increment));
+        return true;
+    }
+
+    // Helpers
+
+    private Instruction instructionAt(int index) {
+        return index < code.size() && code.get(index) instanceof Instruction instruction ? instruction : null;
+    }
+
+    /**
+     * Replaces the given number of items at the index, keeping the labels and liveness of the rest of the code.
+     */
+    private void replace(int index, int count, Instruction... instructions) {
+        var removed = code.subList(index, index + count);
+        for (var item : removed) {
+            countLabelUse(item, -1);
+            if (item instanceof Label label) {
+                labelIndexes.remove(label.name());
+            }
+        }
+        removed.clear();
+
+        var added = List.of(instructions);
+        code.addAll(index, added);
+        for (var item : added) {
+            countLabelUse(item, 1);
+        }
+
+        var shift = instructions.length - count;
+        if (shift != 0) {
+            var end = index + count;
+            labelIndexes.replaceAll((label, labelIndex) -> labelIndex >= end ? labelIndex + shift : labelIndex);
+        }
+
+        // Rewrites only remove reads of variables, or paths to them, so what was live before may still be assumed live
+        if (liveOut != null) {
+            liveOut.subList(index, index + count).clear();
+            liveOut.addAll(index, Collections.nCopies(instructions.length, null));
+        }
+    }
+
+    /**
+     * @return true if the label is among the labels that start at the index, before the next instruction
+     */
+    private boolean isLabelBefore(String label, int index) {
+        for (int i = index; i < code.size() && code.get(i) instanceof Label other; i++) {
+            if (other.name().equals(label)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the label a jump to the given label ends up at, after following the gotos at each label
+     */
+    private String getFinalTarget(String label) {
+        var visited = new HashSet<String>();
+        var target = label;
+
+        while (visited.add(target)) {
+            var instruction = instructionAt(getLabelIndex(target));
+            if (instruction == null || instruction.opcode() != Opcode.GOTO) {
+                return target;
+            }
+            target = instruction.label();
+        }
+
+        // The gotos form a cycle
+        return label;
+    }
+
+    /**
+     * @return the index of the first instruction after the label (or after the last item, if there is none)
+     */
+    private int getLabelIndex(String label) {
+        int index = getLabelItemIndex(label);
+        while (index < code.size() && code.get(index) instanceof Label) {
+            index++;
+        }
+
+        return index;
+    }
+
+    /**
+     * @return the index of the label itself
+     */
+    private int getLabelItemIndex(String label) {
+        var index = labelIndexes.get(label);
+        if (index == null) {
+            throw new RuntimeException("Label '" + label + "' is not defined");
+        }
+
+        return index;
+    }
+
+    private void indexLabels() {
+        labelIndexes = new HashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i) instanceof Label label) {
+                labelIndexes.put(label.name(), i);
+            }
+        }
+    }
+
+    private void countLabelUse(CodeItem item, int uses) {
+        if (item instanceof Instruction instruction && instruction.opcode().isBranch()) {
+            labelUses.merge(instruction.label(), uses, Integer::sum);
+        }
+    }
+
+    private int getLabelUses(String label) {
+        return labelUses.getOrDefault(label, 0);
+    }
+
+    private boolean removeUnusedLabels() {
+        return code.removeIf(item -> item instanceof Label label && getLabelUses(label.name()) == 0);
+    }
+
+    private static Integer getConstant(Instruction instruction) {
+        return switch (instruction.opcode()) {
+            case ICONST_M1 -> -1;
+            case ICONST_0 -> 0;
+            case ICONST_1 -> 1;
+            case ICONST_2 -> 2;
+            case ICONST_3 -> 3;
+            case ICONST_4 -> 4;
+            case ICONST_5 -> 5;
+            case BIPUSH, SIPUSH -> instruction.value();
+            default -> null;
+        };
+    }
+
+    private boolean isLiveAfter(int index, int local) {
+        if (liveOut == null) {
+            computeLiveness();
+        }
+
+        var live = liveOut.get(index);
+        return live == null || live.get(local);
+    }
+
+    /**
+     * Computes the local variables that may be read after each item, visiting the items backwards until nothing
+     * changes.
+     */
+    private void computeLiveness() {
+        int size = code.size();
+        var liveIn = new BitSet[size];
+        var out = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            liveIn[i] = new BitSet();
+            out[i] = new BitSet();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int i = size - 1; i >= 0; i--) {
+                var itemOut = new BitSet();
+                for (var successor : getSuccessors(i)) {
+                    itemOut.or(liveIn[successor]);
+                }
+
+                var in = (BitSet) itemOut.clone();
+                if (code.get(i) instanceof Instruction instruction) {
+                    var local = instruction.getLocal();
+                    if (instruction.opcode().isStore()) {
+                        in.clear(local);
+                    } else if (local >= 0) {
+                        in.set(local);
+                    }
+                }
+
+                if (!itemOut.equals(out[i]) || !in.equals(liveIn[i])) {
+                    out[i] = itemOut;
+                    liveIn[i] = in;
+                    changed = true;
+                }
+            }
+        }
+
+        liveOut = new ArrayList<>(Arrays.asList(out));
+    }
+
+    private List<Integer> getSuccessors(int index) {
+        var successors = new ArrayList<Integer>(2);
+
+        if (code.get(index) instanceof Instruction instruction) {
+            if (instruction.opcode().isBranch()) {
+                successors.add(getLabelItemIndex(instruction.label()));
+            }
+            if (instruction.opcode().isUnconditionalTransfer()) {
+                return successors;
+            }
+        }
+
+        if (index + 1 < code.size()) {
+            successors.add(index + 1);
+        }
+
+        return successors;
+    }
+}
@@ -0,0 +1,86 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the maximum stack depth of the code of a method, by simulating the depth of the stack along every path of
+ * its control flow graph.
+ * <p>
+ * The depth at the start of each instruction is found once, from the first path that reaches it; in verifiable code
+ * every path reaches an instruction with the same depth. Unreachable instructions are not simulated.
+ */
+public class StackSimulator {
+
+    private final List<Instruction> instructions = new ArrayList<>();
+    private final Map<String, Integer> labels = new HashMap<>();
+
+    private StackSimulator(List<CodeItem> code) {
+        for (var item : code) {
+            if (item instanceof CodeItem.Label label) {
+                labels.put(label.name(), instructions.size());
+            } else if (item instanceof Instruction instruction) {
+                instructions.add(instruction);
+            }
+        }
+    }
+
+    /**
+     * @param code the labels and instructions of a method
+     * @return the maximum number of stack slots used by the method
+     */
+    public static int getMaxStack(List<CodeItem> code) {
+        return new StackSimulator(code).simulate();
+    }
+
+    private int simulate() {
+        var depths = new int[instructions.size()];
+        var pending = new ArrayDeque<Integer>();
+        int maxStack = 0;
+
+        if (instructions.isEmpty()) {
+            return maxStack;
+        }
+
+        // The depth of each instruction is unknown (-1) until a path reaches it
+        Arrays.fill(depths, -1);
+        depths[0] = 0;
+        pending.push(0);
+
+        while (!pending.isEmpty()) {
+            int index = pending.pop();
+            var instruction = instructions.get(index);
+
+            var depth = depths[index] + instruction.getStackChange();
+            maxStack = Math.max(maxStack, depth);
+
+            if (instruction.opcode().isBranch()) {
+                var target = labels.get(instruction.label());
+                if (target == null) {
+                    throw new RuntimeException("Label '" + instruction.label() + "' is not defined");
+                }
+                visit(target, depth, depths, pending);
+            }
+
+            if (!instruction.opcode().isUnconditionalTransfer()) {
+                visit(index + 1, depth, depths, pending);
+            }
+        }
+
+        return maxStack;
+    }
+
+    private void visit(int index, int depth, int[] depths, ArrayDeque<Integer> pending) {
+        // Code can end with a label, or fall off the end (which the verifier rejects)
+        if (index >= instructions.size() || depths[index] != -1) {
+            return;
+        }
+
+        depths[index] = depth;
+        pending.push(index);
+    }
+}
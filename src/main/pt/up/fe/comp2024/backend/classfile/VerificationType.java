@@ -0,0 +1,64 @@
+package pt.up.fe.comp2024.backend.classfile;
+
+/**
+ * Type of a local variable or stack entry, as seen by the JVM verifier and written in StackMapTable frames.
+ *
+ * @param tag       the verification_type_info tag
+ * @param className the internal name of the class (or the descriptor of the array type), for objects
+ * @param offset    the offset of the 'new' instruction, for uninitialized objects
+ */
+public record VerificationType(int tag, String className, int offset) {
+
+    public static final int TOP_TAG = 0;
+    public static final int INTEGER_TAG = 1;
+    public static final int NULL_TAG = 5;
+    public static final int UNINITIALIZED_THIS_TAG = 6;
+    public static final int OBJECT_TAG = 7;
+    public static final int UNINITIALIZED_TAG = 8;
+
+    public static final VerificationType TOP = new VerificationType(TOP_TAG, null, 0);
+    public static final VerificationType INTEGER = new VerificationType(INTEGER_TAG, null, 0);
+    public static final VerificationType NULL = new VerificationType(NULL_TAG, null, 0);
+    public static final VerificationType UNINITIALIZED_THIS = new VerificationType(UNINITIALIZED_THIS_TAG, null, 0);
+
+    public static VerificationType object(String internalName) {
+        return new VerificationType(OBJECT_TAG, internalName, 0);
+    }
+
+    public static VerificationType uninitialized(int newOffset) {
+        return new VerificationType(UNINITIALIZED_TAG, null, newOffset);
+    }
+
+    /**
+     * @return the type of a value with the given field descriptor, or null for 'V'
+     */
+    public static VerificationType fromDescriptor(String descriptor) {
+        return switch (descriptor.charAt(0)) {
+            case 'I', 'Z', 'B', 'C', 'S' -> INTEGER;
+            case 'L' -> object(descriptor.substring(1, descriptor.length() - 1));
+            case '[' -> object(descriptor);
+            case 'V' -> null;
+            default -> throw new RuntimeException("Unsupported type descriptor '" + descriptor + "'");
+        };
+    }
+
+    public boolean isObject() {
+        return tag == OBJECT_TAG;
+    }
+
+    public boolean isUninitialized() {
+        return tag == UNINITIALIZED_TAG || tag == UNINITIALIZED_THIS_TAG;
+    }
+
+    @Override
+    public String toString() {
+        return switch (tag) {
+            case TOP_TAG -> "top";
+            case INTEGER_TAG -> "int";
+            case NULL_TAG -> "null";
+            case UNINITIALIZED_THIS_TAG -> "uninitializedThis";
+            case OBJECT_TAG -> className;
+            default -> "uninitialized(" + offset + ")";
+        };
+    }
+}
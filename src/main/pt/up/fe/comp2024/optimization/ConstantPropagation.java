@@ -0,0 +1,298 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.AJmmVisitor;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
+import pt.up.fe.comp.jmm.ast.NodePosition;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.ast.TypeUtils;
+import pt.up.fe.comp2024.symboltable.ScopedSymbol;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static pt.up.fe.comp2024.ast.Kind.*;
+
+/**
+ * Propagates the constant values of local variables and folds the operations over literals, in the AST of a program.
+ * <p>
+ * The statements of each method are visited in order, tracking the local variables that hold a known literal. Reading
+ * one of them is replaced by its literal, and binary and '!' expressions over literals are replaced by their result.
+ * <p>
+ * After an 'if', a variable keeps its value only if both branches agree on it. A variable assigned anywhere in a loop
+ * may hold the value of a previous iteration, so it is not constant in the condition or the body of the loop, nor
+ * after it (the initialization of a 'for' is not part of the loop, since it runs once). The AST is visited again until
+ * nothing changes.
+ */
+public class ConstantPropagation extends AJmmVisitor<Map<String, JmmNode>, Void> {
+
+    private final SymbolTable table;
+
+    private boolean changed;
+
+    public ConstantPropagation(SymbolTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Changes the AST in place.
+     *
+     * @return true if the AST was changed
+     */
+    public boolean optimize(JmmNode root) {
+        boolean optimized = false;
+
+        do {
+            changed = false;
+            visit(root, new HashMap<>());
+            optimized |= changed;
+        } while (changed);
+
+        return optimized;
+    }
+
+    @Override
+    protected void buildVisitor() {
+        addVisit(METHOD_DECL, this::visitMethodDecl);
+        addVisit(ASSIGN_STMT, this::visitAssignStmt);
+        addVisit(IF_STMT, this::visitIfStmt);
+        addVisit(WHILE_STMT, this::visitLoop);
+        addVisit(FOR_STMT, this::visitForStmt);
+
+        setDefaultVisit(this::defaultVisit);
+    }
+
+    private Void visitMethodDecl(JmmNode node, Map<String, JmmNode> constants) {
+        // Locals are not shared between methods
+        return defaultVisit(node, new HashMap<>());
+    }
+
+    private Void visitAssignStmt(JmmNode node, Map<String, JmmNode> constants) {
+        var value = fold(node.getJmmChild(0), constants);
+        var name = node.get("name");
+
+        if (!isLocal(name, node)) {
+            return null;
+        }
+
+        if (isLiteral(value)) {
+            constants.put(name, value);
+        } else {
+            constants.remove(name);
+        }
+
+        return null;
+    }
+
+    private Void visitIfStmt(JmmNode node, Map<String, JmmNode> constants) {
+        var condition = fold(node.getJmmChild(0), constants);
+
+        var thenConstants = new HashMap<>(constants);
+        visit(node.getJmmChild(1), thenConstants);
+
+        var elseConstants = new HashMap<>(constants);
+        if (node.getNumChildren() > 2) {
+            visit(node.getJmmChild(2), elseConstants);
+        }
+
+        constants.clear();
+
+        // Only the taken branch is executed if the condition is known
+        if (BOOLEAN_LITERAL.check(condition)) {
+            constants.putAll(Boolean.parseBoolean(condition.get("value")) ? thenConstants : elseConstants);
+            return null;
+        }
+
+        thenConstants.forEach((name, value) -> {
+            if (sameLiteral(value, elseConstants.get(name))) {
+                constants.put(name, value);
+            }
+        });
+
+        return null;
+    }
+
+    private Void visitLoop(JmmNode node, Map<String, JmmNode> constants) {
+        return visitLoop(node.getChildren(), constants);
+    }
+
+    private Void visitForStmt(JmmNode node, Map<String, JmmNode> constants) {
+        // The initialization runs once, before the first test of the condition
+        visit(node.getJmmChild(0), constants);
+
+        var children = node.getChildren();
+        return visitLoop(children.subList(1, children.size()), constants);
+    }
+
+    /**
+     * @param parts the condition, body and other parts of a loop that may run more than once
+     */
+    private Void visitLoop(List<JmmNode> parts, Map<String, JmmNode> constants) {
+        for (var part : parts) {
+            if (ASSIGN_STMT.check(part)) {
+                constants.remove(part.get("name"));
+            }
+
+            for (var assign : part.getDescendants(ASSIGN_STMT)) {
+                constants.remove(assign.get("name"));
+            }
+        }
+
+        // What the body learns only holds inside the body
+        var loopConstants = new HashMap<>(constants);
+        for (var part : parts) {
+            if (Kind.isExpr(part)) {
+                fold(part, loopConstants);
+            } else {
+                visit(part, loopConstants);
+            }
+        }
+
+        return null;
+    }
+
+    private Void defaultVisit(JmmNode node, Map<String, JmmNode> constants) {
+        for (var child : node.getChildren()) {
+            if (Kind.isExpr(child)) {
+                fold(child, constants);
+            } else {
+                visit(child, constants);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Replaces the constant variables and the operations over literals in the expression.
+     *
+     * @return the node that took the place of the expression, or the expression itself
+     */
+    private JmmNode fold(JmmNode expr, Map<String, JmmNode> constants) {
+        for (var child : expr.getChildren()) {
+            fold(child, constants);
+        }
+
+        JmmNode result = null;
+
+        if (VAR_REF_EXPR.check(expr)) {
+            var constant = constants.get(expr.get("name"));
+            if (constant != null) {
+                result = newLiteral(Kind.fromString(constant.getKind()), constant.get("value"), expr);
+            }
+        } else if (PAREN_EXPR.check(expr) && isLiteral(expr.getJmmChild(0))) {
+            var literal = expr.getJmmChild(0);
+            result = newLiteral(Kind.fromString(literal.getKind()), literal.get("value"), expr);
+        } else if (NOT_EXPR.check(expr) && BOOLEAN_LITERAL.check(expr.getJmmChild(0))) {
+            var value = !Boolean.parseBoolean(expr.getJmmChild(0).get("value"));
+            result = newLiteral(BOOLEAN_LITERAL, String.valueOf(value), expr);
+        } else if (BINARY_EXPR.check(expr)) {
+            result = foldBinaryExpr(expr);
+        }
+
+        if (result == null) {
+            return expr;
+        }
+
+        expr.replace(result);
+        changed = true;
+
+        return result;
+    }
+
+    /**
+     * @return the literal with the result of the expression, or null if it cannot be computed at compile time
+     */
+    private static JmmNode foldBinaryExpr(JmmNode expr) {
+        var lhs = expr.getJmmChild(0);
+        var rhs = expr.getJmmChild(1);
+        var op = expr.get("op");
+
+        if (INTEGER_LITERAL.check(lhs) && INTEGER_LITERAL.check(rhs)) {
+            Integer left = parseInt(lhs.get("value"));
+            Integer right = parseInt(rhs.get("value"));
+            if (left == null || right == null) {
+                return null;
+            }
+
+            // Division by zero is left to throw at runtime
+            Integer value = switch (op) {
+                case "+" -> left + right;
+                case "-" -> left - right;
+                case "*" -> left * right;
+                case "/" -> right == 0 ? null : left / right;
+                default -> null;
+            };
+            if (value != null) {
+                return newLiteral(INTEGER_LITERAL, String.valueOf(value), expr);
+            }
+
+            Boolean comparison = switch (op) {
+                case "<" -> left < right;
+                case "<=" -> left <= right;
+                case ">" -> left > right;
+                case ">=" -> left >= right;
+                case "==" -> left.equals(right);
+                case "!=" -> !left.equals(right);
+                default -> null;
+            };
+            return comparison == null ? null : newLiteral(BOOLEAN_LITERAL, String.valueOf(comparison), expr);
+        }
+
+        if (BOOLEAN_LITERAL.check(lhs) && BOOLEAN_LITERAL.check(rhs)) {
+            var left = Boolean.parseBoolean(lhs.get("value"));
+            var right = Boolean.parseBoolean(rhs.get("value"));
+
+            Boolean value = switch (op) {
+                case "&&" -> left && right;
+                case "||" -> left || right;
+                case "==" -> left == right;
+                case "!=" -> left != right;
+                default -> null;
+            };
+            return value == null ? null : newLiteral(BOOLEAN_LITERAL, String.valueOf(value), expr);
+        }
+
+        return null;
+    }
+
+    private static Integer parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a literal at the position of the node it replaces.
+     */
+    private static JmmNode newLiteral(Kind kind, String value, JmmNode replaced) {
+        var literal = new JmmNodeImpl(kind.getNodeName());
+        literal.put("value", value);
+
+        for (var position : NodePosition.values()) {
+            replaced.getOptional(position.getString()).ifPresent(text -> literal.put(position.getString(), text));
+        }
+
+        return literal;
+    }
+
+    private static boolean isLiteral(JmmNode node) {
+        return INTEGER_LITERAL.check(node) || BOOLEAN_LITERAL.check(node);
+    }
+
+    private static boolean sameLiteral(JmmNode literal, JmmNode other) {
+        return other != null && literal.getKind().equals(other.getKind())
+                && Objects.equals(literal.get("value"), other.get("value"));
+    }
+
+    private boolean isLocal(String name, JmmNode node) {
+        return TypeUtils.lookUpSymbol(name, node, table)
+                .map(symbol -> symbol.scope() == ScopedSymbol.Scope.LOCAL)
+                .orElse(false);
+    }
+}
@@ -0,0 +1,217 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Removes the OLLIR instructions of each method that cannot run or whose result is never used.
+ * <p>
+ * Branches on a literal condition become a 'goto' or are removed, instructions that no path from the start of the
+ * method reaches are removed, and assignments to local variables that are not live afterwards are removed, as long as
+ * computing their value cannot throw. A call is kept for its side effects, but without storing its value. This is
+ * repeated until nothing changes, and the local variables that are no longer used are then removed from the variable
+ * table, and the others moved to the lowest registers.
+ */
+public class DeadCodeElimination {
+
+    private final ClassUnit ollirClass;
+
+    public DeadCodeElimination(ClassUnit ollirClass) {
+        this.ollirClass = ollirClass;
+    }
+
+    /**
+     * @return the number of instructions removed
+     */
+    public int eliminate() {
+        int removed = 0;
+
+        for (var method : ollirClass.getMethods()) {
+            removed += eliminate(method);
+        }
+
+        return removed;
+    }
+
+    private int eliminate(Method method) {
+        int initialSize = method.getInstructions().size();
+
+        boolean changed;
+        do {
+            changed = simplifyBranches(method);
+
+            OptUtils.buildCFG(method);
+            changed |= removeUnreachable(method);
+
+            OptUtils.buildCFG(method);
+            changed |= removeDeadStores(method);
+        } while (changed);
+
+        OptUtils.buildCFG(method);
+        removeUnusedLocals(method);
+
+        return initialSize - method.getInstructions().size();
+    }
+
+    private boolean simplifyBranches(Method method) {
+        var instructions = method.getInstructions();
+        boolean changed = false;
+
+        // Backwards, so that the next instruction is already final when labels are moved to it
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            if (!(instructions.get(i) instanceof CondBranchInstruction branch)
+                    || !(branch.getCondition() instanceof SingleOpInstruction condition)
+                    || !(condition.getSingleOperand() instanceof LiteralElement literal)) {
+                continue;
+            }
+
+            if (Integer.parseInt(literal.getLiteral()) != 0) {
+                replace(method, i, new GotoInstruction(branch.getLabel()));
+                changed = true;
+            } else if (i + 1 < instructions.size()) {
+                remove(method, i);
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    private boolean removeUnreachable(Method method) {
+        var instructions = method.getInstructions();
+        if (instructions.isEmpty()) {
+            return false;
+        }
+
+        var reached = new BitSet(instructions.size());
+        var pending = new ArrayDeque<Instruction>();
+        reached.set(0);
+        pending.push(instructions.get(0));
+
+        while (!pending.isEmpty()) {
+            for (var successor : pending.pop().getSuccessors()) {
+                if (successor instanceof Instruction instruction && !reached.get(instruction.getId() - 1)) {
+                    reached.set(instruction.getId() - 1);
+                    pending.push(instruction);
+                }
+            }
+        }
+
+        if (reached.cardinality() == instructions.size()) {
+            return false;
+        }
+
+        // Only unreachable jumps can go to the labels of unreachable instructions
+        Set<Instruction> unreachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = reached.nextClearBit(0); i < instructions.size(); i = reached.nextClearBit(i + 1)) {
+            unreachable.add(instructions.get(i));
+        }
+
+        method.getLabels().values().removeIf(unreachable::contains);
+        instructions.removeIf(unreachable::contains);
+
+        return true;
+    }
+
+    private boolean removeDeadStores(Method method) {
+        var liveness = new LivenessAnalysis(method);
+        var instructions = method.getInstructions();
+        boolean changed = false;
+
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            if (!(instructions.get(i) instanceof AssignInstruction assign)
+                    || assign.getDest() instanceof ArrayOperand) {
+                continue;
+            }
+
+            var variable = liveness.getIndex(assign.getDest());
+            if (variable < 0 || liveness.getLiveOut(i).get(variable)) {
+                continue;
+            }
+
+            var rhs = assign.getRhs();
+            if (rhs instanceof CallInstruction call && isInvocation(call)) {
+                replace(method, i, call);
+                changed = true;
+            } else if (!mayThrow(rhs) && i + 1 < instructions.size()) {
+                remove(method, i);
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    private static boolean isInvocation(CallInstruction call) {
+        return switch (call.getInvocationType()) {
+            case invokevirtual, invokestatic, invokespecial -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return true if computing the value may throw or have other side effects
+     */
+    private static boolean mayThrow(Instruction rhs) {
+        return switch (rhs.getInstType()) {
+            case NOPER -> ((SingleOpInstruction) rhs).getSingleOperand() instanceof ArrayOperand;
+            case BINARYOPER -> ((BinaryOpInstruction) rhs).getOperation().getOpType() == OperationType.DIV;
+            case UNARYOPER -> false;
+            // Fields are only read from 'this', which is never null
+            case GETFIELD -> false;
+            default -> true;
+        };
+    }
+
+    /**
+     * Removes the variables that no instruction uses, and gives the others consecutive registers, after 'this' and
+     * the parameters.
+     */
+    private static void removeUnusedLocals(Method method) {
+        var liveness = new LivenessAnalysis(method);
+
+        var used = new BitSet();
+        for (int i = 0; i < liveness.getInstructions().size(); i++) {
+            used.or(liveness.getDefs(i));
+            used.or(liveness.getUses(i));
+        }
+
+        int register = method.isStaticMethod() ? 0 : 1;
+        for (var descriptor : method.getVarTable().values()) {
+            if (descriptor.getScope() == VarScope.PARAMETER) {
+                register = Math.max(register, descriptor.getVirtualReg() + 1);
+            }
+        }
+
+        var variables = liveness.getVariables();
+        for (int i = 0; i < variables.size(); i++) {
+            if (used.get(i)) {
+                method.getVarTable().get(variables.get(i)).setVirtualReg(register++);
+            } else {
+                method.getVarTable().remove(variables.get(i));
+            }
+        }
+    }
+
+    private static void replace(Method method, int index, Instruction instruction) {
+        var old = method.getInstructions().set(index, instruction);
+        moveLabels(method, old, instruction);
+    }
+
+    /**
+     * Removes the instruction, which must not be the last one, and gives its labels to the next instruction.
+     */
+    private static void remove(Method method, int index) {
+        var old = method.getInstructions().remove(index);
+        moveLabels(method, old, method.getInstructions().get(index));
+    }
+
+    private static void moveLabels(Method method, Instruction from, Instruction to) {
+        method.getLabels().replaceAll((label, instruction) -> instruction == from ? to : instruction);
+    }
+}
@@ -3,24 +3,65 @@ package pt.up.fe.comp2024.optimization;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
 import pt.up.fe.comp.jmm.ollir.JmmOptimization;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.utils.StageTimer;
 
 import java.util.Collections;
 
 public class JmmOptimizationImpl implements JmmOptimization {
 
+    @Override
+    public JmmSemanticsResult optimize(JmmSemanticsResult semanticsResult) {
+
+        if (CompilerConfig.getOptimize(semanticsResult.getConfig())) {
+            var propagation = new ConstantPropagation(semanticsResult.getSymbolTable());
+            StageTimer.time("constant propagation", () -> propagation.optimize(semanticsResult.getRootNode()));
+        }
+
+        return semanticsResult;
+    }
+
     @Override
     public OllirResult toOllir(JmmSemanticsResult semanticsResult) {
 
-        var visitor = new OllirGeneratorVisitor(semanticsResult.getSymbolTable());
-        var ollirCode = visitor.visit(semanticsResult.getRootNode());
+        OptUtils.resetCounters();
 
-        return new OllirResult(semanticsResult, ollirCode, Collections.emptyList());
+        var visitor = new OllirGeneratorVisitor(semanticsResult.getSymbolTable(),
+                CompilerConfig.isParallel(semanticsResult.getConfig()));
+        var ollirClass = StageTimer.time("ollir generation",
+                () -> visitor.generate(semanticsResult.getRootNode()));
+
+        // The class is built directly, so its OLLIR code is only rendered if requested
+        return new OllirIrResult(semanticsResult, ollirClass, Collections.emptyList());
     }
 
     @Override
     public OllirResult optimize(OllirResult ollirResult) {
 
-        //TODO: Do your OLLIR-based optimizations here
+        if (CompilerConfig.getOptimize(ollirResult.getConfig())) {
+            // Before inlining, since a method without self calls left is no longer recursive
+            var tailCalls = new TailCallElimination(ollirResult.getOllirClass());
+            StageTimer.time("tail call elimination", tailCalls::eliminate);
+
+            var inlining = new MethodInlining(ollirResult.getOllirClass());
+            StageTimer.time("method inlining", inlining::inline);
+
+            var motion = new LoopInvariantCodeMotion(ollirResult.getOllirClass());
+            StageTimer.time("loop invariant code motion", motion::hoist);
+
+            var elimination = new DeadCodeElimination(ollirResult.getOllirClass());
+            StageTimer.time("dead code elimination", elimination::eliminate);
+        }
+
+        // Registers are allocated last, after every other change to the code
+        var registers = CompilerConfig.getRegisterAllocation(ollirResult.getConfig());
+        if (registers >= 0) {
+            var allocation = new RegisterAllocation(ollirResult.getOllirClass(), ollirResult.getReports());
+            StageTimer.time("register allocation", () -> {
+                allocation.allocate(registers);
+                return null;
+            });
+        }
 
         return ollirResult;
     }
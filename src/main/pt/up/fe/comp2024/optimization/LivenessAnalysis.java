@@ -0,0 +1,203 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Liveness of the local variables of a method, over the control flow graph of its OLLIR instructions.
+ * <p>
+ * Only local variables are analysed: 'this', parameters and fields are not. Each variable is identified by its index in
+ * {@link #getVariables()}, ordered by the register the variable table gave it, and sets of variables are BitSets of
+ * those indexes. The CFG of the method must have been built (see {@link Method#buildCFG()}).
+ */
+public class LivenessAnalysis {
+
+    private final Method method;
+    private final List<String> variables = new ArrayList<>();
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private final List<Instruction> instructions;
+    private final BitSet[] defs;
+    private final BitSet[] uses;
+    private final BitSet[] liveIn;
+    private final BitSet[] liveOut;
+
+    public LivenessAnalysis(Method method) {
+        this.method = method;
+        this.instructions = method.getInstructions();
+
+        method.getVarTable().entrySet().stream()
+                .filter(entry -> isLocal(entry.getKey(), entry.getValue()))
+                .sorted(Comparator.comparingInt(entry -> entry.getValue().getVirtualReg()))
+                .forEach(entry -> {
+                    indexes.put(entry.getKey(), variables.size());
+                    variables.add(entry.getKey());
+                });
+
+        int size = instructions.size();
+        defs = new BitSet[size];
+        uses = new BitSet[size];
+        liveIn = new BitSet[size];
+        liveOut = new BitSet[size];
+
+        for (int i = 0; i < size; i++) {
+            defs[i] = new BitSet();
+            uses[i] = new BitSet();
+            addDefsAndUses(instructions.get(i), defs[i], uses[i]);
+            liveIn[i] = new BitSet();
+            liveOut[i] = new BitSet();
+        }
+
+        solve();
+    }
+
+    private static boolean isLocal(String name, Descriptor descriptor) {
+        return descriptor.getScope() == VarScope.LOCAL && !name.equals("this")
+                && descriptor.getVarType().getTypeOfElement() != ElementType.CLASS;
+    }
+
+    /**
+     * @return the local variables of the method, ordered by the register of the variable table
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public BitSet getDefs(int instruction) {
+        return defs[instruction];
+    }
+
+    public BitSet getUses(int instruction) {
+        return uses[instruction];
+    }
+
+    public BitSet getLiveIn(int instruction) {
+        return liveIn[instruction];
+    }
+
+    public BitSet getLiveOut(int instruction) {
+        return liveOut[instruction];
+    }
+
+    /**
+     * @return the index of the local variable read or written by the element, or -1 if it is not a local variable
+     */
+    public int getIndex(Element element) {
+        if (!(element instanceof Operand operand)) {
+            return -1;
+        }
+
+        return indexes.getOrDefault(operand.getName(), -1);
+    }
+
+    /**
+     * Iterates the dataflow equations until nothing changes, visiting the instructions backwards, since liveness flows
+     * from the uses of a variable to its definitions.
+     */
+    private void solve() {
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                var out = new BitSet();
+                for (var successor : instructions.get(i).getSuccessors()) {
+                    if (successor instanceof Instruction instruction) {
+                        out.or(liveIn[instruction.getId() - 1]);
+                    }
+                }
+
+                var in = (BitSet) out.clone();
+                in.andNot(defs[i]);
+                in.or(uses[i]);
+
+                if (!out.equals(liveOut[i]) || !in.equals(liveIn[i])) {
+                    liveOut[i] = out;
+                    liveIn[i] = in;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private void addDefsAndUses(Instruction instruction, BitSet defs, BitSet uses) {
+        switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                // Storing in an array element reads the array (and the indexes)
+                if (assign.getDest() instanceof ArrayOperand) {
+                    addUse(assign.getDest(), uses);
+                } else {
+                    addDef(assign.getDest(), defs);
+                }
+                addDefsAndUses(assign.getRhs(), defs, uses);
+            }
+            case CALL -> {
+                var call = (CallInstruction) instruction;
+                if (call.getInvocationType() != CallType.NEW) {
+                    addUse(call.getCaller(), uses);
+                }
+                for (var argument : call.getArguments()) {
+                    addUse(argument, uses);
+                }
+            }
+            case BRANCH -> addDefsAndUses(((CondBranchInstruction) instruction).getCondition(), defs, uses);
+            case RETURN -> {
+                var operand = ((ReturnInstruction) instruction).getOperand();
+                if (operand != null) {
+                    addUse(operand, uses);
+                }
+            }
+            case PUTFIELD -> {
+                var putField = (PutFieldInstruction) instruction;
+                addUse(putField.getObject(), uses);
+                addUse(putField.getValue(), uses);
+            }
+            case GETFIELD -> addUse(((GetFieldInstruction) instruction).getObject(), uses);
+            case UNARYOPER -> addUse(((UnaryOpInstruction) instruction).getOperand(), uses);
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                addUse(binaryOp.getLeftOperand(), uses);
+                addUse(binaryOp.getRightOperand(), uses);
+            }
+            case NOPER -> addUse(((SingleOpInstruction) instruction).getSingleOperand(), uses);
+            default -> {
+            }
+        }
+    }
+
+    private void addDef(Element element, BitSet defs) {
+        var index = getIndex(element);
+        if (index >= 0) {
+            defs.set(index);
+        }
+    }
+
+    private void addUse(Element element, BitSet uses) {
+        var index = getIndex(element);
+        if (index >= 0) {
+            uses.set(index);
+        }
+
+        if (element instanceof ArrayOperand array) {
+            for (var indexOperand : array.getIndexOperands()) {
+                addUse(indexOperand, uses);
+            }
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves the computations that give the same value in every iteration of a loop to before the loop, in the OLLIR code of
+ * each method.
+ * <p>
+ * Loops are found in the control flow graph of the instructions: an edge to an instruction that dominates its source
+ * is a back edge, and the loop of the instruction it goes to (the header) is every instruction that reaches the back
+ * edge without going through the header. An assignment to a local variable is moved to a preheader, run once when
+ * the loop is entered, if its operands are not assigned in the loop (or only by assignments that were moved), it is
+ * the only assignment to its variable in the loop, the variable is not read in the loop before being assigned, and the
+ * assignment runs before every exit of the loop after which the variable is read.
+ * <p>
+ * Only computations that cannot throw and have no side effects are moved, so that running them even in iterations
+ * that would not have does not change the program: copies, arithmetic except divisions by a variable, negations, reads
+ * of fields not written in the loop (nor by a call), and array lengths of arrays already used just before the loop.
+ * This is repeated until nothing moves, so that computations can leave nested loops one at a time.
+ */
+public class LoopInvariantCodeMotion {
+
+    private final ClassUnit ollirClass;
+
+    public LoopInvariantCodeMotion(ClassUnit ollirClass) {
+        this.ollirClass = ollirClass;
+    }
+
+    /**
+     * @return the number of instructions moved out of a loop
+     */
+    public int hoist() {
+        int hoisted = 0;
+
+        for (var method : ollirClass.getMethods()) {
+            hoisted += hoist(method);
+        }
+
+        return hoisted;
+    }
+
+    private int hoist(Method method) {
+        int hoisted = 0;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            OptUtils.buildCFG(method);
+
+            var dominators = computeDominators(method);
+            var liveness = new LivenessAnalysis(method);
+
+            // Inner loops first, since they run more often
+            var loops = findLoops(method, dominators);
+            loops.sort((loop, other) -> Integer.compare(loop.body().cardinality(), other.body().cardinality()));
+
+            for (var loop : loops) {
+                var invariants = findInvariants(method, loop, dominators, liveness);
+                if (!invariants.isEmpty()) {
+                    moveToPreheader(method, loop, invariants);
+                    hoisted += invariants.size();
+                    changed = true;
+                    break;
+                }
+            }
+        }
+
+        return hoisted;
+    }
+
+    /**
+     * @param header the index of the instruction every iteration starts at
+     * @param body   the indexes of the instructions of the loop, including the header
+     */
+    private record Loop(int header, BitSet body) {
+    }
+
+    /**
+     * @return for each instruction, the instructions that every path from the start of the method to it goes through,
+     * or an empty set if it cannot be reached
+     */
+    private static BitSet[] computeDominators(Method method) {
+        var instructions = method.getInstructions();
+        int size = instructions.size();
+
+        var reached = new BitSet(size);
+        var pending = new ArrayDeque<Integer>();
+        if (size > 0) {
+            reached.set(0);
+            pending.push(0);
+        }
+        while (!pending.isEmpty()) {
+            for (var successor : successors(instructions.get(pending.pop()))) {
+                if (!reached.get(successor)) {
+                    reached.set(successor);
+                    pending.push(successor);
+                }
+            }
+        }
+
+        var dominators = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            dominators[i] = new BitSet(size);
+            if (i == 0) {
+                dominators[i].set(0);
+            } else if (reached.get(i)) {
+                dominators[i].set(0, size);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int i = reached.nextSetBit(1); i >= 0; i = reached.nextSetBit(i + 1)) {
+                var dominated = new BitSet(size);
+                dominated.set(0, size);
+                for (var predecessor : predecessors(instructions.get(i))) {
+                    if (reached.get(predecessor)) {
+                        dominated.and(dominators[predecessor]);
+                    }
+                }
+                dominated.set(i);
+
+                if (!dominated.equals(dominators[i])) {
+                    dominators[i] = dominated;
+                    changed = true;
+                }
+            }
+        }
+
+        return dominators;
+    }
+
+    /**
+     * @return the natural loop of each header, joining the loops of the back edges that go to the same header
+     */
+    private static List<Loop> findLoops(Method method, BitSet[] dominators) {
+        var instructions = method.getInstructions();
+        Map<Integer, BitSet> bodies = new HashMap<>();
+
+        for (int source = 0; source < instructions.size(); source++) {
+            for (var header : successors(instructions.get(source))) {
+                if (!dominators[source].get(header)) {
+                    continue;
+                }
+
+                var body = bodies.computeIfAbsent(header, key -> new BitSet());
+                body.set(header);
+
+                // Every instruction that reaches the back edge without going through the header
+                var pending = new ArrayDeque<Integer>();
+                if (!body.get(source)) {
+                    body.set(source);
+                    pending.push(source);
+                }
+                while (!pending.isEmpty()) {
+                    for (var predecessor : predecessors(instructions.get(pending.pop()))) {
+                        if (!body.get(predecessor) && !dominators[predecessor].isEmpty()) {
+                            body.set(predecessor);
+                            pending.push(predecessor);
+                        }
+                    }
+                }
+            }
+        }
+
+        var loops = new ArrayList<Loop>();
+        bodies.forEach((header, body) -> loops.add(new Loop(header, body)));
+
+        return loops;
+    }
+
+    /**
+     * @return the indexes of the assignments of the loop that can be moved to its preheader, in the order they are in
+     */
+    private static List<Integer> findInvariants(Method method, Loop loop, BitSet[] dominators,
+                                                LivenessAnalysis liveness) {
+        var instructions = method.getInstructions();
+        var body = loop.body();
+
+        // How many times each variable is assigned in the loop
+        Map<String, Integer> assignments = new HashMap<>();
+        boolean writesFields = false;
+        for (int i = body.nextSetBit(0); i >= 0; i = body.nextSetBit(i + 1)) {
+            var instruction = instructions.get(i);
+            if (instruction instanceof AssignInstruction assign && !(assign.getDest() instanceof ArrayOperand)) {
+                assignments.merge(((Operand) assign.getDest()).getName(), 1, Integer::sum);
+            }
+            writesFields |= mayWriteFields(instruction);
+        }
+
+        var entry = getEntry(method, loop);
+        var invariants = new BitSet();
+        Set<String> moved = new HashSet<>();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int i = body.nextSetBit(0); i >= 0; i = body.nextSetBit(i + 1)) {
+                if (invariants.get(i) || !(instructions.get(i) instanceof AssignInstruction assign)
+                        || assign.getDest() instanceof ArrayOperand) {
+                    continue;
+                }
+
+                var variable = liveness.getIndex(assign.getDest());
+                if (variable < 0 || assignments.get(((Operand) assign.getDest()).getName()) != 1
+                        || liveness.getLiveIn(loop.header()).get(variable)
+                        || !isQuiet(assign.getRhs(), entry, writesFields, method)
+                        || !isInvariant(assign.getRhs(), assignments, moved)
+                        || !dominatesExits(i, variable, method, loop, dominators, liveness)) {
+                    continue;
+                }
+
+                invariants.set(i);
+                moved.add(((Operand) assign.getDest()).getName());
+                changed = true;
+            }
+        }
+
+        return invariants.stream().boxed().toList();
+    }
+
+    /**
+     * @return true if the instruction writes to a field, or calls a method that may
+     */
+    private static boolean mayWriteFields(Instruction instruction) {
+        var operation = instruction instanceof AssignInstruction assign ? assign.getRhs() : instruction;
+
+        return operation instanceof PutFieldInstruction || operation instanceof CallInstruction call
+                && call.getInvocationType() != CallType.NEW && call.getInvocationType() != CallType.arraylength;
+    }
+
+    /**
+     * @return true if the operands of the computation are not assigned in the loop, except by moved assignments
+     */
+    private static boolean isInvariant(Instruction rhs, Map<String, Integer> assignments, Set<String> moved) {
+        var operands = switch (rhs.getInstType()) {
+            case NOPER -> List.of(((SingleOpInstruction) rhs).getSingleOperand());
+            case BINARYOPER -> List.of(((BinaryOpInstruction) rhs).getLeftOperand(),
+                    ((BinaryOpInstruction) rhs).getRightOperand());
+            case UNARYOPER -> List.of(((UnaryOpInstruction) rhs).getOperand());
+            case GETFIELD -> List.<Element>of(((GetFieldInstruction) rhs).getObject());
+            case CALL -> List.of(((CallInstruction) rhs).getCaller());
+            default -> List.<Element>of();
+        };
+
+        for (var operand : operands) {
+            if (operand instanceof Operand variable && assignments.containsKey(variable.getName())
+                    && !moved.contains(variable.getName())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param entry the instruction the loop is entered from, or null if there is more than one
+     * @return true if computing the value cannot throw and has no side effects
+     */
+    private static boolean isQuiet(Instruction rhs, Instruction entry, boolean writesFields, Method method) {
+        return switch (rhs.getInstType()) {
+            case NOPER -> !(((SingleOpInstruction) rhs).getSingleOperand() instanceof ArrayOperand);
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) rhs;
+                yield binaryOp.getOperation().getOpType() != OperationType.DIV
+                        || binaryOp.getRightOperand() instanceof LiteralElement divisor
+                        && Integer.parseInt(divisor.getLiteral()) != 0;
+            }
+            case UNARYOPER -> true;
+            // Fields are only read from 'this', which is never null
+            case GETFIELD -> !writesFields;
+            // The array is not null if it was used before entering the loop
+            case CALL -> rhs instanceof CallInstruction call && call.getInvocationType() == CallType.arraylength
+                    && call.getCaller() instanceof Operand array && isUsedBefore(array.getName(), entry, method);
+            default -> false;
+        };
+    }
+
+    /**
+     * @return true if the straight-line code that ends at the instruction reads the length or an element of the array,
+     * after the last assignment to it
+     */
+    private static boolean isUsedBefore(String array, Instruction instruction, Method method) {
+        var instructions = method.getInstructions();
+        var current = instruction;
+
+        for (int steps = 0; current != null && steps < instructions.size(); steps++) {
+            if (current instanceof AssignInstruction assign) {
+                if (readsArray(assign.getRhs(), array)
+                        || assign.getDest() instanceof ArrayOperand element && element.getName().equals(array)) {
+                    return true;
+                }
+                if (assign.getDest() instanceof Operand dest && dest.getName().equals(array)) {
+                    return false;
+                }
+            }
+
+            var predecessors = predecessors(current);
+            current = predecessors.size() == 1 ? instructions.get(predecessors.get(0)) : null;
+        }
+
+        return false;
+    }
+
+    private static boolean readsArray(Instruction rhs, String array) {
+        if (rhs instanceof CallInstruction call) {
+            return call.getInvocationType() == CallType.arraylength
+                    && call.getCaller() instanceof Operand operand && operand.getName().equals(array);
+        }
+
+        return rhs instanceof SingleOpInstruction singleOp && singleOp.getSingleOperand() instanceof ArrayOperand element
+                && element.getName().equals(array);
+    }
+
+    /**
+     * @return true if the assignment runs before leaving the loop by any exit after which the variable is read
+     */
+    private static boolean dominatesExits(int assignment, int variable, Method method, Loop loop,
+                                          BitSet[] dominators, LivenessAnalysis liveness) {
+        var instructions = method.getInstructions();
+        var body = loop.body();
+
+        for (int i = body.nextSetBit(0); i >= 0; i = body.nextSetBit(i + 1)) {
+            for (var successor : successors(instructions.get(i))) {
+                if (!body.get(successor) && liveness.getLiveIn(successor).get(variable)
+                        && !dominators[i].get(assignment)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the only instruction outside the loop that goes to its header, or null if there is none or more than one
+     */
+    private static Instruction getEntry(Method method, Loop loop) {
+        var instructions = method.getInstructions();
+        Instruction entry = null;
+
+        for (var predecessor : predecessors(instructions.get(loop.header()))) {
+            if (loop.body().get(predecessor)) {
+                continue;
+            }
+            if (entry != null) {
+                return null;
+            }
+            entry = instructions.get(predecessor);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Moves the invariants to a preheader, placed just before the header. The jumps that enter the loop go to the
+     * preheader, and the back edges go to a new label, on the first instruction of the loop that was not moved.
+     */
+    private static void moveToPreheader(Method method, Loop loop, List<Integer> invariants) {
+        var instructions = method.getInstructions();
+        var labels = method.getLabels();
+        var header = instructions.get(loop.header());
+
+        Set<Instruction> preheader = Collections.newSetFromMap(new IdentityHashMap<>());
+        var preheaderCode = new ArrayList<Instruction>();
+        for (var index : invariants) {
+            preheader.add(instructions.get(index));
+            preheaderCode.add(instructions.get(index));
+        }
+
+        // Moved assignments only fall through, so the loop now starts at the first one after them that stays
+        int start = loop.header();
+        while (preheader.contains(instructions.get(start))) {
+            start++;
+        }
+        var loopStart = instructions.get(start);
+
+        var loopLabel = newLabel(method);
+        var headerLabels = new HashSet<String>();
+        labels.forEach((label, instruction) -> {
+            if (instruction == header) {
+                headerLabels.add(label);
+            }
+        });
+
+        var body = loop.body();
+        for (int i = body.nextSetBit(0); i >= 0; i = body.nextSetBit(i + 1)) {
+            var instruction = instructions.get(i);
+            if (instruction instanceof CondBranchInstruction branch && headerLabels.contains(branch.getLabel())) {
+                branch.setLabel(loopLabel);
+            } else if (instruction instanceof GotoInstruction jump && headerLabels.contains(jump.getLabel())) {
+                jump.setLabel(loopLabel);
+            }
+        }
+
+        // The labels of moved instructions go to the next instruction of the loop, and the loop is entered by the
+        // preheader
+        var next = new IdentityHashMap<Instruction, Instruction>();
+        for (int i = instructions.size() - 1, following = -1; i >= 0; i--) {
+            if (following >= 0) {
+                next.put(instructions.get(i), instructions.get(following));
+            }
+            if (!preheader.contains(instructions.get(i))) {
+                following = i;
+            }
+        }
+        labels.replaceAll((label, instruction) -> headerLabels.contains(label) ? preheaderCode.get(0)
+                : preheader.contains(instruction) ? next.get(instruction) : instruction);
+        labels.put(loopLabel, loopStart);
+
+        var code = new ArrayList<Instruction>(instructions.size() + 1);
+        for (int i = 0; i < instructions.size(); i++) {
+            if (i == loop.header()) {
+                // An iteration that ends just before the header jumps over the preheader
+                var previous = i > 0 ? instructions.get(i - 1) : null;
+                if (previous != null && body.get(i - 1) && !(previous instanceof GotoInstruction)
+                        && !(previous instanceof ReturnInstruction)) {
+                    code.add(new GotoInstruction(loopLabel));
+                }
+                code.addAll(preheaderCode);
+            }
+
+            if (!preheader.contains(instructions.get(i))) {
+                code.add(instructions.get(i));
+            }
+        }
+
+        instructions.clear();
+        instructions.addAll(code);
+    }
+
+    private static String newLabel(Method method) {
+        for (int i = 1; ; i++) {
+            var label = "licmLoop" + i;
+            if (!method.getLabels().containsKey(label)) {
+                return label;
+            }
+        }
+    }
+
+    private static List<Integer> successors(Instruction instruction) {
+        return indexes(instruction.getSuccessors());
+    }
+
+    private static List<Integer> predecessors(Instruction instruction) {
+        return indexes(instruction.getPredecessors());
+    }
+
+    /**
+     * @return the indexes of the nodes that are instructions, leaving out the begin and end nodes
+     */
+    private static List<Integer> indexes(List<Node> nodes) {
+        var indexes = new ArrayList<Integer>(nodes.size());
+        for (var node : nodes) {
+            if (node instanceof Instruction instruction) {
+                indexes.add(instruction.getId() - 1);
+            }
+        }
+
+        return indexes;
+    }
+}
@@ -0,0 +1,440 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces the calls to small methods of the class by a copy of the OLLIR code of the called method, in each method.
+ * <p>
+ * A call is inlined if it is made on 'this', or is a static call to the class, and the called method is declared in
+ * the class, has at most {@link #MAX_INSTRUCTIONS} instructions and cannot call itself, directly or through other
+ * methods of the class. The local variables and labels of the copy get a prefix that no name of the calling method
+ * starts with, the parameters are replaced by the arguments (or by a copy of them, if the method assigns them), and
+ * each return assigns its value to the destination of the call and jumps to the instruction after the call. Calls in
+ * the inlined code are inlined as well.
+ * <p>
+ * Each class is compiled on its own, so the methods of the class are assumed not to be overridden.
+ */
+public class MethodInlining {
+
+    /**
+     * The largest method that is inlined, in OLLIR instructions.
+     */
+    private static final int MAX_INSTRUCTIONS = 12;
+
+    private final ClassUnit ollirClass;
+
+    private final Map<String, List<Method>> methods = new HashMap<>();
+
+    private final Set<String> recursive = new HashSet<>();
+
+    public MethodInlining(ClassUnit ollirClass) {
+        this.ollirClass = ollirClass;
+    }
+
+    /**
+     * @return the number of calls inlined
+     */
+    public int inline() {
+        methods.clear();
+        for (var method : ollirClass.getMethods()) {
+            methods.computeIfAbsent(method.getMethodName(), name -> new ArrayList<>()).add(method);
+        }
+
+        findRecursive();
+
+        int inlined = 0;
+
+        for (var method : ollirClass.getMethods()) {
+            inlined += inline(method);
+        }
+
+        return inlined;
+    }
+
+    private int inline(Method method) {
+        var instructions = method.getInstructions();
+        int inlined = 0;
+
+        // The copy takes the place of the call, so that the calls it makes are inlined next
+        int i = 0;
+        while (i < instructions.size()) {
+            var callee = getInlinedMethod(instructions.get(i));
+            if (callee != null && callee != method && i + 1 < instructions.size()) {
+                inline(method, i, callee);
+                inlined++;
+            } else {
+                i++;
+            }
+        }
+
+        return inlined;
+    }
+
+    /**
+     * Finds the methods that can call themselves, following the calls to the methods of the class.
+     */
+    private void findRecursive() {
+        recursive.clear();
+
+        var calls = new HashMap<String, Set<String>>();
+        for (var method : ollirClass.getMethods()) {
+            var called = calls.computeIfAbsent(method.getMethodName(), name -> new HashSet<>());
+            for (var instruction : method.getInstructions()) {
+                var call = getCall(instruction);
+                if (call != null && isCallToClass(call)) {
+                    called.add(getMethodName(call));
+                }
+            }
+        }
+
+        for (var name : calls.keySet()) {
+            var reached = new HashSet<String>();
+            var pending = new ArrayList<>(calls.get(name));
+            while (!pending.isEmpty()) {
+                var next = pending.remove(pending.size() - 1);
+                if (reached.add(next)) {
+                    pending.addAll(calls.getOrDefault(next, Set.of()));
+                }
+            }
+
+            if (reached.contains(name)) {
+                recursive.add(name);
+            }
+        }
+    }
+
+    /**
+     * @return the method the instruction calls, if the call can be inlined, or null otherwise
+     */
+    private Method getInlinedMethod(Instruction instruction) {
+        var call = getCall(instruction);
+        if (call == null || !(call.getCaller() instanceof Operand caller)) {
+            return null;
+        }
+
+        boolean isStatic;
+        if (call.getInvocationType() == CallType.invokevirtual
+                && caller.getType().getTypeOfElement() == ElementType.THIS) {
+            isStatic = false;
+        } else if (call.getInvocationType() == CallType.invokestatic
+                && caller.getName().equals(ollirClass.getClassName())) {
+            isStatic = true;
+        } else {
+            return null;
+        }
+
+        var name = getMethodName(call);
+        var candidates = methods.getOrDefault(name, List.of());
+        if (candidates.size() != 1 || recursive.contains(name)) {
+            return null;
+        }
+
+        var callee = candidates.get(0);
+        if (callee.isConstructMethod() || callee.isStaticMethod() != isStatic
+                || callee.getParams().size() != call.getArguments().size()
+                || callee.getInstructions().size() > MAX_INSTRUCTIONS) {
+            return null;
+        }
+
+        return callee;
+    }
+
+    /**
+     * Replaces the call at the index, which must not be the last instruction, by the code of the called method.
+     */
+    private void inline(Method method, int index, Method callee) {
+        var instructions = method.getInstructions();
+        var site = instructions.get(index);
+        var call = getCall(site);
+        var next = instructions.get(index + 1);
+
+        int number = newNumber(method);
+        var copy = new Copy("inline" + number + "_");
+        var code = new ArrayList<Instruction>();
+
+        var assigned = new HashSet<String>();
+        for (var instruction : callee.getInstructions()) {
+            if (instruction instanceof AssignInstruction assign && !(assign.getDest() instanceof ArrayOperand)) {
+                assigned.add(((Operand) assign.getDest()).getName());
+            }
+        }
+
+        for (int i = 0; i < callee.getParams().size(); i++) {
+            var param = (Operand) callee.getParams().get(i);
+            var arg = call.getArguments().get(i);
+
+            if (assigned.contains(param.getName()) || arg instanceof ArrayOperand) {
+                var local = copy.rename(param.getName());
+                OptUtils.addLocal(method, local, param.getType());
+                code.add(new AssignInstruction(new Operand(local, param.getType()), param.getType(),
+                        new SingleOpInstruction(duplicate(arg))));
+            } else {
+                copy.replace(param.getName(), arg);
+            }
+        }
+
+        for (var entry : callee.getVarTable().entrySet()) {
+            var name = entry.getKey();
+            if (entry.getValue().getScope() == VarScope.LOCAL && !copy.replaces(name) && !name.equals("this")
+                    && !name.equals(ollirClass.getClassName()) && !ollirClass.isImportedClass(name)) {
+                OptUtils.addLocal(method, copy.rename(name), entry.getValue().getVarType());
+            }
+        }
+
+        // The value of a call whose result is not used is still assigned, for dead code elimination to remove
+        Element dest = null;
+        var returnType = callee.getReturnType();
+        if (site instanceof AssignInstruction assign) {
+            dest = assign.getDest();
+            returnType = assign.getTypeOfAssign();
+        } else if (returnType.getTypeOfElement() != ElementType.VOID) {
+            var result = "inlineResult" + number;
+            OptUtils.addLocal(method, result, returnType);
+            dest = new Operand(result, returnType);
+        }
+
+        var end = "inlineEnd" + number;
+        boolean jumpsToEnd = false;
+
+        // The copy of each instruction of the method that starts with it, for its labels
+        var copies = new IdentityHashMap<Instruction, Instruction>();
+        var body = callee.getInstructions();
+        for (int i = 0; i < body.size(); i++) {
+            var instruction = body.get(i);
+            int start = code.size();
+
+            if (instruction instanceof ReturnInstruction ret) {
+                if (ret.hasReturnValue() && dest != null) {
+                    code.add(new AssignInstruction(duplicate(dest), returnType,
+                            new SingleOpInstruction(copy.copy(ret.getOperand()))));
+                }
+                if (i + 1 < body.size()) {
+                    code.add(new GotoInstruction(end));
+                    jumpsToEnd = true;
+                }
+            } else {
+                code.add(copy.copy(instruction));
+            }
+
+            copies.put(instruction, start < code.size() ? code.get(start) : next);
+        }
+
+        callee.getLabels().forEach((label, instruction) ->
+                method.getLabels().put(copy.label(label), copies.getOrDefault(instruction, next)));
+        if (jumpsToEnd) {
+            method.getLabels().put(end, next);
+        }
+
+        instructions.remove(index);
+        instructions.addAll(index, code);
+        var first = code.isEmpty() ? next : code.get(0);
+        method.getLabels().replaceAll((label, instruction) -> instruction == site ? first : instruction);
+    }
+
+    /**
+     * @return a number for the names of an inlined call, such that no variable or label of the method starts with
+     * its prefix, nor has its result or end names
+     */
+    private static int newNumber(Method method) {
+        for (int i = 1; ; i++) {
+            var prefix = "inline" + i + "_";
+            var result = "inlineResult" + i;
+            var end = "inlineEnd" + i;
+            if (method.getVarTable().keySet().stream().noneMatch(name -> name.startsWith(prefix))
+                    && method.getLabels().keySet().stream().noneMatch(label -> label.startsWith(prefix))
+                    && !method.getVarTable().containsKey(result) && !method.getLabels().containsKey(end)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * @return the call the instruction makes, by itself or as the right-hand side of an assignment, or null
+     */
+    private static CallInstruction getCall(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign) {
+            instruction = assign.getRhs();
+        }
+
+        return instruction instanceof CallInstruction call ? call : null;
+    }
+
+    private boolean isCallToClass(CallInstruction call) {
+        if (call.getInvocationType() == CallType.invokestatic) {
+            return call.getCaller() instanceof Operand caller && caller.getName().equals(ollirClass.getClassName());
+        }
+
+        return call.getInvocationType() == CallType.invokevirtual
+                && call.getCaller().getType() instanceof ClassType type
+                && (type.getTypeOfElement() == ElementType.THIS || type.getName().equals(ollirClass.getClassName()));
+    }
+
+    private static String getMethodName(CallInstruction call) {
+        // The name is a string literal, with its quotes
+        return ((LiteralElement) call.getMethodName()).getLiteral().replace("\"", "");
+    }
+
+    private static Element duplicate(Element element) {
+        if (element instanceof LiteralElement literal) {
+            return new LiteralElement(literal.getLiteral(), literal.getType());
+        }
+
+        var operand = (Operand) element;
+        Operand duplicate;
+        if (operand instanceof ArrayOperand array) {
+            var indexes = new ArrayList<Element>();
+            for (var index : array.getIndexOperands()) {
+                indexes.add(duplicate(index));
+            }
+            duplicate = new ArrayOperand(array.getName(), array.getType(), indexes);
+        } else {
+            duplicate = new Operand(operand.getName(), operand.getType());
+        }
+
+        if (operand.isParameter()) {
+            duplicate.setParamId(operand.getParamId());
+        }
+
+        return duplicate;
+    }
+
+    /**
+     * Copies the instructions of an inlined method, renaming its local variables and labels and replacing its
+     * parameters.
+     */
+    private static class Copy {
+
+        private final String prefix;
+
+        private final Map<String, String> renamed = new HashMap<>();
+
+        private final Map<String, Element> replaced = new HashMap<>();
+
+        private Copy(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /**
+         * @return the new name of the variable
+         */
+        private String rename(String name) {
+            return renamed.computeIfAbsent(name, old -> prefix + old);
+        }
+
+        private void replace(String name, Element element) {
+            replaced.put(name, element);
+        }
+
+        private boolean replaces(String name) {
+            return replaced.containsKey(name) || renamed.containsKey(name);
+        }
+
+        private String label(String label) {
+            return prefix + label;
+        }
+
+        private Instruction copy(Instruction instruction) {
+            switch (instruction.getInstType()) {
+                case ASSIGN -> {
+                    var assign = (AssignInstruction) instruction;
+                    return new AssignInstruction(copy(assign.getDest()), assign.getTypeOfAssign(),
+                            copy(assign.getRhs()));
+                }
+                case CALL -> {
+                    var call = (CallInstruction) instruction;
+                    var args = new ArrayList<Element>();
+                    for (var arg : call.getArguments()) {
+                        args.add(copy(arg));
+                    }
+                    return new CallInstruction(call.getInvocationType(), copy(call.getCaller()),
+                            call.getMethodNameTry().map(MethodInlining::duplicate).orElse(null), args,
+                            call.getReturnType(), call.isIsolated());
+                }
+                case GOTO -> {
+                    return new GotoInstruction(label(((GotoInstruction) instruction).getLabel()));
+                }
+                case BRANCH -> {
+                    var branch = (CondBranchInstruction) instruction;
+                    var condition = copy(branch.getCondition());
+                    CondBranchInstruction copy = condition instanceof SingleOpInstruction singleOp
+                            ? new SingleOpCondInstruction(singleOp)
+                            : new OpCondInstruction((OpInstruction) condition);
+                    copy.setLabel(label(branch.getLabel()));
+                    return copy;
+                }
+                case PUTFIELD -> {
+                    var putField = (PutFieldInstruction) instruction;
+                    return new PutFieldInstruction((Operand) copy(putField.getObject()),
+                            (Operand) duplicate(putField.getField()), copy(putField.getValue()),
+                            putField.getFieldType());
+                }
+                case GETFIELD -> {
+                    var getField = (GetFieldInstruction) instruction;
+                    return new GetFieldInstruction((Operand) copy(getField.getObject()),
+                            (Operand) duplicate(getField.getField()), getField.getFieldType());
+                }
+                case UNARYOPER -> {
+                    var unaryOp = (UnaryOpInstruction) instruction;
+                    return new UnaryOpInstruction(copy(unaryOp.getOperation()), copy(unaryOp.getOperand()));
+                }
+                case BINARYOPER -> {
+                    var binaryOp = (BinaryOpInstruction) instruction;
+                    return new BinaryOpInstruction(copy(binaryOp.getLeftOperand()), copy(binaryOp.getOperation()),
+                            copy(binaryOp.getRightOperand()));
+                }
+                case NOPER -> {
+                    return new SingleOpInstruction(copy(((SingleOpInstruction) instruction).getSingleOperand()));
+                }
+                default -> throw new RuntimeException("Cannot inline instruction of type '"
+                        + instruction.getInstType() + "'");
+            }
+        }
+
+        private static Operation copy(Operation operation) {
+            return new Operation(operation.getOpType(), operation.getTypeInfo());
+        }
+
+        private Element copy(Element element) {
+            if (element instanceof LiteralElement) {
+                return duplicate(element);
+            }
+
+            var operand = (Operand) element;
+            var replacement = replaced.get(operand.getName());
+            var name = renamed.getOrDefault(operand.getName(), operand.getName());
+
+            if (operand instanceof ArrayOperand array) {
+                var indexes = new ArrayList<Element>();
+                for (var index : array.getIndexOperands()) {
+                    indexes.add(copy(index));
+                }
+
+                // An array parameter is only replaced by a variable
+                var copy = new ArrayOperand(replacement != null ? ((Operand) replacement).getName() : name,
+                        array.getType(), indexes);
+                if (replacement instanceof Operand parameter && parameter.isParameter()) {
+                    copy.setParamId(parameter.getParamId());
+                }
+                return copy;
+            }
+
+            if (replacement != null) {
+                return duplicate(replacement);
+            }
+
+            var copy = new Operand(name, operand.getType());
+            if (operand.isParameter() && !renamed.containsKey(operand.getName())) {
+                copy.setParamId(operand.getParamId());
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Method;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Append-only sequence of OLLIR instructions and labels, built by the OLLIR generators.
+ * <p>
+ * Appending another OllirCode only links it, without copying its instructions, so code built bottom-up (expressions,
+ * then statements, then methods) is only copied once, when the whole sequence is added to its method. A label marks
+ * the instruction that follows it.
+ * <p>
+ * A sequence must not be modified after being appended to another one.
+ */
+public class OllirCode {
+
+    private record Label(String name) {
+    }
+
+    // Each part is either an Instruction, a Label or another OllirCode
+    private final List<Object> parts = new ArrayList<>();
+    private int length = 0;
+
+    public OllirCode() {
+    }
+
+    public OllirCode(Instruction instruction) {
+        append(instruction);
+    }
+
+    public OllirCode append(Instruction instruction) {
+        parts.add(instruction);
+        length += 1;
+
+        return this;
+    }
+
+    public OllirCode appendLabel(String label) {
+        parts.add(new Label(label));
+        length += 1;
+
+        return this;
+    }
+
+    public OllirCode append(OllirCode code) {
+        if (code.length == 0) {
+            return this;
+        }
+
+        parts.add(code);
+        length += code.length;
+
+        return this;
+    }
+
+    /**
+     * @return the number of instructions and labels of the code
+     */
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Adds the instructions to the end of the given method, in a single pass, and the labels to the instructions that
+     * follow them.
+     */
+    public void writeTo(Method method) {
+        // Explicit stack instead of recursion, since sequences are nested as deeply as the AST
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+
+        List<String> labels = new ArrayList<>();
+
+        while (!pending.isEmpty()) {
+            var part = pending.pop();
+
+            if (part instanceof OllirCode code) {
+                for (int i = code.parts.size() - 1; i >= 0; i--) {
+                    pending.push(code.parts.get(i));
+                }
+            } else if (part instanceof Label label) {
+                labels.add(label.name());
+            } else {
+                var instruction = (Instruction) part;
+                for (var label : labels) {
+                    method.addLabel(label, instruction);
+                }
+                labels.clear();
+
+                method.addInstr(instruction);
+            }
+        }
+
+        if (!labels.isEmpty()) {
+            throw new RuntimeException("Labels " + labels + " of method '" + method.getMethodName()
+                    + "' are not followed by an instruction");
+        }
+    }
+}
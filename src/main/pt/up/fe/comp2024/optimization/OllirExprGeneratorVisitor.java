@@ -1,30 +1,45 @@
 package pt.up.fe.comp2024.optimization;
 
-import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import org.specs.comp.ollir.ClassType;
+import org.specs.comp.ollir.Element;
+import org.specs.comp.ollir.ElementType;
+import org.specs.comp.ollir.Operand;
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
-import pt.up.fe.comp.jmm.ast.PreorderJmmVisitor;
+import pt.up.fe.comp.jmm.ast.AJmmVisitor;
 import pt.up.fe.comp2024.ast.TypeUtils;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import static pt.up.fe.comp2024.ast.Kind.*;
 
 /**
- * Generates OLLIR code from JmmNodes that are expressions.
+ * Generates the OLLIR instructions of JmmNodes that are expressions.
+ * <p>
+ * Each visit method visits the children it needs itself, so nodes are not visited automatically.
+ * <p>
+ * '&&' and '||' are short-circuited: their right operand is only computed if the left one does not decide the result.
+ * Conditions of statements are generated with {@link #branchIfTrue} and {@link #branchIfFalse}, as jumps to the code
+ * that runs in each case, and the value of '&&' and '||' elsewhere is stored in a temp by each path.
  */
-public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExprResult> {
+public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult> {
 
-    private static final String SPACE = " ";
-    private static final String ASSIGN = ":=";
-    private final String END_STMT = ";\n";
+    private static final org.specs.comp.ollir.Type INT_TYPE = new org.specs.comp.ollir.Type(ElementType.INT32);
+
+    private static final Map<String, String> NEGATED_COMPARISONS = Map.of(
+            "<", ">=", ">=", "<", ">", "<=", "<=", ">", "==", "!=", "!=", "==");
 
     private final SymbolTable table;
 
-    public OllirExprGeneratorVisitor(SymbolTable table) {
+    private final OllirIrBuilder builder;
+
+    public OllirExprGeneratorVisitor(SymbolTable table, OllirIrBuilder builder) {
         this.table = table;
+        this.builder = builder;
     }
 
     @Override
@@ -47,101 +62,108 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
 
     private OllirExprResult visitInteger(JmmNode node, Void unused) {
         var intType = new Type(TypeUtils.getIntTypeName(), false);
-        String ollirIntType = OptUtils.toOllirType(intType);
-        String code = node.get("value") + ollirIntType;
-        return new OllirExprResult(code);
+        var ollirIntType = OptUtils.toOllirType(intType);
+        return new OllirExprResult(OllirIrBuilder.literal(node.get("value"), ollirIntType));
     }
 
     private OllirExprResult visitBoolean(JmmNode node, Void unused) {
         var boolType = new Type(TypeUtils.getBooleanTypeName(), false);
-        String ollirIntType = OptUtils.toOllirType(boolType);
+        var ollirBoolType = OptUtils.toOllirType(boolType);
         String value = node.get("value");
         if (Objects.equals(value, "true")) {
             value = "1";
         } else if (Objects.equals(value, "false")) {
             value = "0";
         }
-        String code = value + ollirIntType;
-        return new OllirExprResult(code);
+        return new OllirExprResult(OllirIrBuilder.literal(value, ollirBoolType));
     }
 
     private OllirExprResult visitNewArray(JmmNode node, Void unused) {
-        String ollirType = ".array" + OptUtils.toOllirType(node.getJmmChild(0));
+        var ollirType = OptUtils.toOllirArrayType(OptUtils.toOllirType(node.getJmmChild(0)));
 
-        String code = OptUtils.getTemp() + ollirType;
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), ollirType);
 
-        StringBuilder computation = new StringBuilder();
+        OllirCode computation = new OllirCode();
 
-        computation.append(code).append(SPACE)
-                .append(ASSIGN).append(ollirType).append(SPACE).append("new(array, ").append(visit(node.getJmmChild(1)).getCode())
-                .append(")").append(ollirType).append(END_STMT);
+        computation.append(OllirIrBuilder.assign(temp, ollirType,
+                OllirIrBuilder.newArray(ollirType, visit(node.getJmmChild(1)).getElement())));
 
-        return new OllirExprResult(code, computation);
+        return new OllirExprResult(temp, computation);
     }
 
     private OllirExprResult visitArrayExpr(JmmNode node, Void unused) {
-        String ollirType = OptUtils.toOllirType(TypeUtils.getExprType(node.getJmmChild(0), table));
-        String ollirArrayType = ".array" + ollirType;
+        var ollirType = OptUtils.toOllirType(TypeUtils.getExprType(node.getJmmChild(0), table));
+        var ollirArrayType = OptUtils.toOllirArrayType(ollirType);
 
-        String code = OptUtils.getTemp() + ollirArrayType;
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), ollirArrayType);
 
-        StringBuilder computation = new StringBuilder();
+        OllirCode computation = new OllirCode();
 
-        computation.append(code).append(SPACE)
-                .append(ASSIGN).append(ollirArrayType).append(SPACE).append("new(array, ")
-                .append(node.getChildren().size()).append(".i32)").append(ollirArrayType).append(END_STMT);
+        var size = OllirIrBuilder.literal(Integer.toString(node.getChildren().size()), INT_TYPE);
+        computation.append(OllirIrBuilder.assign(temp, ollirArrayType, OllirIrBuilder.newArray(ollirArrayType, size)));
 
         for (int i = 0; i < node.getChildren().size(); i++) {
             var arrayValue = visit(node.getJmmChild(i));
 
-            computation.append(arrayValue.getComputation()).append(code).append("[").append(i).append(".i32]")
-                    .append(ollirType).append(SPACE).append(ASSIGN).append(ollirType).append(SPACE).append(arrayValue.getCode())
-                    .append(END_STMT);
+            var element = OllirIrBuilder.arrayOperand(temp.getName(), ollirType,
+                    OllirIrBuilder.literal(Integer.toString(i), INT_TYPE));
+
+            computation.append(arrayValue.getComputation())
+                    .append(OllirIrBuilder.assign(element, ollirType, arrayValue.getElement()));
         }
 
-        return new OllirExprResult(code, computation);
+        return new OllirExprResult(temp, computation);
     }
 
     private OllirExprResult visitLengthExpr(JmmNode node, Void unused) {
         Type type = TypeUtils.getExprType(node, table);
-        String ollirType = OptUtils.toOllirType(type);
+        var ollirType = OptUtils.toOllirType(type);
 
-        String code = OptUtils.getTemp() + ollirType;
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), ollirType);
 
-        StringBuilder computation = new StringBuilder();
+        OllirCode computation = new OllirCode();
 
-        computation.append(code).append(SPACE)
-                .append(ASSIGN).append(ollirType).append(SPACE).append("arraylength(")
-                .append(visit(node.getJmmChild(0)).getCode()).append(")").append(ollirType).append(END_STMT);
+        computation.append(OllirIrBuilder.assign(temp, ollirType,
+                OllirIrBuilder.arrayLength(visit(node.getJmmChild(0)).getElement(), ollirType)));
 
-        return new OllirExprResult(code, computation);
+        return new OllirExprResult(temp, computation);
     }
 
     private OllirExprResult visitAccExpr(JmmNode node, Void unused) {
         Type type = TypeUtils.getExprType(node.getJmmChild(0), table);
-        String ollirType = OptUtils.toOllirType(new Type(type.getName(), false));
+        var ollirType = OptUtils.toOllirType(new Type(type.getName(), false));
 
         var n = visit(node.getJmmChild(1));
 
-        String code = OptUtils.getTemp() + ollirType;
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), ollirType);
 
-        StringBuilder computation = new StringBuilder();
+        OllirCode computation = new OllirCode();
 
-        computation.append(n.getComputation()).append(code).append(SPACE)
-                .append(ASSIGN).append(ollirType).append(SPACE).append(node.getJmmChild(0).get("name"))
-                .append(ollirType).append(".array").append("[").append(n.getCode()).append("]").append(ollirType)
-                .append(END_STMT);
+        var element = OllirIrBuilder.arrayOperand(node.getJmmChild(0).get("name"), ollirType, n.getElement());
+        computation.append(n.getComputation())
+                .append(OllirIrBuilder.assign(temp, ollirType, element));
 
-        return new OllirExprResult(code, computation);
+        return new OllirExprResult(temp, computation);
     }
 
 
     private OllirExprResult visitBinExpr(JmmNode node, Void unused) {
+        var op = node.get("op");
+        if (op.equals("&&") || op.equals("||")) {
+            return visitShortCircuit(node, op.equals("&&"));
+        }
 
+        return binaryOp(node, op);
+    }
+
+    /**
+     * @param op the operator applied to the operands of the node, which may differ from its own
+     */
+    private OllirExprResult binaryOp(JmmNode node, String op) {
         var lhs = visit(node.getJmmChild(0));
         var rhs = visit(node.getJmmChild(1));
 
-        StringBuilder computation = new StringBuilder();
+        OllirCode computation = new OllirCode();
 
         // code to compute the children
         computation.append(lhs.getComputation());
@@ -149,34 +171,155 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
 
         // code to compute self
         Type resType = TypeUtils.getExprType(node, table);
-        String resOllirType = OptUtils.toOllirType(resType);
-        String code = OptUtils.getTemp() + resOllirType;
+        var resOllirType = OptUtils.toOllirType(resType);
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), resOllirType);
 
-        computation.append(code).append(SPACE)
-                .append(ASSIGN).append(resOllirType).append(SPACE)
-                .append(lhs.getCode()).append(SPACE);
+        computation.append(OllirIrBuilder.assign(temp, resOllirType,
+                OllirIrBuilder.binaryOp(lhs.getElement(), op, resOllirType, rhs.getElement())));
 
-        Type type = TypeUtils.getExprType(node, table);
-        computation.append(node.get("op")).append(OptUtils.toOllirType(type)).append(SPACE)
-                .append(rhs.getCode()).append(END_STMT);
+        return new OllirExprResult(temp, computation);
+    }
+
+    /**
+     * The temp is 0 if the left operand of '&&' is false, and 1 if the left operand of '||' is true, and the value of
+     * the right operand otherwise.
+     */
+    private OllirExprResult visitShortCircuit(JmmNode node, boolean isAnd) {
+        int num = OptUtils.getNextShortCircuitNum();
+        var prefix = isAnd ? "and" : "or";
+        var trueLabel = prefix + "True" + num;
+        var endLabel = prefix + "End" + num;
+
+        var boolType = OptUtils.toOllirType(new Type(TypeUtils.getBooleanTypeName(), false));
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), boolType);
+
+        var lhs = visit(node.getJmmChild(0));
+        var rhs = visit(node.getJmmChild(1));
+
+        OllirCode rhsCode = new OllirCode();
+        rhsCode.append(rhs.getComputation());
+        rhsCode.append(OllirIrBuilder.assign(temp, boolType, rhs.getElement()));
+
+        OllirCode whenFalse;
+        OllirCode whenTrue;
+        if (isAnd) {
+            whenFalse = new OllirCode(OllirIrBuilder.assign(temp, boolType, OllirIrBuilder.literal("0", boolType)));
+            whenTrue = rhsCode;
+        } else {
+            whenFalse = rhsCode;
+            whenTrue = new OllirCode(OllirIrBuilder.assign(temp, boolType, OllirIrBuilder.literal("1", boolType)));
+        }
+
+        OllirCode computation = new OllirCode();
+        computation.append(lhs.getComputation());
+        computation.append(OllirIrBuilder.branch(lhs.getElement(), trueLabel));
+        computation.append(whenFalse);
+        computation.append(OllirIrBuilder.jump(endLabel));
+        computation.appendLabel(trueLabel);
+        computation.append(whenTrue);
+        computation.appendLabel(endLabel);
+
+        return new OllirExprResult(temp, computation);
+    }
+
+    /**
+     * Generates a condition as jumps: the code jumps to the label if the condition is true, and otherwise continues
+     * after it. Operands of '&&' and '||' that do not decide the result are not computed, and '!' only swaps the
+     * cases.
+     */
+    public OllirCode branchIfTrue(JmmNode condition, String label) {
+        if (PAREN_EXPR.check(condition)) {
+            return branchIfTrue(condition.getJmmChild(0), label);
+        }
+
+        if (NOT_EXPR.check(condition)) {
+            return branchIfFalse(condition.getJmmChild(0), label);
+        }
+
+        OllirCode code = new OllirCode();
+
+        if (isShortCircuit(condition, "||")) {
+            code.append(branchIfTrue(condition.getJmmChild(0), label));
+            code.append(branchIfTrue(condition.getJmmChild(1), label));
+            return code;
+        }
+
+        if (isShortCircuit(condition, "&&")) {
+            var falseLabel = "andFalse" + OptUtils.getNextShortCircuitNum();
+            code.append(branchIfFalse(condition.getJmmChild(0), falseLabel));
+            code.append(branchIfTrue(condition.getJmmChild(1), label));
+            code.appendLabel(falseLabel);
+            return code;
+        }
+
+        var value = visit(condition);
+        code.append(value.getComputation());
+        code.append(OllirIrBuilder.branch(value.getElement(), label));
+
+        return code;
+    }
+
+    /**
+     * Same as {@link #branchIfTrue}, but jumps to the label if the condition is false.
+     */
+    public OllirCode branchIfFalse(JmmNode condition, String label) {
+        if (PAREN_EXPR.check(condition)) {
+            return branchIfFalse(condition.getJmmChild(0), label);
+        }
+
+        if (NOT_EXPR.check(condition)) {
+            return branchIfTrue(condition.getJmmChild(0), label);
+        }
+
+        OllirCode code = new OllirCode();
+
+        if (isShortCircuit(condition, "&&")) {
+            code.append(branchIfFalse(condition.getJmmChild(0), label));
+            code.append(branchIfFalse(condition.getJmmChild(1), label));
+            return code;
+        }
+
+        if (isShortCircuit(condition, "||")) {
+            var trueLabel = "orTrue" + OptUtils.getNextShortCircuitNum();
+            code.append(branchIfTrue(condition.getJmmChild(0), trueLabel));
+            code.append(branchIfFalse(condition.getJmmChild(1), label));
+            code.appendLabel(trueLabel);
+            return code;
+        }
+
+        // OLLIR only branches if a condition is true, so the negated condition is tested, with a single branch
+        OllirExprResult negated;
+        if (BINARY_EXPR.check(condition) && NEGATED_COMPARISONS.containsKey(condition.get("op"))) {
+            negated = binaryOp(condition, NEGATED_COMPARISONS.get(condition.get("op")));
+        } else {
+            negated = not(visit(condition));
+        }
+
+        code.append(negated.getComputation());
+        code.append(OllirIrBuilder.branch(negated.getElement(), label));
+
+        return code;
+    }
 
-        return new OllirExprResult(code, computation);
+    private static boolean isShortCircuit(JmmNode expr, String op) {
+        return BINARY_EXPR.check(expr) && expr.get("op").equals(op);
     }
 
     private OllirExprResult visitNotExpr(JmmNode node, Void unused) {
-        var child = visit(node.getJmmChild(0));
+        return not(visit(node.getJmmChild(0)));
+    }
 
-        StringBuilder computation = new StringBuilder();
+    private OllirExprResult not(OllirExprResult child) {
+        OllirCode computation = new OllirCode();
 
         computation.append(child.getComputation());
 
-        String code = OptUtils.getTemp() + ".bool";
+        var boolType = OptUtils.toOllirType(new Type(TypeUtils.getBooleanTypeName(), false));
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), boolType);
 
-        computation.append(code).append(SPACE)
-                .append(ASSIGN).append(".bool").append(SPACE)
-                .append("!.bool").append(SPACE).append(child.getCode()).append(END_STMT);
+        computation.append(OllirIrBuilder.assign(temp, boolType, OllirIrBuilder.not(child.getElement())));
 
-        return new OllirExprResult(code, computation);
+        return new OllirExprResult(temp, computation);
     }
 
 
@@ -184,29 +327,40 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
 
         var id = node.get("name");
         Type type = TypeUtils.getExprType(node, table);
-        String ollirType = OptUtils.toOllirType(type);
-
-        var method = node.getParent();
-        while (method != null) {
-            if (method.getKind().equals("MethodDecl")) {
-                var methodName = method.get("name");
-                var paramNum = 1;
-                for (Symbol param : table.getParameters(methodName)) {
-                    if (Objects.equals(param.getName(), id)) {
-                        String code = "$" + paramNum + "." + id + ollirType;
-
-                        return new OllirExprResult(code);
-                    }
-                    paramNum++;
-                }
-                break;
-            }
-            method = method.getParent();
+        var ollirType = OptUtils.toOllirType(type);
+
+        var symbol = TypeUtils.lookUpSymbol(id, node, table);
+        if (symbol.isPresent() && symbol.get().isParameter()) {
+            return new OllirExprResult(OllirIrBuilder.paramOperand(id, ollirType, symbol.get().paramIndex()));
         }
 
-        String code = id + ollirType;
+        return new OllirExprResult(OllirIrBuilder.operand(id, ollirType));
+    }
+
+    /**
+     * Stores the arguments of the call from the index on in a new array, for a parameter with variable arguments.
+     *
+     * @return the array
+     */
+    private Element packVarargs(JmmNode call, int first, Type paramType, OllirCode computation) {
+        var elementType = OptUtils.toOllirType(new Type(paramType.getName(), false));
+        var arrayType = OptUtils.toOllirArrayType(elementType);
+
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), arrayType);
+        var size = OllirIrBuilder.literal(Integer.toString(call.getNumChildren() - first), INT_TYPE);
+        computation.append(OllirIrBuilder.assign(temp, arrayType, OllirIrBuilder.newArray(arrayType, size)));
+
+        for (int i = first; i < call.getNumChildren(); i++) {
+            var argCode = visit(call.getJmmChild(i));
 
-        return new OllirExprResult(code);
+            var element = OllirIrBuilder.arrayOperand(temp.getName(), elementType,
+                    OllirIrBuilder.literal(Integer.toString(i - first), INT_TYPE));
+
+            computation.append(argCode.getComputation())
+                    .append(OllirIrBuilder.assign(element, elementType, argCode.getElement()));
+        }
+
+        return temp;
     }
 
     private OllirExprResult visitFuncExpr(JmmNode node, Void unused) {
@@ -216,9 +370,8 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
         String functionName = classAndFuncNames.get(1);
 
 
-        StringBuilder code = new StringBuilder();
-        StringBuilder computation = new StringBuilder();
-        StringBuilder funcParamsCode = new StringBuilder();
+        OllirCode computation = new OllirCode();
+        List<Element> args = new ArrayList<>();
 
         var importedLib = false;
         for (var importLib : table.getImports()) {
@@ -248,158 +401,146 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
         if (declaredMethod) {
             var defParams = table.getParameters(functionName);
             for (int i = 1; i < node.getNumChildren(); i++) {
-                var child = node.getJmmChild(i);
-                var childCode = visit(child);
-
                 var varargsParam = i <= defParams.size() && defParams.get(i - 1).getType().hasAttribute("vargs");
-                var ollirType = OptUtils.toOllirType(table.getReturnType(functionName));
-                var ollirArrayType = ".array" + ollirType;
-
-                if (varargsParam) {
-                    var temp = OptUtils.getTemp() + ollirArrayType;
-                    computation.append(temp).append(SPACE)
-                            .append(ASSIGN).append(ollirArrayType).append(SPACE).append("new(array, ")
-                            .append(visit(node.getJmmChild(1)).getCode())
-                            .append(")").append(ollirArrayType).append(END_STMT);
-
-                    for (int j = i; j < node.getNumChildren(); j++) {
-                        var varargsChild = node.getJmmChild(j);
-                        var varargsChildCode = visit(varargsChild);
-
-                        computation.append(varargsChildCode.getComputation()).append(temp).append("[")
-                                .append(j).append(".i32]").append(ollirType).append(SPACE)
-                                .append(ASSIGN).append(ollirType).append(SPACE).append(varargsChildCode.getCode())
-                                .append(END_STMT);
-                    }
 
-                    funcParamsCode.append(", ");
-                    funcParamsCode.append(temp);
+                // An array given in place of the variable arguments is passed as is
+                var passesArray = i == node.getNumChildren() - 1
+                        && TypeUtils.getExprType(node.getJmmChild(i), table).isArray();
 
+                if (varargsParam && !passesArray) {
+                    args.add(packVarargs(node, i, defParams.get(i - 1).getType(), computation));
                     break;
                 }
 
-                funcParamsCode.append(", ");
-                funcParamsCode.append(childCode.getCode());
-                code.append(childCode.getComputation());
+                var childCode = visit(node.getJmmChild(i));
+                args.add(childCode.getElement());
+                computation.append(childCode.getComputation());
             }
         } else {
             for (int i = 1; i < node.getNumChildren(); i++) {
                 var child = node.getJmmChild(i);
                 var childCode = visit(child);
-                funcParamsCode.append(", ");
-                funcParamsCode.append(childCode.getCode());
-                code.append(childCode.getComputation());
+                args.add(childCode.getElement());
+                computation.append(childCode.getComputation());
             }
         }
 
+        // A call that is a statement by itself has no value
+        var isStatement = Objects.equals(node.getParent().getKind(), "ExprStmt");
+
         if (importedLib) {
-            code.append("invokestatic(");
-            code.append(libName);
-            code.append(", \"");
-            code.append(functionName);
-            code.append("\"");
-            code.append(funcParamsCode);
-            if (Objects.equals(node.getParent().getKind(), "AssignStmt")) {
-                var parentType = TypeUtils.getTypeFromString(node.getParent().get("name"), node.getParent(), table);
-                String parentTypeString = OptUtils.toOllirType(parentType);
-                code.append(parentTypeString);
-            } else if (Objects.equals(node.getParent().getKind(), "AssignStmt")) {
+            var caller = builder.staticCaller(libName);
 
-            } else {
-                code.append(").V");
-                code.append(END_STMT);
+            if (isStatement) {
+                computation.append(OllirIrBuilder.invokeStatic(caller, functionName, args,
+                        OptUtils.toOllirType(new Type("void", false)), true));
+
+                return new OllirExprResult(null, computation);
             }
+
+            var resOllirType = getCallResultType(node);
+            var temp = OllirIrBuilder.operand(OptUtils.getTemp(), resOllirType);
+
+            computation.append(OllirIrBuilder.assign(temp, resOllirType,
+                    OllirIrBuilder.invokeStatic(caller, functionName, args, resOllirType, false)));
+
+            return new OllirExprResult(temp, computation);
+        }
+
+        Type classType = TypeUtils.getClassFromClassChain(classChainExpr, table);
+        var classOllirType = OptUtils.toOllirType(classType);
+
+        Operand caller;
+        if (libName.equals("this")) {
+            var className = classOllirType instanceof ClassType ollirClass ? ollirClass.getName() : table.getClassName();
+            caller = OllirIrBuilder.thisOperand(className);
         } else {
-            Type classType = TypeUtils.getClassFromClassChain(classChainExpr, table);
-            String classOllirType = OptUtils.toOllirType(classType);
-
-            if (Objects.equals(node.getParent().getKind(), "ExprStmt")) {
-                Type resType = TypeUtils.getExprType(node, table);
-                String resOllirType = OptUtils.toOllirType(resType);
-
-                code.append("invokevirtual(");
-                code.append(libName);
-                code.append(classOllirType);
-                code.append(", \"");
-                code.append(functionName);
-                code.append("\"");
-                code.append(funcParamsCode);
-                code.append(")");
-                code.append(resOllirType);
-                code.append(END_STMT);
-            } else {
-                var parent = node.getParent();
-                if (Objects.equals(node.getParent().getKind(), "BinaryExpr")) {
-                    while (!Objects.equals(parent.getKind(), "AssignStmt")) {
-                        parent = parent.getParent();
-                    }
-                }
-                var parentTypeString = "";
-                if (Objects.equals(node.getParent().getKind(), "AccExpr")) {
-                    parentTypeString = OptUtils.toOllirType(TypeUtils.getExprType(parent, table));
-                } else if (Objects.equals(node.getParent().getKind(), "FuncExpr")) {
-                    parentTypeString = OptUtils.toOllirType(table.getReturnType(node.getJmmChild(0).getObjectAsList("className", String.class).get(1)));
-                } else {
-                    parentTypeString = OptUtils.toOllirType(TypeUtils.getTypeFromString(parent.get("name"), node.getParent(), table));
-                }
+            caller = OllirIrBuilder.operand(libName, classOllirType);
+        }
+
+        if (isStatement) {
+            Type resType = TypeUtils.getExprType(node, table);
+            var resOllirType = OptUtils.toOllirType(resType);
+
+            computation.append(OllirIrBuilder.invokeVirtual(caller, functionName, args, resOllirType, true));
+
+            return new OllirExprResult(null, computation);
+        }
+
+        var resOllirType = getCallResultType(node);
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), resOllirType);
+
+        computation.append(OllirIrBuilder.assign(temp, resOllirType,
+                OllirIrBuilder.invokeVirtual(caller, functionName, args, resOllirType, false)));
 
-                String temp = OptUtils.getTemp();
-                code.append(temp).append(parentTypeString);
-
-                computation.append(code).append(SPACE)
-                        .append(ASSIGN).append(parentTypeString).append(SPACE);
-
-                computation.append("invokevirtual(");
-                computation.append(libName);
-                computation.append(classOllirType);
-                computation.append(", \"");
-                computation.append(functionName);
-                computation.append("\"");
-                computation.append(funcParamsCode);
-                computation.append(")");
-                computation.append(parentTypeString);
-                computation.append(END_STMT);
+        return new OllirExprResult(temp, computation);
+    }
+
+    /**
+     * Type of the value of a call that is not a statement by itself, taken from where the value is used.
+     */
+    private org.specs.comp.ollir.Type getCallResultType(JmmNode node) {
+        var parent = node.getParent();
+
+        // Operators and conditions only take values of one type
+        if (NOT_EXPR.check(parent) || IF_STMT.check(parent) || WHILE_STMT.check(parent)
+                || isShortCircuit(parent, "&&") || isShortCircuit(parent, "||")) {
+            return OptUtils.toOllirType(new Type(TypeUtils.getBooleanTypeName(), false));
+        }
+        if (BINARY_EXPR.check(parent) && List.of("+", "-", "*", "/", "<", "<=", ">", ">=").contains(parent.get("op"))) {
+            return INT_TYPE;
+        }
+
+        if (Objects.equals(node.getParent().getKind(), "BinaryExpr")) {
+            while (!Objects.equals(parent.getKind(), "AssignStmt")) {
+                parent = parent.getParent();
             }
         }
-        return new OllirExprResult(code.toString(), computation);
+
+        if (Objects.equals(node.getParent().getKind(), "AccExpr")) {
+            return OptUtils.toOllirType(TypeUtils.getExprType(parent, table));
+        } else if (Objects.equals(node.getParent().getKind(), "FuncExpr")) {
+            return OptUtils.toOllirType(table.getReturnType(node.getJmmChild(0).getObjectAsList("className", String.class).get(1)));
+        } else {
+            return OptUtils.toOllirType(TypeUtils.getTypeFromString(parent.get("name"), node.getParent(), table));
+        }
     }
 
     private OllirExprResult visitNewClassExpr(JmmNode node, Void unused) {
         String className = node.get("name");
 
-        String tmpClassInstance = OptUtils.getTemp();
-
-        StringBuilder code = new StringBuilder();
-        StringBuilder computation = new StringBuilder();
+        var classType = (ClassType) OptUtils.toOllirType(new Type(className, false));
+        var temp = OllirIrBuilder.operand(OptUtils.getTemp(), classType);
 
-        code.append(tmpClassInstance).append(".").append(className);
+        OllirCode computation = new OllirCode();
 
-        computation.append(code).append(SPACE).append(ASSIGN)
-                .append(".").append(className).append(SPACE).append("new(").append(className).append(").")
-                .append(className).append(END_STMT);
+        computation.append(OllirIrBuilder.assign(temp, classType, OllirIrBuilder.newObject(classType)));
 
-        return new OllirExprResult(code.toString(), computation);
+        return new OllirExprResult(temp, computation);
     }
 
 
     /**
-     * Default visitor. Visits every child node and return an empty result.
+     * Default visitor. Visits every child node and returns their computations, with the value of the last child that
+     * has one.
      *
      * @param node
      * @param unused
      * @return
      */
     private OllirExprResult defaultVisit(JmmNode node, Void unused) {
-        StringBuilder code = new StringBuilder();
-        StringBuilder computation = new StringBuilder();
+        Element element = null;
+        OllirCode computation = new OllirCode();
 
         for (var child : node.getChildren()) {
             OllirExprResult visitResult = visit(child);
-            code.append(visitResult.getCode());
+            if (visitResult.getElement() != null) {
+                element = visitResult.getElement();
+            }
             computation.append(visitResult.getComputation());
         }
 
-        return new OllirExprResult(code.toString(), computation);
+        return new OllirExprResult(element, computation);
     }
 
 }
@@ -1,38 +1,40 @@
 package pt.up.fe.comp2024.optimization;
 
+import org.specs.comp.ollir.Element;
+
 public class OllirExprResult {
 
-    public static final OllirExprResult EMPTY = new OllirExprResult("", "");
+    public static final OllirExprResult EMPTY = new OllirExprResult(null, new OllirCode());
 
-    private final String computation;
-    private final String code;
+    private final OllirCode computation;
+    private final Element element;
 
-    public OllirExprResult(String code, String computation) {
-        this.code = code;
+    /**
+     * @param element     the value of the expression, or null if it has none (e.g. a call used as a statement)
+     * @param computation the instructions that compute the value
+     */
+    public OllirExprResult(Element element, OllirCode computation) {
+        this.element = element;
         this.computation = computation;
     }
 
-    public OllirExprResult(String code) {
-        this(code, "");
-    }
-
-    public OllirExprResult(String code, StringBuilder computation) {
-        this(code, computation.toString());
+    public OllirExprResult(Element element) {
+        this(element, new OllirCode());
     }
 
-    public String getComputation() {
+    public OllirCode getComputation() {
         return computation;
     }
 
-    public String getCode() {
-        return code;
+    public Element getElement() {
+        return element;
     }
 
     @Override
     public String toString() {
         return "OllirNodeResult{" +
-                "computation='" + computation + '\'' +
-                ", code='" + code + '\'' +
+                "computation=" + computation.length() + " instructions" +
+                ", element='" + element + '\'' +
                 '}';
     }
 }
@@ -1,5 +1,9 @@
 package pt.up.fe.comp2024.optimization;
 
+import org.specs.comp.ollir.ClassUnit;
+import org.specs.comp.ollir.ElementType;
+import org.specs.comp.ollir.Method;
+import org.specs.comp.ollir.Operand;
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.AJmmVisitor;
@@ -7,31 +11,63 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.comp2024.ast.TypeUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinTask;
 
 import static pt.up.fe.comp2024.ast.Kind.*;
 
 /**
- * Generates OLLIR code from JmmNodes that are not expressions.
+ * Generates the OLLIR class of a program, from the JmmNodes that are not expressions.
+ * <p>
+ * Statements are visited into their instructions, and methods, fields and imports are added to the class with an
+ * {@link OllirIrBuilder}.
  */
-public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
+public class OllirGeneratorVisitor extends AJmmVisitor<Void, OllirCode> {
 
-    private static final String SPACE = " ";
-    private static final String ASSIGN = ":=";
-    private final String END_STMT = ";\n";
-    private final String NL = "\n";
-    private final String L_BRACKET = " {\n";
-    private final String R_BRACKET = "}\n";
+    private static final org.specs.comp.ollir.Type VOID_TYPE = new org.specs.comp.ollir.Type(ElementType.VOID);
 
 
     private final SymbolTable table;
 
+    private final OllirIrBuilder builder;
+
     private final OllirExprGeneratorVisitor exprVisitor;
 
+    private final boolean parallel;
+
     public OllirGeneratorVisitor(SymbolTable table) {
+        this(table, false);
+    }
+
+    /**
+     * @param parallel if true, the methods of the class are generated in parallel, each by its own visitor
+     */
+    public OllirGeneratorVisitor(SymbolTable table, boolean parallel) {
+        this(table, new OllirIrBuilder(table.getClassName(), getSuperClass(table)), parallel);
+    }
+
+    private OllirGeneratorVisitor(SymbolTable table, OllirIrBuilder builder, boolean parallel) {
         this.table = table;
-        exprVisitor = new OllirExprGeneratorVisitor(table);
+        this.builder = builder;
+        this.parallel = parallel;
+        exprVisitor = new OllirExprGeneratorVisitor(table, builder);
+    }
+
+    private static String getSuperClass(SymbolTable table) {
+        String superClass = table.getSuper();
+        return superClass.isEmpty() ? "Object" : superClass;
+    }
+
+    /**
+     * Builds the OLLIR class of a program.
+     */
+    public ClassUnit generate(JmmNode program) {
+        visit(program);
+
+        return builder.build();
     }
 
 
@@ -41,9 +77,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         addVisit(PROGRAM, this::visitProgram);
         addVisit(IMPORT_DECL, this::visitImportDecl);
         addVisit(CLASS_DECL, this::visitClass);
-        addVisit(METHOD_DECL, this::visitMethodDecl);
         addVisit(VAR_DECL, this::visitVarDecl);
-        addVisit(PARAM, this::visitParam);
         addVisit(RETURN_STMT, this::visitReturn);
         addVisit(ASSIGN_STMT, this::visitAssignStmt);
         addVisit(ASSIGN_STMT_ARRAY, this::visitAssignStmtArray);
@@ -53,103 +87,81 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         setDefaultVisit(this::defaultVisit);
     }
 
-    private String visitVarDecl(JmmNode node, Void unused) {
+    private OllirCode visitVarDecl(JmmNode node, Void unused) {
         String name = node.get("name");
-        String typeCode = OptUtils.toOllirType(node.getJmmChild(0));
+        var type = OptUtils.toOllirType(node.getJmmChild(0));
         String parent = node.getParent().getKind();
 
-        StringBuilder code = new StringBuilder();
-
         if (Objects.equals(parent, "ClassDecl")) {
-            code.append(".field public ");
-            code.append(name);
-            code.append(typeCode);
-            code.append(END_STMT);
+            builder.addField(name, type);
         }
 
-        return code.toString();
+        return new OllirCode();
     }
 
-    private String visitImportDecl(JmmNode node, Void unused) {
+    private OllirCode visitImportDecl(JmmNode node, Void unused) {
         List<String> names = node.getObjectAsList("value", String.class);
 
-        StringBuilder code = new StringBuilder();
+        builder.addImport(String.join(".", names));
 
-        code.append("import ");
-        for (int i = 0; i < names.size(); i++) {
-            if (i != 0) {
-                code.append(".");
-            }
-            code.append(names.get(i));
-        }
-        code.append(END_STMT);
-
-        return code.toString();
+        return new OllirCode();
     }
 
 
-    private String visitAssignStmt(JmmNode node, Void unused) {
+    private OllirCode visitAssignStmt(JmmNode node, Void unused) {
 
         var lhs = node.get("name");
         var rhs = exprVisitor.visit(node.getJmmChild(0));
 
-        StringBuilder code = new StringBuilder();
+        OllirCode code = new OllirCode();
 
         code.append(rhs.getComputation());
 
         Type thisType = TypeUtils.getTypeFromString(node.get("name"), node, table);
-        String typeString = OptUtils.toOllirType(thisType);
+        var type = OptUtils.toOllirType(thisType);
 
         if (Objects.equals(node.getJmmChild(0).getKind(), "NewClassExpr")) {
-            code.append("invokespecial(").append(rhs.getCode()).append(", \"<init>\").V").append(END_STMT);
+            code.append(OllirIrBuilder.invokeSpecial((Operand) rhs.getElement(), "<init>", Collections.emptyList(),
+                    VOID_TYPE, true));
         }
 
-        code.append(lhs);
-        code.append(typeString);
-        code.append(SPACE);
-
-        code.append(ASSIGN);
-        code.append(typeString);
-        code.append(SPACE);
-
-        code.append(rhs.getCode());
+        code.append(OllirIrBuilder.assign(OllirIrBuilder.operand(lhs, type), type, rhs.getElement()));
 
-        code.append(END_STMT);
 
-
-        return code.toString();
+        return code;
     }
 
-    private String visitAssignStmtArray(JmmNode node, Void unused) {
+    private OllirCode visitAssignStmtArray(JmmNode node, Void unused) {
         var lhs = exprVisitor.visit(node.getJmmChild(0));
         var rhs = exprVisitor.visit(node.getJmmChild(1));
 
-        StringBuilder code = new StringBuilder();
+        OllirCode code = new OllirCode();
 
         code.append(lhs.getComputation());
         code.append(rhs.getComputation());
 
         Type thisType = TypeUtils.getTypeFromString(node.get("name"), node, table);
-        String typeString = OptUtils.toOllirType(new Type(thisType.getName(), false));
+        var type = OptUtils.toOllirType(new Type(thisType.getName(), false));
 
         if (Objects.equals(node.getJmmChild(0).getKind(), "NewClassExpr")) {
-            code.append("invokespecial(").append(rhs.getCode()).append(", \"<init>\").V").append(END_STMT);
+            code.append(OllirIrBuilder.invokeSpecial((Operand) rhs.getElement(), "<init>", Collections.emptyList(),
+                    VOID_TYPE, true));
         }
 
-        code.append(node.get("name")).append("[").append(lhs.getCode()).append("]").append(typeString).append(SPACE).append(ASSIGN)
-                .append(typeString).append(SPACE).append(rhs.getCode()).append(END_STMT);
+        var element = OllirIrBuilder.arrayOperand(node.get("name"), type, lhs.getElement());
+        code.append(OllirIrBuilder.assign(element, type, rhs.getElement()));
 
 
-        return code.toString();
+        return code;
     }
 
 
-    private String visitReturn(JmmNode node, Void unused) {
+    private OllirCode visitReturn(JmmNode node, Void unused) {
 
         String methodName = node.getAncestor(METHOD_DECL).map(method -> method.get("name")).orElseThrow();
         Type retType = table.getReturnType(methodName);
 
-        StringBuilder code = new StringBuilder();
+        OllirCode code = new OllirCode();
 
         var expr = OllirExprResult.EMPTY;
 
@@ -158,131 +170,93 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         }
 
         code.append(expr.getComputation());
-        code.append("ret");
-        code.append(OptUtils.toOllirType(retType));
-        code.append(SPACE);
-
-        code.append(expr.getCode());
+        code.append(OllirIrBuilder.ret(OptUtils.toOllirType(retType), expr.getElement()));
 
-        code.append(END_STMT);
-
-        return code.toString();
+        return code;
     }
 
-    private String visitIfStmt(JmmNode node, Void unused) {
+    private OllirCode visitIfStmt(JmmNode node, Void unused) {
         int ifNum = OptUtils.getNextIfNum();
         var conditionLabel = "if" + ifNum;
         var endLabel = "endif" + ifNum;
 
-        StringBuilder code = new StringBuilder();
+        OllirCode code = new OllirCode();
 
-        var condition = exprVisitor.visit(node.getJmmChild(0));
-        code.append(condition.getComputation());
-
-        code.append("if (").append(condition.getCode()).append(") goto ").append(conditionLabel).append(END_STMT);
+        code.append(exprVisitor.branchIfTrue(node.getJmmChild(0), conditionLabel));
 
         if (node.getChildren().size() > 2) {
             code.append(visit(node.getJmmChild(2)));
         }
 
-        code.append("goto ").append(endLabel).append(END_STMT);
-        code.append(conditionLabel).append(":\n");
+        code.append(OllirIrBuilder.jump(endLabel));
+        code.appendLabel(conditionLabel);
 
         code.append(visit(node.getJmmChild(1)));
 
-        code.append(endLabel).append(":\n");
+        code.appendLabel(endLabel);
 
-        return code.toString();
+        return code;
     }
 
-    private String visitWhileStmt(JmmNode node, Void unused) {
+    /**
+     * Generates a rotated loop: the condition is tested once before the loop, jumping over it if it does not hold, and
+     * then after each iteration, jumping back to the body while it holds. Each iteration takes a single jump, instead
+     * of a jump back to the condition and then a jump to the body.
+     */
+    private OllirCode visitWhileStmt(JmmNode node, Void unused) {
         int ifNum = OptUtils.getNextWhileNum();
-        var conditionLabel = "whileCond" + ifNum;
         var loopLabel = "whileLoop" + ifNum;
         var endLabel = "whileEnd" + ifNum;
 
-        StringBuilder code = new StringBuilder();
-
-        code.append(conditionLabel).append(":\n");
+        OllirCode code = new OllirCode();
 
-        var condition = exprVisitor.visit(node.getJmmChild(0));
-        code.append(condition.getComputation());
-
-        code.append("if (").append(condition.getCode()).append(") goto ").append(loopLabel).append(END_STMT);
-        code.append("goto ").append(endLabel).append(END_STMT);
-        code.append(loopLabel).append(":\n");
+        // The condition is generated twice, since each copy has its own temps and labels
+        code.append(exprVisitor.branchIfFalse(node.getJmmChild(0), endLabel));
+        code.appendLabel(loopLabel);
 
         code.append(visit(node.getJmmChild(1)));
 
-        code.append("goto ").append(conditionLabel).append(END_STMT);
-        code.append(endLabel).append(":\n");
-
-        return code.toString();
-    }
-
-
-    private String visitParam(JmmNode node, Void unused) {
-
-        var typeCode = OptUtils.toOllirType(node.getJmmChild(0));
-        var id = node.get("name");
-
-        String code = id + typeCode;
+        code.append(exprVisitor.branchIfTrue(node.getJmmChild(0), loopLabel));
+        code.appendLabel(endLabel);
 
         return code;
     }
 
 
-    private String visitMethodDecl(JmmNode node, Void unused) {
-
-        StringBuilder code = new StringBuilder(".method ");
+    private Method buildMethod(JmmNode node) {
 
         boolean isPublic = NodeUtils.getBooleanAttribute(node, "isPublic", "false");
 
         boolean isStatic = NodeUtils.getBooleanAttribute(node, "isStatic", "false");
 
-        if (isPublic) {
-            code.append("public ");
-        }
-
-        if (isStatic) {
-            code.append("static ");
-        }
-
-        // name
+        // name and type
         var name = node.get("name");
-        code.append(name);
+        var retType = OptUtils.toOllirType(node.getJmmChild(0));
+
+        var method = builder.newMethod(name, retType, isPublic, isStatic);
 
         // param
         boolean hasParams = true;
         if (Objects.equals(name, "main")) {
-            code.append("(args.array.String)");
+            OllirIrBuilder.addParam(method, "args", OptUtils.toOllirType(new Type("String", true)));
         } else {
-            code.append("(");
-
-
             var params = node.getJmmChild(1);
             if (Objects.equals(params.getKind(), "Params")) {
-                for (int i = 0; i < params.getNumChildren(); i++) {
-                    if (i != 0) code.append(", ");
-                    code.append(visit(params.getJmmChild(i)));
+                for (var param : params.getChildren()) {
+                    OllirIrBuilder.addParam(method, param.get("name"), OptUtils.toOllirType(param.getJmmChild(0)));
                 }
             } else hasParams = false;
-
-            code.append(")");
         }
 
-        // type
-        var retType = OptUtils.toOllirType(node.getJmmChild(0));
-        code.append(retType);
-        code.append(L_BRACKET);
-
 
         // rest of its children stmts
+        OllirCode code = new OllirCode();
+
         var afterParam = hasParams ? 2 : 1;
         for (int i = afterParam; i < node.getNumChildren(); i++) {
             var child = node.getJmmChild(i);
             if (Objects.equals(child.getKind(), "ExprStmt")) {
-                code.append(exprVisitor.visit(child).getCode());
+                code.append(exprVisitor.visit(child).getComputation());
             } else {
                 code.append(visit(child));
             }
@@ -291,85 +265,87 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         }
 
         if (Objects.equals(name, "main")) {
-            code.append("ret.V");
-            code.append(END_STMT);
+            code.append(OllirIrBuilder.ret(VOID_TYPE, null));
         }
 
-        code.append(R_BRACKET);
-        code.append(NL);
+        code.writeTo(method);
 
-        return code.toString();
+        return method;
     }
 
 
-    private String visitClass(JmmNode node, Void unused) {
-
-        StringBuilder code = new StringBuilder();
+    private OllirCode visitClass(JmmNode node, Void unused) {
 
-        code.append(table.getClassName());
-        String superClass = table.getSuper();
-        if (!superClass.isEmpty()) {
-            code.append(" extends ").append(superClass);
-        } else {
-            code.append(" extends Object");
+        var members = new ArrayList<JmmNode>();
+        for (var child : node.getChildren()) {
+            if (METHOD_DECL.check(child)) {
+                members.add(child);
+            } else {
+                visit(child);
+            }
         }
 
-        code.append(L_BRACKET);
+        var methods = parallel ? buildMethodsInParallel(members) : members.stream().map(this::buildMember).toList();
+        methods.forEach(builder::addMethod);
 
-        code.append(NL);
-        var needNl = true;
-
-        for (var child : node.getChildren()) {
-            var result = visit(child);
+        builder.addMethod(builder.newConstructor());
 
-            if (METHOD_DECL.check(child) && needNl) {
-                code.append(NL);
-                needNl = false;
-            }
-
-            code.append(result);
-        }
+        return new OllirCode();
+    }
 
-        code.append(buildConstructor());
-        code.append(R_BRACKET);
+    /**
+     * Builds a method of the class. Temps and labels are only visible inside their method, so their numbering
+     * restarts for each method, and the code of a method does not depend on the methods generated before it.
+     */
+    private Method buildMember(JmmNode member) {
+        OptUtils.resetCounters();
 
-        return code.toString();
+        return buildMethod(member);
     }
 
-    private String buildConstructor() {
+    /**
+     * Builds each method in its own task of the common fork-join pool.
+     *
+     * @return the methods, in declaration order
+     */
+    private List<Method> buildMethodsInParallel(List<JmmNode> members) {
+        List<ForkJoinTask<Method>> tasks = new ArrayList<>();
+        for (var member : members) {
+            tasks.add(ForkJoinTask.adapt(() -> new OllirGeneratorVisitor(table, builder, false).buildMember(member)));
+        }
+
+        ForkJoinTask.invokeAll(tasks);
 
-        return ".construct " + table.getClassName() + "().V {\n" +
-                "invokespecial(this, \"<init>\").V;\n" +
-                "}\n";
+        return tasks.stream().map(ForkJoinTask::join).toList();
     }
 
 
-    private String visitProgram(JmmNode node, Void unused) {
+    private OllirCode visitProgram(JmmNode node, Void unused) {
 
-        StringBuilder code = new StringBuilder();
+        OllirCode code = new OllirCode();
 
         node.getChildren().stream()
                 .map(this::visit)
                 .forEach(code::append);
 
-        return code.toString();
+        return code;
     }
 
     /**
-     * Default visitor. Visits every child node and return an empty string.
+     * Default visitor. Visits every child node and returns their code.
      *
      * @param node
      * @param unused
      * @return
      */
-    private String defaultVisit(JmmNode node, Void unused) {
-        StringBuilder code = new StringBuilder();
+    private OllirCode defaultVisit(JmmNode node, Void unused) {
+        OllirCode code = new OllirCode();
 
         for (var child : node.getChildren()) {
             code.append(visit(child));
 
         }
 
-        return code.toString();
+        return code;
     }
 }
@@ -0,0 +1,254 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds the OLLIR classes used by the backend ({@link ClassUnit}, {@link Method}, {@link Instruction}) directly,
+ * without generating OLLIR code and parsing it.
+ * <p>
+ * The instructions and elements are built as the OLLIR parser would build them from the equivalent code, so the
+ * backend sees the same class either way. The code itself can still be obtained with {@link OllirPrinter}.
+ * <p>
+ * Methods are created with {@link #newMethod} and filled independently, so they can be built in parallel, and are added
+ * to the class with {@link #addMethod}, in declaration order.
+ */
+public class OllirIrBuilder {
+
+    private final ClassUnit classUnit = new ClassUnit();
+
+    public OllirIrBuilder(String className, String superClass) {
+        classUnit.setClassName(className);
+        classUnit.setSuperClass(superClass);
+    }
+
+    public String getClassName() {
+        return classUnit.getClassName();
+    }
+
+    public void addImport(String importName) {
+        classUnit.addImport(importName);
+    }
+
+    public void addField(String name, Type type) {
+        var field = new Field();
+
+        field.setFieldAccessModifier(AccessModifier.PUBLIC);
+        field.setFieldName(name);
+        field.setFieldType(type);
+
+        classUnit.addField(field);
+    }
+
+    /**
+     * Creates a method of this class, without adding it to the class.
+     */
+    public Method newMethod(String name, Type returnType, boolean isPublic, boolean isStatic) {
+        var method = new Method(classUnit);
+
+        if (isPublic) {
+            method.setMethodAccessModifier(AccessModifier.PUBLIC);
+        }
+        if (isStatic) {
+            method.setStaticMethod();
+        }
+
+        method.setMethodName(name);
+        method.setReturnType(returnType);
+
+        return method;
+    }
+
+    /**
+     * Creates the default constructor of this class, which only calls the constructor of the super class.
+     */
+    public Method newConstructor() {
+        var constructor = new Method(classUnit);
+
+        constructor.setConstructMethod();
+        constructor.setMethodName(getClassName());
+        constructor.setReturnType(new Type(ElementType.VOID));
+        constructor.addInstr(invokeSpecial(thisOperand(getClassName()), "<init>", Collections.emptyList(),
+                new Type(ElementType.VOID), true));
+
+        return constructor;
+    }
+
+    /**
+     * Adds a parameter after the existing parameters of the method. Parameters are numbered from 1, or from 0 in
+     * static methods.
+     */
+    public static Operand addParam(Method method, String name, Type type) {
+        var param = new Operand(name, type);
+        param.setParamId(method.getParams().size() + (method.isStaticMethod() ? 0 : 1));
+
+        method.addParam(param);
+
+        return param;
+    }
+
+    public void addMethod(Method method) {
+        classUnit.addMethod(method);
+    }
+
+    /**
+     * @return the class with every field and method added so far, with the variable table of each method
+     */
+    public ClassUnit build() {
+        classUnit.buildVarTables();
+
+        return classUnit;
+    }
+
+    // Elements
+
+    public static Operand operand(String name, Type type) {
+        return new Operand(name, type);
+    }
+
+    public static Operand paramOperand(String name, Type type, int paramIndex) {
+        var operand = new Operand(name, type);
+        operand.setParamId(paramIndex);
+
+        return operand;
+    }
+
+    public static Operand thisOperand(String className) {
+        return new Operand("this", new ClassType(ElementType.THIS, className));
+    }
+
+    /**
+     * @return the class of a static call. As in the OLLIR parser, its type is the class being built, whatever the
+     * called class.
+     */
+    public Operand staticCaller(String className) {
+        return new Operand(className, new ClassType(ElementType.CLASS, getClassName()));
+    }
+
+    public static ArrayOperand arrayOperand(String name, Type elementType, Element index) {
+        return new ArrayOperand(name, elementType, List.of(index));
+    }
+
+    public static LiteralElement literal(String value, Type type) {
+        return new LiteralElement(value, type);
+    }
+
+    // Instructions
+
+    public static AssignInstruction assign(Element dest, Type type, Instruction rhs) {
+        return new AssignInstruction(dest, type, rhs);
+    }
+
+    public static AssignInstruction assign(Element dest, Type type, Element rhs) {
+        if (rhs == null) {
+            throw new RuntimeException("Expected a value to assign to " + dest);
+        }
+
+        return assign(dest, type, new SingleOpInstruction(rhs));
+    }
+
+    public static BinaryOpInstruction binaryOp(Element lhs, String op, Type type, Element rhs) {
+        return new BinaryOpInstruction(lhs, new Operation(toOperationType(op), type), rhs);
+    }
+
+    public static UnaryOpInstruction not(Element operand) {
+        var boolType = new Type(ElementType.BOOLEAN);
+        return new UnaryOpInstruction(new Operation(OperationType.NOTB, boolType), operand);
+    }
+
+    public static CallInstruction newObject(ClassType type) {
+        var caller = new Operand(type.getName(), new ClassType(ElementType.OBJECTREF, type.getName()));
+        return new CallInstruction(CallType.NEW, caller, new ArrayList<>(), type);
+    }
+
+    public static CallInstruction newArray(ArrayType type, Element size) {
+        var caller = new Operand("array", new ArrayType());
+        return new CallInstruction(CallType.NEW, caller, new ArrayList<>(List.of(size)), type);
+    }
+
+    public static CallInstruction arrayLength(Element array, Type type) {
+        return new CallInstruction(CallType.arraylength, array, type);
+    }
+
+    /**
+     * @param isolated true if the call is a statement by itself, false if it is the right-hand side of an assignment
+     */
+    public static CallInstruction invokeStatic(Operand caller, String methodName, List<Element> args, Type returnType,
+                                               boolean isolated) {
+        return new CallInstruction(CallType.invokestatic, caller, methodNameLiteral(methodName), new ArrayList<>(args),
+                returnType, isolated);
+    }
+
+    /**
+     * @param isolated true if the call is a statement by itself, false if it is the right-hand side of an assignment
+     */
+    public static CallInstruction invokeVirtual(Operand caller, String methodName, List<Element> args, Type returnType,
+                                                boolean isolated) {
+        return new CallInstruction(CallType.invokevirtual, caller, methodNameLiteral(methodName), new ArrayList<>(args),
+                returnType, isolated);
+    }
+
+    /**
+     * @param isolated true if the call is a statement by itself, false if it is the right-hand side of an assignment
+     */
+    public static CallInstruction invokeSpecial(Operand caller, String methodName, List<Element> args, Type returnType,
+                                                boolean isolated) {
+        return new CallInstruction(CallType.invokespecial, caller, methodNameLiteral(methodName), new ArrayList<>(args),
+                returnType, isolated);
+    }
+
+    /**
+     * Jumps to the label if the condition, a boolean element, is true.
+     */
+    public static CondBranchInstruction branch(Element condition, String label) {
+        var conditionType = condition.getType().getTypeOfElement();
+        if (conditionType != ElementType.BOOLEAN) {
+            throw new RuntimeException("Expected condition of 'if' to be a " + ElementType.BOOLEAN + ", is "
+                    + conditionType + " instead");
+        }
+
+        var branch = new SingleOpCondInstruction(new SingleOpInstruction(condition));
+        branch.setLabel(label);
+
+        return branch;
+    }
+
+    public static GotoInstruction jump(String label) {
+        return new GotoInstruction(label);
+    }
+
+    public static ReturnInstruction ret(Type type, Element operand) {
+        var ret = operand == null ? new ReturnInstruction() : new ReturnInstruction(operand);
+        ret.setReturnType(type);
+
+        return ret;
+    }
+
+    private static LiteralElement methodNameLiteral(String methodName) {
+        return new LiteralElement("\"" + methodName + "\"", new Type(ElementType.STRING));
+    }
+
+    private static OperationType toOperationType(String op) {
+        return switch (op) {
+            case "*" -> OperationType.MUL;
+            case "+" -> OperationType.ADD;
+            case "-" -> OperationType.SUB;
+            case "/" -> OperationType.DIV;
+            case "||" -> OperationType.ORB;
+            case "&&" -> OperationType.ANDB;
+            case "&" -> OperationType.AND;
+            case "|" -> OperationType.OR;
+            case "^" -> OperationType.XOR;
+            case ">=" -> OperationType.GTE;
+            case "<=" -> OperationType.LTE;
+            case ">" -> OperationType.GTH;
+            case "<" -> OperationType.LTH;
+            case "==" -> OperationType.EQ;
+            case "!=" -> OperationType.NEQ;
+            default -> throw new RuntimeException("Unsupported binary operator '" + op + "'");
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.util.List;
+
+/**
+ * An OLLIR result whose class was built directly, with {@link OllirIrBuilder}, instead of parsed from OLLIR code.
+ * <p>
+ * The OLLIR code is only rendered from the class the first time it is requested, e.g. to show it in a test failure.
+ */
+public class OllirIrResult extends OllirResult {
+
+    // OllirResult always parses the code it is given, so it is given the smallest class the parser accepts
+    private static final String EMPTY_CLASS = "Empty {}";
+
+    private final ClassUnit ollirClass;
+
+    private String ollirCode;
+
+    public OllirIrResult(JmmSemanticsResult semanticsResult, ClassUnit ollirClass, List<Report> reports) {
+        super(semanticsResult, EMPTY_CLASS, reports);
+
+        this.ollirClass = ollirClass;
+    }
+
+    @Override
+    public synchronized String getOllirCode() {
+        if (ollirCode == null) {
+            ollirCode = OllirPrinter.print(ollirClass);
+        }
+
+        return ollirCode;
+    }
+
+    @Override
+    public ClassUnit getOllirClass() {
+        return ollirClass;
+    }
+}
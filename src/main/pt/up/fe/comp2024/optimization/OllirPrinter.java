@@ -0,0 +1,211 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.stream.Collectors;
+
+/**
+ * Renders an OLLIR class as OLLIR code, which the OLLIR parser reads back into an equivalent class.
+ * <p>
+ * Classes built with {@link OllirIrBuilder} never go through OLLIR code, so this is only needed to show them.
+ */
+public class OllirPrinter {
+
+    private static final String END_STMT = ";\n";
+
+    private OllirPrinter() {
+    }
+
+    public static String print(ClassUnit ollirClass) {
+        var code = new StringBuilder();
+
+        for (var importName : ollirClass.getImports()) {
+            code.append("import ").append(importName).append(END_STMT);
+        }
+
+        code.append(ollirClass.getClassName());
+        if (ollirClass.getSuperClass() != null) {
+            code.append(" extends ").append(ollirClass.getSuperClass());
+        }
+        code.append(" {\n\n");
+
+        for (var field : ollirClass.getFields()) {
+            code.append(".field ");
+            appendModifiers(code, field.getFieldAccessModifier(), field.isStaticField(), field.isFinalField());
+            code.append(field.getFieldName()).append(toString(field.getFieldType())).append(END_STMT);
+        }
+
+        for (var method : ollirClass.getMethods()) {
+            code.append("\n");
+            appendMethod(code, method);
+        }
+
+        code.append("}\n");
+
+        return code.toString();
+    }
+
+    private static void appendMethod(StringBuilder code, Method method) {
+        if (method.isConstructMethod()) {
+            code.append(".construct ");
+        } else {
+            code.append(".method ");
+        }
+        appendModifiers(code, method.getMethodAccessModifier(), method.isStaticMethod(), method.isFinalMethod());
+
+        var params = method.getParams().stream()
+                .map(param -> ((Operand) param).getName() + toString(param.getType()))
+                .collect(Collectors.joining(", "));
+
+        code.append(method.getMethodName()).append("(").append(params).append(")")
+                .append(toString(method.getReturnType())).append(" {\n");
+
+        for (var instruction : method.getInstructions()) {
+            for (var label : method.getLabels(instruction)) {
+                code.append(label).append(":\n");
+            }
+
+            code.append(toString(instruction)).append(END_STMT);
+        }
+
+        code.append("}\n");
+    }
+
+    private static void appendModifiers(StringBuilder code, AccessModifier access, boolean isStatic, boolean isFinal) {
+        if (access != AccessModifier.DEFAULT) {
+            code.append(access.name().toLowerCase()).append(" ");
+        }
+        if (isStatic) {
+            code.append("static ");
+        }
+        if (isFinal) {
+            code.append("final ");
+        }
+    }
+
+    private static String toString(Instruction instruction) {
+        return switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                yield toString(assign.getDest()) + " :=" + toString(assign.getTypeOfAssign()) + " "
+                        + toString(assign.getRhs());
+            }
+            case CALL -> toString((CallInstruction) instruction);
+            case GOTO -> "goto " + ((GotoInstruction) instruction).getLabel();
+            case BRANCH -> {
+                var branch = (CondBranchInstruction) instruction;
+                yield "if (" + toString(branch.getCondition()) + ") goto " + branch.getLabel();
+            }
+            case RETURN -> {
+                var ret = (ReturnInstruction) instruction;
+                var operand = ret.hasReturnValue() ? " " + toString(ret.getOperand()) : "";
+                yield "ret" + toString(ret.getReturnType()) + operand;
+            }
+            case PUTFIELD -> {
+                var putField = (PutFieldInstruction) instruction;
+                yield "putfield(" + toString(putField.getObject()) + ", " + toString(putField.getField()) + ", "
+                        + toString(putField.getValue()) + ").V";
+            }
+            case GETFIELD -> {
+                var getField = (GetFieldInstruction) instruction;
+                yield "getfield(" + toString(getField.getObject()) + ", " + toString(getField.getField()) + ")"
+                        + toString(getField.getFieldType());
+            }
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) instruction;
+                yield toString(unaryOp.getOperation()) + " " + toString(unaryOp.getOperand());
+            }
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                yield toString(binaryOp.getLeftOperand()) + " " + toString(binaryOp.getOperation()) + " "
+                        + toString(binaryOp.getRightOperand());
+            }
+            case NOPER -> toString(((SingleOpInstruction) instruction).getSingleOperand());
+        };
+    }
+
+    private static String toString(CallInstruction call) {
+        var args = new StringBuilder();
+        for (var arg : call.getArguments()) {
+            args.append(", ").append(toString(arg));
+        }
+
+        var type = toString(call.getReturnType());
+
+        return switch (call.getInvocationType()) {
+            case NEW -> "new(" + ((Operand) call.getCaller()).getName() + args + ")" + type;
+            case arraylength -> "arraylength(" + toString(call.getCaller()) + ")" + type;
+            case ldc -> "ldc(" + ((LiteralElement) call.getCaller()).getLiteral() + ")" + type;
+            // The class of a static call is written without type
+            case invokestatic -> "invokestatic(" + ((Operand) call.getCaller()).getName() + ", "
+                    + ((LiteralElement) call.getMethodName()).getLiteral() + args + ")" + type;
+            default -> call.getInvocationType() + "(" + toString(call.getCaller()) + ", "
+                    + ((LiteralElement) call.getMethodName()).getLiteral() + args + ")" + type;
+        };
+    }
+
+    private static String toString(Operation operation) {
+        var op = switch (operation.getOpType()) {
+            case MUL -> "*";
+            case ADD -> "+";
+            case SUB -> "-";
+            case DIV -> "/";
+            case ORB -> "||";
+            case ANDB -> "&&";
+            case AND -> "&";
+            case OR -> "|";
+            case XOR -> "^";
+            case GTE -> ">=";
+            case LTE -> "<=";
+            case GTH -> ">";
+            case LTH -> "<";
+            case EQ -> "==";
+            case NEQ -> "!=";
+            case NOTB -> "!";
+            case NOT -> "~";
+            default -> throw new RuntimeException("Unsupported operation " + operation.getOpType());
+        };
+
+        return op + toString(operation.getTypeInfo());
+    }
+
+    private static String toString(Element element) {
+        if (element instanceof LiteralElement literal) {
+            return literal.getLiteral() + toString(literal.getType());
+        }
+
+        var operand = (Operand) element;
+
+        var code = new StringBuilder();
+        if (operand.isParameter()) {
+            code.append("$").append(operand.getParamId()).append(".");
+        }
+        code.append(operand.getName());
+
+        if (operand instanceof ArrayOperand arrayOperand) {
+            for (var index : arrayOperand.getIndexOperands()) {
+                code.append("[").append(toString(index)).append("]");
+            }
+        }
+
+        return code.append(toString(operand.getType())).toString();
+    }
+
+    private static String toString(Type type) {
+        if (type instanceof ArrayType arrayType) {
+            return ".array".repeat(arrayType.getNumDimensions()) + toString(arrayType.getElementType());
+        }
+
+        if (type instanceof ClassType classType) {
+            return "." + classType.getName();
+        }
+
+        return switch (type.getTypeOfElement()) {
+            case INT32 -> ".i32";
+            case BOOLEAN -> ".bool";
+            case STRING -> ".String";
+            case VOID -> ".V";
+            default -> throw new RuntimeException("Unsupported type " + type);
+        };
+    }
+}
@@ -1,6 +1,12 @@
 package pt.up.fe.comp2024.optimization;
 
-import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.ArrayType;
+import org.specs.comp.ollir.ClassType;
+import org.specs.comp.ollir.Descriptor;
+import org.specs.comp.ollir.ElementType;
+import org.specs.comp.ollir.Method;
+import org.specs.comp.ollir.Node;
+import org.specs.comp.ollir.VarScope;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp2024.ast.NodeUtils;
@@ -12,9 +18,27 @@ import java.util.Optional;
 import static pt.up.fe.comp2024.ast.Kind.TYPE;
 
 public class OptUtils {
-    private static int tempNumber = -1;
-    private static int ifNumber = 0;
-    private static int whileNumber = 0;
+
+    /**
+     * Temp and label numbering of the method being generated on the current thread.
+     */
+    private static final ThreadLocal<Counters> counters = ThreadLocal.withInitial(Counters::new);
+
+    private static class Counters {
+        private int tempNumber = -1;
+        private int ifNumber = 0;
+        private int whileNumber = 0;
+        private int shortCircuitNumber = 0;
+    }
+
+    /**
+     * Restarts temp and label numbering for the current thread. Called before generating each method, since temps and
+     * labels are local to a method, so that several methods and compilation units can be generated in the same JVM
+     * (and in parallel).
+     */
+    public static void resetCounters() {
+        counters.set(new Counters());
+    }
 
     public static String getTemp() {
 
@@ -28,48 +52,122 @@ public class OptUtils {
 
     public static int getNextTempNum() {
 
-        tempNumber += 1;
-        return tempNumber;
+        var current = counters.get();
+        current.tempNumber += 1;
+        return current.tempNumber;
     }
 
     public static int getNextIfNum() {
 
-        ifNumber += 1;
-        return ifNumber;
+        var current = counters.get();
+        current.ifNumber += 1;
+        return current.ifNumber;
     }
 
     public static int getNextWhileNum() {
 
-        whileNumber += 1;
-        return whileNumber;
+        var current = counters.get();
+        current.whileNumber += 1;
+        return current.whileNumber;
+    }
+
+    /**
+     * @return the number of the labels of the next '&&' or '||' lowered to branches
+     */
+    public static int getNextShortCircuitNum() {
+
+        var current = counters.get();
+        current.shortCircuitNumber += 1;
+        return current.shortCircuitNumber;
+    }
+
+    /**
+     * Builds the control flow graph of the method, replacing the graph of a previous build. The OLLIR library only adds
+     * edges, so the graph is cleared first, to build it again after the instructions change.
+     */
+    public static void buildCFG(Method method) {
+        // The begin and end nodes can only be accessed after the first build, in which every instruction gets a
+        // successor
+        var built = method.getInstructions().stream().anyMatch(instruction -> !instruction.getSuccessors().isEmpty());
+        if (built) {
+            clearEdges(method.getBeginNode());
+            clearEdges(method.getEndNode());
+        }
+
+        for (var instruction : method.getInstructions()) {
+            clearEdges(instruction);
+        }
+
+        method.buildCFG();
+    }
+
+    private static void clearEdges(Node node) {
+        node.getSuccessors().clear();
+        node.getPredecessors().clear();
     }
 
-    public static String toOllirType(JmmNode typeNode) {
+    /**
+     * Adds a local variable to the variable table of the method, in the register after every register it uses.
+     */
+    public static void addLocal(Method method, String name, org.specs.comp.ollir.Type type) {
+        int register = 0;
+        for (var descriptor : method.getVarTable().values()) {
+            register = Math.max(register, descriptor.getVirtualReg() + 1);
+        }
+
+        method.getVarTable().put(name, new Descriptor(VarScope.LOCAL, register, type));
+    }
+
+    public static org.specs.comp.ollir.Type toOllirType(JmmNode typeNode) {
 
         TYPE.checkOrThrow(typeNode);
 
         String typeName = typeNode.get("name");
 
-        if (typeNode.hasAttribute("array") || typeNode.hasAttribute("vargs") ) return ".array" + toOllirType(typeName);
+        if (typeNode.hasAttribute("array") || typeNode.hasAttribute("vargs") ) return toOllirArrayType(toOllirType(typeName));
 
         return toOllirType(typeName);
     }
 
-    public static String toOllirType(Type type) {
-        if(type.isArray()) return ".array" + toOllirType(type.getName());
+    public static org.specs.comp.ollir.Type toOllirType(Type type) {
+        if(type.isArray()) return toOllirArrayType(toOllirType(type.getName()));
         return toOllirType(type.getName());
     }
 
-    private static String toOllirType(String typeName) {
+    /**
+     * @return the type of an array whose elements have the given type, with one more dimension if it is itself an
+     * array
+     */
+    public static ArrayType toOllirArrayType(org.specs.comp.ollir.Type elementType) {
+
+        var arrayType = new ArrayType();
+
+        if (elementType instanceof ArrayType elementArray) {
+            arrayType.setNumDimensions(elementArray.getNumDimensions() + 1);
+            elementType = elementArray.getElementType();
+        } else {
+            arrayType.setNumDimensions(1);
+        }
+
+        arrayType.setTypeOfElements(elementType.getTypeOfElement());
+        if (elementType instanceof ClassType classType) {
+            arrayType.setElementClass(classType.getName());
+        } else if (elementType.getTypeOfElement() == ElementType.STRING) {
+            arrayType.setElementClass("String");
+        }
+
+        return arrayType;
+    }
+
+    private static org.specs.comp.ollir.Type toOllirType(String typeName) {
 
-        String type = "." + switch (typeName) {
-            case "int" -> "i32";
-            case "boolean" -> "bool";
-            case "void" -> "V";
-            default -> typeName;
+        return switch (typeName) {
+            case "int" -> new org.specs.comp.ollir.Type(ElementType.INT32);
+            case "boolean" -> new org.specs.comp.ollir.Type(ElementType.BOOLEAN);
+            case "void" -> new org.specs.comp.ollir.Type(ElementType.VOID);
+            case "String" -> new org.specs.comp.ollir.Type(ElementType.STRING);
+            default -> new ClassType(ElementType.OBJECTREF, typeName);
         };
-
-        return type;
     }
 
 
@@ -0,0 +1,206 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Allocates the JVM local variables of each method by coloring the interference graph of its local variables.
+ * <p>
+ * Two local variables interfere if one of them is written while the other is live, except when the first is a copy of
+ * the second, so they can share a register. 'this' and the parameters keep their registers, and the local variables
+ * use the registers after them. The graph is colored as proposed by Chaitin and Briggs: nodes with fewer neighbours than
+ * the available colors are removed first, and are colored in the reverse order, which avoids spilling whenever the
+ * graph is colorable by that order.
+ */
+public class RegisterAllocation {
+
+    private final ClassUnit ollirClass;
+    private final List<Report> reports;
+
+    public RegisterAllocation(ClassUnit ollirClass, List<Report> reports) {
+        this.ollirClass = ollirClass;
+        this.reports = reports;
+    }
+
+    /**
+     * Allocates the registers of every method.
+     *
+     * @param maxRegisters the maximum number of JVM local variables of each method, or 0 to use as few as possible
+     */
+    public void allocate(int maxRegisters) {
+        for (var method : ollirClass.getMethods()) {
+            OptUtils.buildCFG(method);
+            allocate(method, maxRegisters);
+        }
+    }
+
+    private void allocate(Method method, int maxRegisters) {
+        var liveness = new LivenessAnalysis(method);
+        var graph = buildInterferenceGraph(liveness);
+        var variables = liveness.getVariables();
+
+        // 'this' and the parameters come first
+        int firstLocal = method.isStaticMethod() ? 0 : 1;
+        for (var descriptor : method.getVarTable().values()) {
+            if (descriptor.getScope() == VarScope.PARAMETER) {
+                firstLocal = Math.max(firstLocal, descriptor.getVirtualReg() + 1);
+            }
+        }
+
+        int[] colors;
+        if (maxRegisters == 0) {
+            colors = colorWithFewest(graph);
+        } else {
+            // 'this' and the parameters alone may already need more registers
+            colors = maxRegisters >= firstLocal ? color(graph, maxRegisters - firstLocal) : null;
+
+            if (colors == null) {
+                var needed = firstLocal + count(colorWithFewest(graph));
+                reports.add(Report.newError(Stage.OPTIMIZATION, -1, -1, "Method '" + method.getMethodName()
+                        + "' needs at least " + needed + " registers, but only " + maxRegisters
+                        + " are allowed with '-r=" + maxRegisters + "'", null));
+                return;
+            }
+        }
+
+        var mapping = new StringBuilder();
+        for (int i = 0; i < variables.size(); i++) {
+            var register = firstLocal + colors[i];
+            method.getVarTable().get(variables.get(i)).setVirtualReg(register);
+            mapping.append(i == 0 ? "" : ", ").append(variables.get(i)).append(" -> ").append(register);
+        }
+
+        var used = firstLocal + count(colors);
+        reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, "Method '" + method.getMethodName() + "' uses " + used
+                + (used == 1 ? " register" : " registers") + (variables.isEmpty() ? "" : ": " + mapping), null));
+    }
+
+    /**
+     * @return the neighbours of each local variable, by its index
+     */
+    private static List<BitSet> buildInterferenceGraph(LivenessAnalysis liveness) {
+        var graph = new ArrayList<BitSet>();
+        for (int i = 0; i < liveness.getVariables().size(); i++) {
+            graph.add(new BitSet());
+        }
+
+        var instructions = liveness.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            var live = (BitSet) liveness.getLiveOut(i).clone();
+
+            // The source of a copy does not interfere with its destination
+            if (instructions.get(i) instanceof AssignInstruction assign
+                    && assign.getRhs() instanceof SingleOpInstruction copy
+                    && !(copy.getSingleOperand() instanceof ArrayOperand)) {
+                var source = liveness.getIndex(copy.getSingleOperand());
+                if (source >= 0) {
+                    live.clear(source);
+                }
+            }
+
+            var defs = liveness.getDefs(i);
+            for (int def = defs.nextSetBit(0); def >= 0; def = defs.nextSetBit(def + 1)) {
+                for (int other = live.nextSetBit(0); other >= 0; other = live.nextSetBit(other + 1)) {
+                    if (other != def) {
+                        graph.get(def).set(other);
+                        graph.get(other).set(def);
+                    }
+                }
+            }
+        }
+
+        return graph;
+    }
+
+    /**
+     * Colors the graph with as few colors as possible, by trying 1, 2, ... colors until the graph is colored.
+     */
+    private static int[] colorWithFewest(List<BitSet> graph) {
+        for (int colorCount = 1; ; colorCount++) {
+            var colors = color(graph, colorCount);
+            if (colors != null) {
+                return colors;
+            }
+        }
+    }
+
+    /**
+     * @return the color of each node, or null if the graph could not be colored with the given number of colors
+     */
+    private static int[] color(List<BitSet> graph, int colorCount) {
+        int size = graph.size();
+        if (size == 0) {
+            return new int[0];
+        }
+        if (colorCount <= 0) {
+            return null;
+        }
+
+        // Simplify: remove nodes with fewer neighbours than colors, or the node with the most neighbours if there is
+        // none, which may still be colorable (optimistic coloring)
+        var removed = new BitSet(size);
+        var degrees = new int[size];
+        for (int i = 0; i < size; i++) {
+            degrees[i] = graph.get(i).cardinality();
+        }
+
+        var stack = new ArrayDeque<Integer>();
+        while (stack.size() < size) {
+            int next = -1;
+            for (int i = removed.nextClearBit(0); i < size; i = removed.nextClearBit(i + 1)) {
+                if (degrees[i] < colorCount) {
+                    next = i;
+                    break;
+                }
+                if (next < 0 || degrees[i] > degrees[next]) {
+                    next = i;
+                }
+            }
+
+            removed.set(next);
+            stack.push(next);
+            var neighbours = graph.get(next);
+            for (int n = neighbours.nextSetBit(0); n >= 0; n = neighbours.nextSetBit(n + 1)) {
+                degrees[n]--;
+            }
+        }
+
+        // Select: color the nodes in the reverse order of their removal
+        var colors = new int[size];
+        Arrays.fill(colors, -1);
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+
+            var used = new BitSet(colorCount);
+            var neighbours = graph.get(node);
+            for (int n = neighbours.nextSetBit(0); n >= 0; n = neighbours.nextSetBit(n + 1)) {
+                if (colors[n] >= 0) {
+                    used.set(colors[n]);
+                }
+            }
+
+            var color = used.nextClearBit(0);
+            if (color >= colorCount) {
+                return null;
+            }
+            colors[node] = color;
+        }
+
+        return colors;
+    }
+
+    private static int count(int[] colors) {
+        int max = -1;
+        for (var color : colors) {
+            max = Math.max(max, color);
+        }
+        return max + 1;
+    }
+}
@@ -0,0 +1,213 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Turns the calls of each method to itself whose value it returns into jumps to its first instruction, in the OLLIR
+ * code, so that the recursion runs as a loop in a single frame.
+ * <p>
+ * A call on 'this', or a static call to the class, calls the method itself if it has its name and its arguments have
+ * the types of its parameters. It is a tail call if the code after it only copies its value, or jumps, until returning
+ * that value (or returning nothing, in a method without one). The call is replaced by the assignment of the arguments
+ * to the parameters, through new locals for the arguments that are parameters themselves, and a jump to the start of
+ * the method. The copies after the call can no longer be reached, and are left to dead code elimination.
+ */
+public class TailCallElimination {
+
+    private final ClassUnit ollirClass;
+
+    public TailCallElimination(ClassUnit ollirClass) {
+        this.ollirClass = ollirClass;
+    }
+
+    /**
+     * @return the number of tail calls replaced by a jump
+     */
+    public int eliminate() {
+        int eliminated = 0;
+
+        for (var method : ollirClass.getMethods()) {
+            eliminated += eliminate(method);
+        }
+
+        return eliminated;
+    }
+
+    private int eliminate(Method method) {
+        var instructions = method.getInstructions();
+        int eliminated = 0;
+        String entry = null;
+
+        // The first instruction cannot be replaced, since it is where the jumps go
+        for (int i = 1; i < instructions.size(); i++) {
+            var call = getSelfCall(method, instructions.get(i));
+            if (call == null || !isTailCall(method, i)) {
+                continue;
+            }
+
+            if (entry == null) {
+                entry = newLabel(method);
+                method.getLabels().put(entry, instructions.get(0));
+            }
+
+            var code = jumpToEntry(method, call, entry);
+            var old = instructions.remove(i);
+            instructions.addAll(i, code);
+            method.getLabels().replaceAll((label, instruction) -> instruction == old ? code.get(0) : instruction);
+
+            i += code.size() - 1;
+            eliminated++;
+        }
+
+        return eliminated;
+    }
+
+    /**
+     * @return the call the instruction makes to the method itself, or null if it makes none
+     */
+    private CallInstruction getSelfCall(Method method, Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign) {
+            instruction = assign.getRhs();
+        }
+
+        if (!(instruction instanceof CallInstruction call) || !(call.getCaller() instanceof Operand caller)
+                || !(call.getMethodNameTry().orElse(null) instanceof LiteralElement name)) {
+            return null;
+        }
+
+        boolean isSelf;
+        if (method.isStaticMethod()) {
+            isSelf = call.getInvocationType() == CallType.invokestatic
+                    && caller.getName().equals(ollirClass.getClassName());
+        } else {
+            isSelf = call.getInvocationType() == CallType.invokevirtual
+                    && caller.getType().getTypeOfElement() == ElementType.THIS;
+        }
+
+        // The name is a string literal, with its quotes
+        if (!isSelf || method.isConstructMethod()
+                || !name.getLiteral().replace("\"", "").equals(method.getMethodName())
+                || call.getArguments().size() != method.getParams().size()) {
+            return null;
+        }
+
+        // Other methods with the same name differ in their parameters
+        for (int i = 0; i < call.getArguments().size(); i++) {
+            var argType = call.getArguments().get(i).getType();
+            var paramType = method.getParams().get(i).getType();
+            if (!argType.toString().equals(paramType.toString())) {
+                return null;
+            }
+        }
+
+        return call;
+    }
+
+    /**
+     * @return true if the value of the call at the index is only copied until it is returned
+     */
+    private static boolean isTailCall(Method method, int index) {
+        var instructions = method.getInstructions();
+
+        String value = null;
+        if (instructions.get(index) instanceof AssignInstruction assign) {
+            if (assign.getDest() instanceof ArrayOperand) {
+                return false;
+            }
+            value = ((Operand) assign.getDest()).getName();
+        }
+
+        Set<Instruction> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        int i = index + 1;
+        while (i >= 0 && i < instructions.size() && visited.add(instructions.get(i))) {
+            var instruction = instructions.get(i);
+
+            if (instruction instanceof ReturnInstruction ret) {
+                if (!ret.hasReturnValue()) {
+                    return value == null;
+                }
+                return value != null && ret.getOperand() instanceof Operand operand
+                        && !(operand instanceof ArrayOperand) && operand.getName().equals(value);
+            }
+
+            if (instruction instanceof GotoInstruction jump) {
+                i = instructions.indexOf(method.getLabels().get(jump.getLabel()));
+                continue;
+            }
+
+            if (value == null || !(instruction instanceof AssignInstruction assign)
+                    || assign.getDest() instanceof ArrayOperand
+                    || !(assign.getRhs() instanceof SingleOpInstruction copy)
+                    || !(copy.getSingleOperand() instanceof Operand operand) || operand instanceof ArrayOperand
+                    || !operand.getName().equals(value)) {
+                return false;
+            }
+
+            value = ((Operand) assign.getDest()).getName();
+            i++;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the instructions that assign the arguments of the call to the parameters and jump to the entry
+     */
+    private static List<Instruction> jumpToEntry(Method method, CallInstruction call, String entry) {
+        var code = new ArrayList<Instruction>();
+        var params = method.getParams();
+        var args = new ArrayList<>(call.getArguments());
+
+        // Every argument that reads another parameter is read before any parameter is assigned
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i) instanceof Operand operand && (operand instanceof ArrayOperand
+                    || operand.isParameter() && !operand.getName().equals(((Operand) params.get(i)).getName()))) {
+                var temp = newTemp(method);
+                OptUtils.addLocal(method, temp, operand.getType());
+                code.add(new AssignInstruction(new Operand(temp, operand.getType()), operand.getType(),
+                        new SingleOpInstruction(operand)));
+                args.set(i, new Operand(temp, operand.getType()));
+            }
+        }
+
+        for (int i = 0; i < args.size(); i++) {
+            var param = (Operand) params.get(i);
+            var arg = args.get(i);
+            if (arg instanceof Operand operand && operand.getName().equals(param.getName())) {
+                continue;
+            }
+
+            var dest = new Operand(param.getName(), param.getType());
+            dest.setParamId(param.getParamId());
+            code.add(new AssignInstruction(dest, param.getType(), new SingleOpInstruction(arg)));
+        }
+
+        code.add(new GotoInstruction(entry));
+
+        return code;
+    }
+
+    private static String newLabel(Method method) {
+        for (int i = 1; ; i++) {
+            var label = "tailCall" + i;
+            if (!method.getLabels().containsKey(label)) {
+                return label;
+            }
+        }
+    }
+
+    private static String newTemp(Method method) {
+        for (int i = 1; ; i++) {
+            var name = "tailCallArg" + i;
+            if (!method.getVarTable().containsKey(name)) {
+                return name;
+            }
+        }
+    }
+}
@@ -7,9 +7,13 @@ import pt.up.fe.comp.jmm.parser.JmmParser;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.JavammParser;
+import pt.up.fe.specs.util.SpecsSystem;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Copyright 2022 SPeCS.
@@ -26,6 +30,11 @@ import java.util.Map;
 
 public class JmmParserImpl implements JmmParser {
 
+    /**
+     * Rules whose parser method is already in the reflection cache of SpecsSystem.
+     */
+    private static final Set<String> cachedRules = ConcurrentHashMap.newKeySet();
+
     @Override
     public String getDefaultRule() {
         return "program";
@@ -46,6 +55,7 @@ public class JmmParserImpl implements JmmParser {
 
 
             // Convert ANTLR CST to JmmNode AST
+            cacheRuleMethod(startingRule);
             return AntlrParser.parse(lex, parser, startingRule, config);
 
         } catch (Exception e) {
@@ -53,4 +63,21 @@ public class JmmParserImpl implements JmmParser {
             return JmmParserResult.newError(Report.newError(Stage.SYNTATIC, -1, -1, "Exception during parsing", e), config);
         }
     }
+
+    /**
+     * AntlrParser calls the rule through SpecsSystem.invoke, which caches methods in a map that is not thread-safe.
+     * Caching the rule method once, under a lock, allows several files to be parsed at the same time.
+     */
+    private static void cacheRuleMethod(String rule) {
+        if (cachedRules.contains(rule)) {
+            return;
+        }
+
+        synchronized (cachedRules) {
+            if (!cachedRules.contains(rule)) {
+                SpecsSystem.getMethod(JavammParser.class, rule);
+                cachedRules.add(rule);
+            }
+        }
+    }
 }
@@ -3,12 +3,16 @@ package pt.up.fe.comp2024.symboltable;
 import pt.up.fe.comp.jmm.analysis.table.Symbol;
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.analysis.table.Type;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.comp2024.ast.TypeUtils;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 public class JmmSymbolTable implements SymbolTable {
 
@@ -21,6 +25,18 @@ public class JmmSymbolTable implements SymbolTable {
     private final String sup;
     private final List<Symbol> fields;
 
+    /**
+     * For each method, its parameters and locals by name. When a name is declared more than once, the first
+     * declaration wins, parameters before locals, as in a linear search of the parameters and then of the locals.
+     */
+    private final Map<String, Map<String, ScopedSymbol>> methodScopes;
+    private final Map<String, ScopedSymbol> fieldScope;
+
+    /**
+     * The name of the method that encloses each node of the AST, for the nodes inside a method.
+     */
+    private final Map<JmmNode, String> enclosingMethods;
+
     public JmmSymbolTable(String className,
                           List<String> methods,
                           Map<String, Type> returnTypes,
@@ -28,7 +44,8 @@ public class JmmSymbolTable implements SymbolTable {
                           Map<String, List<Symbol>> locals,
                           List<String> imports,
                           String sup,
-                          List<Symbol> fields) {
+                          List<Symbol> fields,
+                          Map<JmmNode, String> enclosingMethods) {
         this.className = className;
         this.methods = methods;
         this.returnTypes = returnTypes;
@@ -37,6 +54,79 @@ public class JmmSymbolTable implements SymbolTable {
         this.imports = imports;
         this.sup = sup;
         this.fields = fields;
+        this.enclosingMethods = enclosingMethods;
+
+        this.methodScopes = new HashMap<>();
+        for (var method : methods) {
+            Map<String, ScopedSymbol> scope = new HashMap<>();
+
+            var methodParams = params.getOrDefault(method, Collections.emptyList());
+            for (int i = 0; i < methodParams.size(); i++) {
+                var param = methodParams.get(i);
+                scope.putIfAbsent(param.getName(), new ScopedSymbol(param, ScopedSymbol.Scope.PARAMETER, i + 1));
+            }
+
+            for (var local : locals.getOrDefault(method, Collections.emptyList())) {
+                scope.putIfAbsent(local.getName(), new ScopedSymbol(local, ScopedSymbol.Scope.LOCAL, -1));
+            }
+
+            methodScopes.put(method, scope);
+        }
+
+        this.fieldScope = new HashMap<>();
+        for (var field : fields) {
+            fieldScope.putIfAbsent(field.getName(), new ScopedSymbol(field, ScopedSymbol.Scope.FIELD, -1));
+        }
+    }
+
+    /**
+     * @return the name of the method that contains the given node (or the method itself, if it is a method
+     * declaration), or empty if the node is outside of any method
+     */
+    public Optional<String> getEnclosingMethod(JmmNode node) {
+        var method = enclosingMethods.get(node);
+        if (method != null) {
+            return Optional.of(method);
+        }
+
+        // Nodes created after the table was built are not indexed
+        for (var curr = node; curr != null; curr = curr.getParent()) {
+            if (Kind.METHOD_DECL.check(curr)) {
+                return Optional.of(curr.get("name"));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Resolves a variable name as seen from the given node: first the parameters and locals of the enclosing method,
+     * then the fields of the class.
+     */
+    public Optional<ScopedSymbol> resolve(JmmNode node, String name) {
+        var method = getEnclosingMethod(node);
+        if (method.isPresent()) {
+            var symbol = getMethodScope(method.get()).get(name);
+            if (symbol != null) {
+                return Optional.of(symbol);
+            }
+        }
+
+        return Optional.ofNullable(fieldScope.get(name));
+    }
+
+    /**
+     * @return the parameters and locals of the given method, by name
+     */
+    public Map<String, ScopedSymbol> getMethodScope(String methodSignature) {
+        return methodScopes.getOrDefault(methodSignature, Collections.emptyMap());
+    }
+
+    /**
+     * @return the fields of the class, by name
+     */
+    public Map<String, ScopedSymbol> getFieldScope() {
+        return fieldScope;
     }
 
     @Override
@@ -31,8 +31,22 @@ public class JmmSymbolTableBuilder {
         var locals = buildLocals(classDecl);
         var sup = buildSuper(classDecl);
         var fields = buildFields(classDecl);
+        var enclosingMethods = buildEnclosingMethods(classDecl);
 
-        return new JmmSymbolTable(className, methods, returnTypes, params, locals, imports, sup, fields);
+        return new JmmSymbolTable(className, methods, returnTypes, params, locals, imports, sup, fields,
+                enclosingMethods);
+    }
+
+    private static Map<JmmNode, String> buildEnclosingMethods(JmmNode classDecl) {
+        // Nodes are looked up by identity, the AST does not redefine equals
+        Map<JmmNode, String> map = new IdentityHashMap<>();
+
+        for (var method : classDecl.getChildren(METHOD_DECL)) {
+            var name = method.get("name");
+            method.getDescendantsAndSelfStream().forEach(node -> map.put(node, name));
+        }
+
+        return map;
     }
 
     private static Map<String, Type> buildReturnTypes(JmmNode classDecl) {
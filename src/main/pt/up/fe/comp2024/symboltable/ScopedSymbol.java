@@ -0,0 +1,33 @@
+package pt.up.fe.comp2024.symboltable;
+
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp.jmm.analysis.table.Type;
+
+/**
+ * A symbol resolved in the scope of a method, together with where it was declared.
+ *
+ * @param symbol     the symbol
+ * @param scope      where the symbol was declared
+ * @param paramIndex the position of the symbol in the parameters of the method, starting at 1 (as in OLLIR), or -1 if
+ *                   it is not a parameter
+ */
+public record ScopedSymbol(Symbol symbol, Scope scope, int paramIndex) {
+
+    public enum Scope {
+        PARAMETER,
+        LOCAL,
+        FIELD
+    }
+
+    public Type getType() {
+        return symbol.getType();
+    }
+
+    public boolean isParameter() {
+        return scope == Scope.PARAMETER;
+    }
+
+    public boolean isField() {
+        return scope == Scope.FIELD;
+    }
+}
@@ -0,0 +1,172 @@
+package pt.up.fe.comp2024.utils;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Measures the wall time, CPU time and allocated bytes of each stage of a compilation.
+ * <p>
+ * A timer is started for the current thread, and the stages of the compiler wrap their work in
+ * {@link #time(String, Supplier)}. When no timer was started for the thread, stages run without being measured, so the
+ * instrumentation costs nothing when timing is disabled. CPU time and allocations are those of the current thread.
+ */
+public class StageTimer {
+
+    private static final ThreadLocal<StageTimer> CURRENT = new ThreadLocal<>();
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Measurements of a single stage.
+     *
+     * @param stage          the name of the stage
+     * @param wallNanos      elapsed real time, in nanoseconds
+     * @param cpuNanos       CPU time of the thread, in nanoseconds, or -1 if not supported by the JVM
+     * @param allocatedBytes bytes allocated by the thread, or -1 if not supported by the JVM
+     */
+    public record Timing(String stage, long wallNanos, long cpuNanos, long allocatedBytes) {
+    }
+
+    private final List<Timing> timings = new ArrayList<>();
+
+    private StageTimer() {
+    }
+
+    /**
+     * Starts measuring the stages that run in the current thread, until {@link #stop()} is called.
+     */
+    public static StageTimer start() {
+        var timer = new StageTimer();
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    /**
+     * Stops measuring the current thread.
+     *
+     * @return the measurements of each stage, in the order the stages finished
+     */
+    public List<Timing> stop() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+
+        return timings;
+    }
+
+    /**
+     * Runs a stage, measuring it if a timer was started for the current thread.
+     */
+    public static <T> T time(String stage, Supplier<T> action) {
+        var timer = CURRENT.get();
+        if (timer == null) {
+            return action.get();
+        }
+
+        var wallStart = System.nanoTime();
+        var cpuStart = getCpuTime();
+        var allocatedStart = getAllocatedBytes();
+
+        try {
+            return action.get();
+        } finally {
+            var cpuEnd = getCpuTime();
+            var allocatedEnd = getAllocatedBytes();
+
+            timer.timings.add(new Timing(stage,
+                    System.nanoTime() - wallStart,
+                    cpuStart < 0 || cpuEnd < 0 ? -1 : cpuEnd - cpuStart,
+                    allocatedStart < 0 || allocatedEnd < 0 ? -1 : allocatedEnd - allocatedStart));
+        }
+    }
+
+    /**
+     * Formats the measurements as a human-readable table, with a final row with the totals.
+     */
+    public static String toTable(String title, List<Timing> timings) {
+        var table = new StringBuilder();
+
+        table.append("Stage timings for ").append(title).append("\n");
+        table.append(String.format("%-28s %12s %12s %14s%n", "stage", "wall ms", "cpu ms", "allocated KB"));
+
+        for (var timing : timings) {
+            appendRow(table, timing);
+        }
+        appendRow(table, getTotal(timings));
+
+        return table.toString();
+    }
+
+    /**
+     * Formats the measurements as a JSON object, with the name of the compiled input, the stages and the totals.
+     */
+    public static String toJson(String title, List<Timing> timings) {
+        var stages = new JsonArray();
+        for (var timing : timings) {
+            stages.add(toJson(timing));
+        }
+
+        var json = new JsonObject();
+        json.addProperty("input", title);
+        json.add("stages", stages);
+        json.add("total", toJson(getTotal(timings)));
+
+        return new GsonBuilder().setPrettyPrinting().create().toJson(json);
+    }
+
+    private static JsonObject toJson(Timing timing) {
+        var json = new JsonObject();
+
+        json.addProperty("stage", timing.stage());
+        json.addProperty("wallNanos", timing.wallNanos());
+        json.addProperty("cpuNanos", timing.cpuNanos());
+        json.addProperty("allocatedBytes", timing.allocatedBytes());
+
+        return json;
+    }
+
+    private static void appendRow(StringBuilder table, Timing timing) {
+        table.append(String.format("%-28s %12.3f %12s %14s%n",
+                timing.stage(),
+                timing.wallNanos() / 1_000_000.0,
+                timing.cpuNanos() < 0 ? "n/a" : String.format("%.3f", timing.cpuNanos() / 1_000_000.0),
+                timing.allocatedBytes() < 0 ? "n/a" : Long.toString(timing.allocatedBytes() / 1024)));
+    }
+
+    private static Timing getTotal(List<Timing> timings) {
+        long wall = 0;
+        long cpu = 0;
+        long allocated = 0;
+
+        for (var timing : timings) {
+            wall += timing.wallNanos();
+            cpu = cpu < 0 || timing.cpuNanos() < 0 ? -1 : cpu + timing.cpuNanos();
+            allocated = allocated < 0 || timing.allocatedBytes() < 0 ? -1 : allocated + timing.allocatedBytes();
+        }
+
+        return new Timing("total", wall, cpu, allocated);
+    }
+
+    private static long getCpuTime() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    private static long getAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+
+        return -1;
+    }
+}
@@ -18,6 +18,7 @@ import pt.up.fe.comp.CpUtils;
 import pt.up.fe.comp.TestUtils;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.InMemoryJasminResult;
 import pt.up.fe.specs.util.SpecsCheck;
 import pt.up.fe.specs.util.SpecsIo;
 import pt.up.fe.specs.util.SpecsStrings;
@@ -243,6 +244,13 @@ public class Cpf4_Jasmin {
         CpUtils.runJasmin(getJasminResult("arrays/VarargsAndArrayInit.ollir"), "8");
     }
 
+    /*packs the variable arguments of a call in an array of their number, or passes an array as is */
+    @Test
+    public void section5_Arrays_VarargsCall() {
+        var result = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/arrays/VarargsCall.jmm"));
+        CpUtils.runJasmin(result, "2\n8\n9");
+    }
+
     /*checks if the .limits locals is not a const 99 value */
     @Test
     public void section6_Limits_Locals_Not_99() {
@@ -303,4 +311,27 @@ public class Cpf4_Jasmin {
         // Make sure the code compiles
         jasminResult.compile();
     }
+
+    /*stops a program that does not finish, keeping what it printed, and still runs other programs afterwards */
+    @Test
+    public void section7_Run_Timeout() {
+        var result = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/run/Forever.jmm"));
+        var output = result.runWithFullOutput();
+        assertEquals(-1, output.getReturnValue());
+        assertEquals("1", SpecsStrings.normalizeFileContents(output.getStdOut(), true));
+
+        var other = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/arrays/VarargsCall.jmm"));
+        CpUtils.runJasmin(other, "2\n8\n9");
+    }
+
+    /*runs a program that ends the JVM in a new one */
+    @Test
+    public void section7_Run_Exit() {
+        var jasminCode = SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/run/ExitCode.j");
+        var result = new InMemoryJasminResult("ExitCode", jasminCode, Collections.emptyList(), Collections.emptyMap());
+        var output = result.runWithFullOutput();
+        assertEquals(3, output.getReturnValue());
+        assertEquals("1", SpecsStrings.normalizeFileContents(output.getStdOut(), true));
+    }
+
 }
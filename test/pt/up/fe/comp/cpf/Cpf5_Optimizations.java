@@ -18,14 +18,19 @@ import pt.up.fe.comp.CpUtils;
 import pt.up.fe.comp.TestUtils;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.specs.util.SpecsIo;
 import pt.up.fe.specs.util.SpecsStrings;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class Cpf5_Optimizations {
 
     static OllirResult getOllirResult(String filename) {
@@ -49,6 +54,17 @@ public class Cpf5_Optimizations {
         return TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
     }
 
+    static JasminResult getJasminResultPeephole(String filename, String rules) {
+        Map<String, String> config = new HashMap<>();
+        config.put("peephole", rules);
+        return TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+    }
+
+    static void doesNotMatch(JasminResult result, String code, String regex) {
+        CpUtils.assertTrue("Expected code not to match /" + regex + "/", !Pattern.compile(regex).matcher(code).find(),
+                result);
+    }
+
     /**
      * Test if small integers are loaded with iconst
      */
@@ -163,6 +179,39 @@ public class Cpf5_Optimizations {
     }
 
 
+    /**
+     * Test if a program whose methods fit in the requested number of registers still runs correctly
+     */
+    @Test
+    public void section2_RegAlloc_EnoughRegisters() {
+        JasminResult optimized = getJasminResultReg("reg_alloc/RegAllocRun.jmm", 3);
+
+        String method = CpUtils.getJasminMethod(optimized, "sum");
+        Matcher matcher = CpUtils.getLimitLocalsRegex().matcher(method);
+        CpUtils.assertTrue("Expected to find .limit locals directive", matcher.find(), optimized);
+        CpUtils.assertTrue("Expected number of locals in 'sum' to be <= than 3",
+                Integer.parseInt(matcher.group(1)) <= 3, optimized);
+
+        CpUtils.runJasmin(optimized, "52");
+    }
+
+    /**
+     * Test if asking for fewer registers than a method needs is reported as an error
+     */
+    @Test
+    public void section2_RegAlloc_TooFewRegisters() {
+        Map<String, String> config = new HashMap<>();
+        config.put("registerAllocation", "2");
+        OllirResult result = TestUtils.optimize(
+                SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/reg_alloc/RegAllocRun.jmm"), config);
+
+        TestUtils.mustFail(result.getReports());
+        CpUtils.assertTrue("Expected the error to give the registers 'sum' needs",
+                result.getReports().stream().anyMatch(report -> report.getMessage().contains("needs at least 3")),
+                result);
+    }
+
+
     @Test
     public void section3_ConstProp_Simple() {
 
@@ -194,5 +243,221 @@ public class Cpf5_Optimizations {
         CpUtils.matches(optimized, "(bipush|sipush|ldc) 10\\s+imul");
     }
 
+    /**
+     * Test if a variable keeps its constant only where both branches of an 'if' agree on it, and the constant is
+     * folded inside a loop that does not assign it
+     */
+    @Test
+    public void section3_ConstProp_Branches() {
+        JasminResult optimized = getJasminResultOpt("const_prop/PropBranches.jmm");
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        CpUtils.assertTrue("Expected 'a * 2' to be folded", !method.contains("imul"), optimized);
+        CpUtils.matches(method, "(bipush|iinc\\s+\\w+)\\s+6\\b");
+
+        CpUtils.runJasmin(optimized, "23\n22");
+    }
+
+
+    /**
+     * Test if the initialization of a 'for' is propagated only before the loop, and not into its condition and body,
+     * which also see the values of the later iterations
+     */
+    @Test
+    public void section3_ConstProp_ForInit() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "true");
+        var code = SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/const_prop/PropForLoop.jmm");
+        var semantics = TestUtils.getJmmOptimization().optimize(TestUtils.analyse(code, config));
+
+        var forStmt = semantics.getRootNode().getDescendants(Kind.FOR_STMT).get(0);
+        var condition = forStmt.getJmmChild(1);
+        assertTrue("Expected 'i < n' not to be folded, got " + condition.toTree(), Kind.BINARY_EXPR.check(condition));
+        assertEquals("i", condition.getJmmChild(0).get("name"));
+
+        var sum = forStmt.getJmmChild(3).getDescendants(Kind.BINARY_EXPR).get(0);
+        assertEquals("i", sum.getJmmChild(1).get("name"));
+    }
+
+
+    /**
+     * Test if a dead store of the value of a call keeps the call, for its side effects, and drops the other dead stores
+     */
+    @Test
+    public void section4_DeadCode_CallStore() {
+        JasminResult optimized = getJasminResultOpt("dead_code/DeadCall.jmm");
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        CpUtils.matches(method, "invokevirtual\\s+DeadCall/count\\(\\[II\\)I\\s+pop");
+        CpUtils.assertTrue("Expected the dead store of 7 to be removed", !method.contains("bipush 7"), optimized);
+
+        CpUtils.runJasmin(optimized, "9");
+    }
+
+
+    /**
+     * Test if a subtraction tested against 0 becomes a comparison of the two values
+     */
+    @Test
+    public void section5_Peephole_CompareBranch() {
+        JasminResult optimized = getJasminResultPeephole("peephole/Peephole.jmm", "compare-branch");
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        CpUtils.matches(method, "if_icmp(lt|ge)\\s+\\w+");
+        doesNotMatch(optimized, method, "isub\\s+if(lt|ge)\\b");
+
+        CpUtils.runJasmin(optimized, "201013");
+    }
+
+    /**
+     * Test if a value stored and loaded back from a variable that is not read again stays on the stack, e.g. a
+     * temporary copied to another variable
+     */
+    @Test
+    public void section5_Peephole_StoreLoad() {
+        JasminResult optimized = getJasminResultPeephole("peephole/Peephole.jmm", "store-load");
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        doesNotMatch(optimized, method, "istore[ _](\\d+)\\s+iload[ _]\\1\\s+istore");
+
+        CpUtils.runJasmin(optimized, "201013");
+    }
+
+    /**
+     * Test if a branch over a 'goto' becomes the negated branch to the target of the 'goto'
+     */
+    @Test
+    public void section5_Peephole_JumpThreading() {
+        JasminResult optimized = getJasminResultPeephole("peephole/Peephole.jmm", "jump-threading");
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        doesNotMatch(optimized, method, "if\\w+\\s+(\\w+)\\s+goto\\s+\\w+\\s+\\1:");
+
+        CpUtils.runJasmin(optimized, "201013");
+    }
+
+    /**
+     * Test if iinc is used for constants outside the byte range that fit in a short, and not for larger ones
+     */
+    @Test
+    public void section5_Peephole_Iinc() {
+        JasminResult optimized = getJasminResultPeephole("peephole/Peephole.jmm", "store-load,iinc");
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        CpUtils.matches(method, "iinc\\s+\\w+\\s+200\\b");
+        CpUtils.matches(method, "ldc\\s+40000\\s+iadd");
+
+        CpUtils.runJasmin(optimized, "201013");
+    }
+
+
+    /**
+     * Test if the right operand of '&&' and '||' only runs when the left one does not decide the result
+     */
+    @Test
+    public void section6_ShortCircuit_SideEffects() {
+        JasminResult result = getJasminResult("short_circuit/ShortCircuit.jmm");
+
+        String method = CpUtils.getJasminMethod(result, "run");
+        doesNotMatch(result, method, "\\bi(and|or)\\b");
+
+        CpUtils.runJasmin(result, "24561");
+        CpUtils.runJasmin(getJasminResultOpt("short_circuit/ShortCircuit.jmm"), "24561");
+    }
+
+
+    /**
+     * Test if rotated loops jump back only through their condition, including loops that run zero times
+     */
+    @Test
+    public void section7_LoopRotation_Nested() {
+        JasminResult result = getJasminResult("loop_rotation/NestedLoops.jmm");
+
+        // A 'goto' to a label defined before it would be the jump back of an unrotated loop
+        String method = CpUtils.getJasminMethod(result, "sum");
+        var labels = new HashSet<String>();
+        for (var line : method.lines().map(String::strip).toList()) {
+            if (line.endsWith(":")) {
+                labels.add(line.substring(0, line.length() - 1));
+            } else if (line.startsWith("goto")) {
+                CpUtils.assertTrue("Expected no jump back with goto: " + line,
+                        !labels.contains(line.substring("goto".length()).strip()), result);
+            }
+        }
+        CpUtils.matches(method, CpUtils.IF_REGEX);
+
+        CpUtils.runJasmin(result, "0\n10");
+    }
+
+
+    /**
+     * Test if a rotated loop is entered with a single conditional branch over it, and no unconditional jump
+     */
+    @Test
+    public void section7_LoopRotation_SingleEntryBranch() {
+        OllirResult result = TestUtils.optimize(
+                SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/loop_rotation/NestedLoops.jmm"));
+
+        var code = result.getOllirCode();
+        CpUtils.assertTrue("Expected no 'goto' outside of 'if'",
+                code.lines().map(String::strip).noneMatch(line -> line.startsWith("goto")), result);
+        CpUtils.assertTrue("Expected the loops to be skipped by a branch to their end",
+                Pattern.compile("if \\(.*\\) goto whileEnd").matcher(code).find(), result);
+    }
+
+
+    /**
+     * Test if an invariant computation is moved before the loop, but not an assignment made on only one branch
+     */
+    @Test
+    public void section8_Licm_Branch() {
+        JasminResult optimized = getJasminResultOpt("licm/LicmBranch.jmm");
+
+        // Everything before the first label runs once, before the loop
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        var loop = Pattern.compile("^\\w+:", Pattern.MULTILINE).matcher(method);
+        CpUtils.assertTrue("Expected to find the label of the loop", loop.find(), optimized);
+        CpUtils.matches(method.substring(0, loop.start()), "imul");
+
+        // Assigning 'm' before the loop would change the sum of its first iterations
+        CpUtils.runJasmin(optimized, "77");
+    }
+
+
+    /**
+     * Test if an inlined store to an array element keeps the stack balanced where the branches of the caller meet
+     */
+    @Test
+    public void section9_Inlining_ArrayStoreInBranches() {
+        CpUtils.runJasmin(getJasminResultOpt("inlining/InlineArrayStore.jmm"), "122");
+    }
+
+    /**
+     * Test if inlining a method that assigns its parameter leaves the argument of the caller unchanged
+     */
+    @Test
+    public void section9_Inlining_ReassignedParam() {
+        JasminResult optimized = getJasminResultOpt("inlining/InlineParam.jmm");
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        CpUtils.assertTrue("Expected 'twice' to be inlined", !method.contains("invokevirtual"), optimized);
+
+        CpUtils.runJasmin(optimized, "15");
+    }
+
+    /**
+     * Test if self tail calls that swap the parameters become a loop, deep enough to overflow the stack otherwise
+     */
+    @Test
+    public void section10_TailCalls_SwappedParams() {
+        JasminResult optimized = getJasminResultOpt("tail_calls/TailGcd.jmm");
+
+        for (var name : new String[]{"gcd", "count"}) {
+            String method = CpUtils.getJasminMethod(optimized, name);
+            CpUtils.assertTrue("Expected no call left in '" + name + "'", !method.contains("invokevirtual"), optimized);
+        }
+
+        CpUtils.runJasmin(optimized, "6\n1\n1000000");
+    }
 
 }
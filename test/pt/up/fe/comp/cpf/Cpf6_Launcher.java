@@ -0,0 +1,323 @@
+/**
+ * Copyright 2022 SPeCS.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.comp.cpf;
+
+import com.google.gson.JsonParser;
+import org.junit.Test;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.BatchCompiler;
+import pt.up.fe.comp2024.CompileDaemon;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.Launcher;
+import pt.up.fe.comp2024.analysis.AnalysisVisitor;
+import pt.up.fe.comp2024.analysis.FusedAnalysis;
+import pt.up.fe.comp2024.analysis.passes.IfStatement;
+import pt.up.fe.comp2024.analysis.passes.WhileStatement;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.symboltable.JmmSymbolTableBuilder;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Cpf6_Launcher {
+
+    /**
+     * How many times each parallel compilation is compared with the serial one, so that a different order of the
+     * tasks has a chance to show up.
+     */
+    static final int PARALLEL_RUNS = 5;
+
+    static String getCode(String filename) {
+        return SpecsIo.getResource("pt/up/fe/comp/cpf/6_launcher/" + filename);
+    }
+
+    /**
+     * @param entries the options, as pairs of key and value
+     */
+    static Map<String, String> config(boolean parallel, String... entries) {
+        Map<String, String> config = new HashMap<>();
+        config.put("parallel", String.valueOf(parallel));
+        for (int i = 0; i < entries.length; i += 2) {
+            config.put(entries[i], entries[i + 1]);
+        }
+        return config;
+    }
+
+    static List<String> toStrings(List<Report> reports) {
+        return reports.stream()
+                .map(report -> report.getType() + "@" + report.getStage() + " " + report.getLine() + ":"
+                        + report.getColumn() + " " + report.getMessage())
+                .toList();
+    }
+
+    static Path copyResource(Path folder, String filename) throws IOException {
+        var file = folder.resolve(filename);
+        Files.writeString(file, SpecsIo.getResource("pt/up/fe/comp/cpf/6_launcher/" + filename));
+        return file;
+    }
+
+    /**
+     * Sends the given lines to the daemon.
+     *
+     * @return the lines of the answer
+     */
+    static List<String> request(int port, String... lines) throws IOException {
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             var out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8)) {
+
+            for (var line : lines) {
+                out.println(line);
+            }
+
+            List<String> answer = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                answer.add(line);
+                if (line.startsWith(CompileDaemon.EXIT_PREFIX)) {
+                    break;
+                }
+            }
+
+            return answer;
+        }
+    }
+
+    /*compiles a file relative to the working directory of the client, and rejects requests without the token */
+    @Test
+    public void section1_Daemon_Request() throws Exception {
+        var folder = Files.createTempDirectory("jmm-daemon");
+        copyResource(folder, "Simple.jmm");
+
+        var daemon = new CompileDaemon(0, 1, folder.resolve("tokens"));
+        var port = daemon.bind();
+        var server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        server.start();
+
+        try {
+            var token = Files.readString(CompileDaemon.getTokenFile(folder.resolve("tokens"), port));
+
+            var answer = request(port, token, folder.toString(), "2", "-i=Simple.jmm", "-d");
+            assertEquals("EXIT 0", answer.get(answer.size() - 1));
+            assertTrue(String.join("\n", answer), answer.stream().anyMatch(line -> line.startsWith(".class")));
+
+            var rejected = request(port, "not-the-token", folder.toString(), "1", "-i=Simple.jmm");
+            assertEquals("EXIT 1", rejected.get(rejected.size() - 1));
+            assertTrue(rejected.stream().noneMatch(line -> line.startsWith(".class")));
+        } finally {
+            daemon.close();
+            server.join();
+        }
+
+        SpecsIo.deleteFolder(folder.toFile());
+    }
+
+    /*reports the errors of the passes in the same order with and without '-p' */
+    @Test
+    public void section2_Parallel_AnalysisReports() {
+        var code = getCode("ManyErrors.jmm");
+        var serial = toStrings(TestUtils.analyse(code, config(false)).getReports());
+        assertTrue("Expected several error reports", serial.size() > 1);
+
+        for (int i = 0; i < PARALLEL_RUNS; i++) {
+            assertEquals(serial, toStrings(TestUtils.analyse(code, config(true)).getReports()));
+        }
+    }
+
+    /*builds the same OLLIR with and without '-p', with and without '-o' */
+    @Test
+    public void section2_Parallel_Ollir() {
+        var code = getCode("ManyMethods.jmm");
+
+        for (var optimize : List.of("false", "true")) {
+            var serial = TestUtils.optimize(code, config(false, "optimize", optimize));
+            assertTrue(serial.getOllirCode(), serial.getOllirCode().contains(".method public count("));
+
+            for (int i = 0; i < PARALLEL_RUNS; i++) {
+                var parallel = TestUtils.optimize(code, config(true, "optimize", optimize));
+                assertEquals(serial.getOllirCode(), parallel.getOllirCode());
+                assertEquals(toStrings(serial.getReports()), toStrings(parallel.getReports()));
+            }
+        }
+    }
+
+    /*generates the same Jasmin code and peephole reports with and without '-p' */
+    @Test
+    public void section2_Parallel_Jasmin() {
+        var code = getCode("ManyMethods.jmm");
+        var serial = TestUtils.backend(code, config(false, "peephole", "all"));
+        assertTrue("Expected the peephole reports", !serial.getReports().isEmpty());
+
+        for (int i = 0; i < PARALLEL_RUNS; i++) {
+            var parallel = TestUtils.backend(code, config(true, "peephole", "all"));
+            assertEquals(serial.getJasminCode(), parallel.getJasminCode());
+            assertEquals(toStrings(serial.getReports()), toStrings(parallel.getReports()));
+        }
+
+        CpUtils.runJasmin(TestUtils.backend(code, config(true)), "28\n7\n2");
+    }
+
+    /*expands a folder to its .jmm files in order, including subfolders, and a list of files in the given order */
+    @Test
+    public void section3_Batch_Inputs() throws IOException {
+        var folder = Files.createTempDirectory("jmm-batch");
+        var simple = copyResource(folder, "Simple.jmm");
+        var methods = copyResource(folder, "ManyMethods.jmm");
+        Files.createDirectory(folder.resolve("sub"));
+        var nested = Files.writeString(folder.resolve("sub/Nested.jmm"), getCode("Simple.jmm"));
+        Files.writeString(folder.resolve("notes.txt"), "not a Java-- file");
+
+        var fromFolder = CompilerConfig.getBatchInputs(CompilerConfig.parseArgs(new String[]{"-b=" + folder}));
+        assertEquals(List.of(methods.toFile(), simple.toFile(), nested.toFile()), fromFolder);
+
+        var fromList = CompilerConfig.getBatchInputs(
+                CompilerConfig.parseArgs(new String[]{"-b=" + simple + ", " + methods + ","}));
+        assertEquals(List.of(simple.toFile(), methods.toFile()), fromList);
+
+        SpecsIo.deleteFolder(folder.toFile());
+    }
+
+    /*keeps compiling the other files when one fails, and reports them in the order of the inputs */
+    @Test
+    public void section3_Batch_OneFails() throws IOException {
+        var folder = Files.createTempDirectory("jmm-batch");
+        var methods = copyResource(folder, "ManyMethods.jmm");
+        var errors = copyResource(folder, "ManyErrors.jmm");
+        var simple = copyResource(folder, "Simple.jmm");
+
+        var config = CompilerConfig.parseArgs(new String[]{"-b=" + simple + "," + errors + "," + methods, "-j=3"});
+        var results = new BatchCompiler(config).compileAll();
+
+        assertEquals(List.of(simple.toFile(), errors.toFile(), methods.toFile()),
+                results.stream().map(BatchCompiler.FileResult::file).toList());
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(!results.get(1).isSuccess());
+        assertTrue(results.get(1).error(), results.get(1).error().contains("error"));
+        assertTrue(results.get(2).isSuccess());
+
+        var output = new ByteArrayOutputStream();
+        var success = new BatchCompiler(config).run(new PrintStream(output, true, StandardCharsets.UTF_8));
+        assertTrue(!success);
+
+        var lines = output.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("OK    " + simple));
+        assertTrue(lines.get(1), lines.get(1).startsWith("FAIL  " + errors));
+        assertTrue(lines.get(2), lines.get(2).startsWith("OK    " + methods));
+        assertEquals("2 file(s) compiled, 1 failed", lines.get(3));
+
+        SpecsIo.deleteFolder(folder.toFile());
+    }
+
+    /*prints a row for each stage, in the order they finished, and a row with the totals, only with '-t' */
+    @Test
+    public void section4_Timing_Table() {
+        var code = getCode("Simple.jmm");
+        assertNull(Launcher.compileTimed(code, new HashMap<>()).timings());
+
+        var table = Launcher.compileTimed(code, config(false, "timing", "true")).timings();
+        var lines = table.lines().toList();
+        assertEquals("Stage timings for <code>", lines.get(0));
+
+        var stages = lines.subList(2, lines.size()).stream()
+                .map(line -> line.substring(0, 28).strip())
+                .toList();
+        assertEquals(List.of("parse", "symbol table", "analysis", "ollir generation", "jasmin generation", "total"),
+                stages);
+    }
+
+    /*prints the same stages as JSON with '-t=json', with totals that add up the stages */
+    @Test
+    public void section4_Timing_Json() {
+        var json = Launcher.compileTimed(getCode("Simple.jmm"), config(false, "timing", "json")).timings();
+        var timings = JsonParser.parseString(json).getAsJsonObject();
+        assertEquals("<code>", timings.get("input").getAsString());
+
+        var stages = timings.getAsJsonArray("stages");
+        List<String> names = new ArrayList<>();
+        long wallNanos = 0;
+        for (var stage : stages) {
+            names.add(stage.getAsJsonObject().get("stage").getAsString());
+            wallNanos += stage.getAsJsonObject().get("wallNanos").getAsLong();
+        }
+        assertEquals(List.of("parse", "symbol table", "analysis", "ollir generation", "jasmin generation"), names);
+
+        var total = timings.getAsJsonObject("total");
+        assertEquals("total", total.get("stage").getAsString());
+        assertEquals(wallNanos, total.get("wallNanos").getAsLong());
+    }
+
+    /*drops a pass that throws, replacing its reports by an error, and keeps applying the other passes */
+    @Test
+    public void section5_FusedAnalysis_PassThrows() {
+        var root = TestUtils.parse(getCode("ManyErrors.jmm")).getRootNode();
+        var table = JmmSymbolTableBuilder.build(root);
+
+        var failing = new AnalysisVisitor() {
+            @Override
+            public void buildVisitor() {
+                addVisit(Kind.METHOD_DECL, (method, symbolTable) -> {
+                    addReport(Report.newError(Stage.SEMANTIC, -1, -1, "Dropped when the pass throws", null));
+                    return null;
+                });
+                addVisit(Kind.IF_STMT, (ifStmt, symbolTable) -> {
+                    throw new RuntimeException("Pass failed");
+                });
+            }
+        };
+
+        var reports = new FusedAnalysis(List.of(new IfStatement(), failing, new WhileStatement()))
+                .analyze(root, table);
+
+        // Same reports as each pass on its own, since the 'while' is visited after the failure
+        List<Report> expected = new ArrayList<>(new IfStatement().analyze(root, table));
+        var failureIndex = expected.size();
+        expected.add(null);
+        expected.addAll(new WhileStatement().analyze(root, table));
+        assertEquals(expected.size(), reports.size());
+
+        for (int i = 0; i < reports.size(); i++) {
+            if (i == failureIndex) {
+                assertEquals(ReportType.ERROR, reports.get(i).getType());
+                assertTrue(reports.get(i).getMessage(), reports.get(i).getMessage().contains("analysis pass"));
+                assertEquals("Pass failed", reports.get(i).getException().orElseThrow().getMessage());
+            } else {
+                assertEquals(toStrings(List.of(expected.get(i))), toStrings(List.of(reports.get(i))));
+            }
+        }
+    }
+}